@@ -0,0 +1,161 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.FilePath;
+import hudson.util.DirScanner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+/**
+ * What {@link AWSEBS3Uploader} does to a workspace before and while sending it: zipping it, hashing the zip,
+ * deciding whether S3 already has it and slicing it into the parts of a multipart upload.
+ *
+ * The workspaces are made up, either lots of small files, like a web application's sources,
+ * or a few big incompressible ones, like jars.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AWSEBBundleBenchmark {
+
+    @Param({"smallFiles", "bigJars"})
+    public String shape;
+
+    private File workspace;
+    private File archive;
+    private ObjectMetadata uploaded;
+    private byte[] buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workspace = createTempDir("awseb-workspace-");
+        Random random = new Random(42);
+        if ("smallFiles".equals(shape)) {
+            // 5000 files of 1KB, 50 per directory
+            for (int i = 0; i < 5000; i++) {
+                byte[] content = new byte[1024];
+                for (int b = 0; b < content.length; b++) {
+                    // text like, so it compresses
+                    content[b] = (byte) ('a' + random.nextInt(16));
+                }
+                write(new File(workspace, String.format("src/module%s/File%s.js", i / 50, i)), content);
+            }
+        } else {
+            // 4 jars of 16MB, over the multipart threshold once zipped
+            for (int i = 0; i < 4; i++) {
+                byte[] content = new byte[16 * 1024 * 1024];
+                random.nextBytes(content);
+                write(new File(workspace, String.format("lib/library%s.jar", i)), content);
+            }
+        }
+
+        archive = File.createTempFile("awseb-", ".zip");
+        OutputStream out = new FileOutputStream(archive);
+        try {
+            zip(out);
+        } finally {
+            out.close();
+        }
+
+        uploaded = new ObjectMetadata();
+        uploaded.addUserMetadata("awseb-md5", AWSEBUtils.md5Hex(archive));
+        buffer = new byte[64 * 1024];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(workspace);
+        archive.delete();
+    }
+
+    @Benchmark
+    public long zipWorkspace() throws Exception {
+        CountingOutputStream out = new CountingOutputStream(new NullOutputStream());
+        zip(out);
+        return out.getByteCount();
+    }
+
+    @Benchmark
+    public String digest() throws IOException {
+        return AWSEBUtils.md5Hex(archive);
+    }
+
+    /**
+     * The bundle is already in S3, the usual case of a build deploying again.
+     */
+    @Benchmark
+    public boolean skipUploadDecision() throws IOException {
+        return AWSEBS3Uploader.isUploadNeeded(AWSEBUtils.md5Hex(archive), uploaded, false);
+    }
+
+    /**
+     * Reads every part the way the SDK does, from a stream of its own over the archive.
+     */
+    @Benchmark
+    public long partSlicing() throws IOException {
+        long length = archive.length();
+        int partCount = AWSEBMultipartUploader.getPartCount(length);
+        long read = 0;
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            long remaining = AWSEBMultipartUploader.getPartSize(length, partNumber);
+            InputStream part = AWSEBMultipartUploader.openPart(archive, partNumber);
+            try {
+                while (remaining > 0) {
+                    int n = part.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n < 0) {
+                        break;
+                    }
+                    remaining -= n;
+                    read += n;
+                }
+            } finally {
+                part.close();
+            }
+        }
+        return read;
+    }
+
+    private void zip(OutputStream out) throws IOException, InterruptedException {
+        new FilePath(workspace).zip(out, new DirScanner.Glob("**/*", null));
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileUtils.writeByteArrayToFile(file, content);
+    }
+
+    private static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,63 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link AWSEBUtils#replaceMacros}, called for every field of every setup, with the variables
+ * of a typical build: a few characteristic ones, some parameters and the node's environment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AWSEBMacroBenchmark {
+
+    private Map<String, String> characteristicEnvVars;
+    private Map<String, String> buildVariables;
+    private Map<String, String> environment;
+
+    @Setup
+    public void setUp() {
+        characteristicEnvVars = new HashMap<String, String>();
+        characteristicEnvVars.put("JOB_NAME", "web-frontend");
+        characteristicEnvVars.put("BUILD_NUMBER", "1234");
+        characteristicEnvVars.put("BUILD_ID", "1234");
+        characteristicEnvVars.put("BUILD_TAG", "jenkins-web-frontend-1234");
+
+        buildVariables = new HashMap<String, String>();
+        for (int i = 0; i < 20; i++) {
+            buildVariables.put("PARAMETER_" + i, "value-" + i);
+        }
+
+        environment = new HashMap<String, String>(characteristicEnvVars);
+        for (int i = 0; i < 150; i++) {
+            environment.put("VARIABLE_" + i, "/some/path/" + i);
+        }
+        environment.put("GIT_COMMIT", "3f1c2a9d8e7b6a5f4e3d2c1b0a9f8e7d6c5b4a39");
+    }
+
+    @Benchmark
+    public String versionLabel() {
+        return AWSEBUtils.replaceMacros("${JOB_NAME}-${BUILD_NUMBER}-${GIT_COMMIT}", characteristicEnvVars, buildVariables, environment);
+    }
+
+    @Benchmark
+    public String noMacros() {
+        return AWSEBUtils.replaceMacros("my-application", characteristicEnvVars, buildVariables, environment);
+    }
+}
@@ -0,0 +1,104 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.ApplicationVersionDescription;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeApplicationVersionsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeApplicationVersionsResult;
+import com.amazonaws.services.elasticbeanstalk.model.S3Location;
+
+/**
+ * Short lived cache of the application versions known to exist, one per application.
+ *
+ * Versions are looked up by label the first time they are asked for and remembered for
+ * {@link #TTL_SECONDS}, so several jobs deploying the same artifact only ask AWS once.
+ */
+public class AWSEBApplicationVersionCache {
+
+    private static final int TTL_SECONDS = 60;
+    private static final long TTL_MILLISECONDS = TimeUnit.SECONDS.toMillis(TTL_SECONDS);
+
+    private final static ConcurrentMap<String, AWSEBApplicationVersionCache> caches = new ConcurrentHashMap<String, AWSEBApplicationVersionCache>();
+
+    private final String applicationName;
+    private final Map<String, CachedVersion> versions = new HashMap<String, CachedVersion>();
+
+    private AWSEBApplicationVersionCache(String applicationName) {
+        this.applicationName = applicationName;
+    }
+
+    public static AWSEBApplicationVersionCache forApplication(AWSEBCredentials credentials, Regions region, String applicationName) {
+        String key = String.format("%s|%s|%s", credentials == null ? "" : credentials.toString(), region, applicationName);
+        AWSEBApplicationVersionCache cache = caches.get(key);
+        if (cache == null) {
+            caches.putIfAbsent(key, new AWSEBApplicationVersionCache(applicationName));
+            cache = caches.get(key);
+        }
+        return cache;
+    }
+
+    /**
+     * @return the description of the version, or null if the application doesn't have a version with that label.
+     */
+    public ApplicationVersionDescription get(AWSElasticBeanstalk awseb, String versionLabel) {
+        synchronized (versions) {
+            CachedVersion cached = versions.get(versionLabel);
+            if (cached != null && !cached.isExpired()) {
+                return cached.description;
+            }
+        }
+
+        DescribeApplicationVersionsRequest request = new DescribeApplicationVersionsRequest()
+                .withApplicationName(applicationName).withVersionLabels(versionLabel);
+        DescribeApplicationVersionsResult result = awseb.describeApplicationVersions(request);
+
+        ApplicationVersionDescription found = null;
+        for (ApplicationVersionDescription description : result.getApplicationVersions()) {
+            if (versionLabel.equals(description.getVersionLabel())) {
+                found = description;
+                break;
+            }
+        }
+        if (found != null) {
+            put(found);
+        }
+        return found;
+    }
+
+    public void put(ApplicationVersionDescription description) {
+        synchronized (versions) {
+            versions.put(description.getVersionLabel(), new CachedVersion(description));
+        }
+    }
+
+    public void remove(String versionLabel) {
+        synchronized (versions) {
+            versions.remove(versionLabel);
+        }
+    }
+
+    public static boolean isSameBundle(ApplicationVersionDescription description, String bucketName, String objectKey) {
+        S3Location bundle = description.getSourceBundle();
+        return bundle != null && bucketName.equals(bundle.getS3Bucket()) && objectKey.equals(bundle.getS3Key());
+    }
+
+    private static class CachedVersion {
+        private final ApplicationVersionDescription description;
+        private final long expires;
+
+        private CachedVersion(ApplicationVersionDescription description) {
+            this.description = description;
+            this.expires = System.currentTimeMillis() + TTL_MILLISECONDS;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > expires;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import com.amazonaws.metrics.RequestMetricCollector;
+
+/**
+ * Time spent in each phase of one build's deployment and the AWS calls it made, also recorded into {@link AWSEBMetrics}.
+ *
+ * Phases are timed with {@link #start}, calls are counted by the clients made with {@link #getCollector()}.
+ * Both also go into the build's {@link AWSEBTrace}. Builds are weakly referenced, like in {@link AWSEBSharedBundles}.
+ */
+public class AWSEBBuildMetrics {
+
+    private final static Map<AbstractBuild<?, ?>, AWSEBBuildMetrics> builds = new WeakHashMap<AbstractBuild<?, ?>, AWSEBBuildMetrics>();
+
+    private final Map<String, AWSEBMetrics.Phase> phases = new TreeMap<String, AWSEBMetrics.Phase>();
+    private final Map<String, AWSEBMetrics.Calls> calls = new TreeMap<String, AWSEBMetrics.Calls>();
+    private final RequestMetricCollector collector = new AWSEBMetrics.Collector(this);
+    private final Map<String, Long> environments = new TreeMap<String, Long>();
+    private final AWSEBTrace trace = new AWSEBTrace();
+
+    public static AWSEBBuildMetrics forBuild(AbstractBuild<?, ?> build) {
+        synchronized (builds) {
+            AWSEBBuildMetrics metrics = builds.get(build);
+            if (metrics == null) {
+                metrics = new AWSEBBuildMetrics();
+                builds.put(build, metrics);
+            }
+            return metrics;
+        }
+    }
+
+    /**
+     * Starts timing a phase, eg. <code>upload</code>, {@link Timing#stop} it when it's done.
+     */
+    public Timing start(String phase) {
+        return new Timing(phase);
+    }
+
+    public RequestMetricCollector getCollector() {
+        return collector;
+    }
+
+    public AWSEBTrace getTrace() {
+        return trace;
+    }
+
+    void recordPhase(String name, long millis, long bytes) {
+        synchronized (phases) {
+            AWSEBMetrics.Phase phase = phases.get(name);
+            if (phase == null) {
+                phase = new AWSEBMetrics.Phase();
+                phases.put(name, phase);
+            }
+            phase.add(millis, bytes);
+        }
+        AWSEBMetrics.recordPhase(name, millis, bytes);
+    }
+
+    void recordCall(String operation, long requests, long retries, long throttles, boolean failed, long millis, long throttledMillis) {
+        synchronized (calls) {
+            AWSEBMetrics.Calls call = calls.get(operation);
+            if (call == null) {
+                call = new AWSEBMetrics.Calls();
+                calls.put(operation, call);
+            }
+            call.add(requests, retries, throttles, failed, millis, throttledMillis);
+        }
+    }
+
+    /**
+     * @param millis how long the environment took to update, once the update was sent.
+     */
+    void recordEnvironment(String environmentName, long millis) {
+        synchronized (environments) {
+            environments.put(environmentName, millis);
+        }
+    }
+
+    public Map<String, Long> getEnvironments() {
+        synchronized (environments) {
+            return new TreeMap<String, Long>(environments);
+        }
+    }
+
+    public Map<String, AWSEBMetrics.Phase> getPhases() {
+        synchronized (phases) {
+            return AWSEBMetrics.copy(phases);
+        }
+    }
+
+    public Map<String, AWSEBMetrics.Calls> getCalls() {
+        synchronized (calls) {
+            return AWSEBMetrics.copy(calls);
+        }
+    }
+
+    /**
+     * Logs the AWS calls made so far, shows the phases on the build page and archives the trace.
+     * The build is added to the job's {@link AWSEBTrends} once it's done, with all of its steps.
+     */
+    public void publish(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException {
+        Map<String, AWSEBMetrics.Calls> calls = getCalls();
+        if (calls.isEmpty() && getPhases().isEmpty()) {
+            return;
+        }
+        long total = 0;
+        long retries = 0;
+        long throttles = 0;
+        for (AWSEBMetrics.Calls call : calls.values()) {
+            total += call.getCalls();
+            retries += call.getRetries();
+            throttles += call.getThrottles();
+        }
+        AWSEBUtils.log(listener, "AWS calls: %d, %d retried, %d throttled", total, retries, throttles);
+
+        synchronized (build) {
+            AWSEBMetricsAction action = build.getAction(AWSEBMetricsAction.class);
+            if (action == null) {
+                build.addAction(new AWSEBMetricsAction(getPhases(), calls));
+            } else {
+                action.update(getPhases(), calls);
+            }
+        }
+
+        if (!trace.isEmpty()) {
+            try {
+                archiveTrace(build, launcher, listener);
+                AWSEBUtils.log(listener, "Trace of the deployment archived as %s", AWSEBTrace.ARTIFACT);
+            } catch (IOException e) {
+                AWSEBUtils.log(listener, "Unable to archive the trace of the deployment: %s", e.getMessage());
+            }
+        }
+    }
+
+    // Through the artifact manager, which may keep the artifacts somewhere else than the build directory.
+    private void archiveTrace(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+        File dir = Util.createTempDir();
+        try {
+            trace.write(new File(dir, AWSEBTrace.ARTIFACT));
+            build.pickArtifactManager().archive(new FilePath(dir), launcher, listener,
+                    Collections.singletonMap(AWSEBTrace.ARTIFACT, AWSEBTrace.ARTIFACT));
+        } finally {
+            Util.deleteRecursive(dir);
+        }
+    }
+
+    /**
+     * Adds the builds that deployed to their job's {@link AWSEBTrends}.
+     */
+    @Extension
+    public static class TrendsRecorder extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, TaskListener listener) {
+            AWSEBBuildMetrics metrics;
+            synchronized (builds) {
+                metrics = builds.get(run);
+            }
+            if (metrics != null && !(metrics.getCalls().isEmpty() && metrics.getPhases().isEmpty())) {
+                AWSEBTrends.record(run.getParent(), run.getNumber(), System.currentTimeMillis(), metrics);
+            }
+        }
+    }
+
+    public class Timing {
+        private final String phase;
+        private final long started;
+
+        private Timing(String phase) {
+            this.phase = phase;
+            this.started = System.currentTimeMillis();
+        }
+
+        public void stop() {
+            stop(0);
+        }
+
+        /**
+         * @param bytes how many bytes the phase moved, for its throughput.
+         */
+        public void stop(long bytes) {
+            long stopped = System.currentTimeMillis();
+            recordPhase(phase, stopped - started, bytes);
+            trace.add(phase, "phase", started, stopped, bytes == 0 ? null : Collections.<String, Object>singletonMap("bytes", bytes));
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package org.jenkinsci.plugins.awsbeanstalkpublisher;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 import hudson.Extension;
@@ -11,18 +13,21 @@ import hudson.init.Initializer;
 import hudson.model.BuildListener;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.Action;
 import hudson.model.Items;
 import hudson.model.Saveable;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Builder;
 import hudson.util.DescribableList;
+import hudson.util.FormValidation;
 import net.sf.json.JSONObject;
 
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBElasticBeanstalkSetup;
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBSetup;
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBSetupDescriptor;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 /**
@@ -38,10 +43,21 @@ public class AWSEBBuilder extends AWSEBBuilderBackwardsCompatibility {
     
     @DataBoundConstructor
     public AWSEBBuilder(
-            List<AWSEBElasticBeanstalkSetup> extensions) {
+            List<AWSEBElasticBeanstalkSetup> extensions,
+            Integer maxParallelSetups) {
         super();
         this.extensions = new DescribableList<AWSEBSetup, AWSEBSetupDescriptor>(
                 Saveable.NOOP,Util.fixNull(extensions));
+        this.maxParallelSetups = maxParallelSetups;
+    }
+    
+    /**
+     * How many applications to deploy at the same time, 1 deploys them one after the other.
+     */
+    private Integer maxParallelSetups;
+    
+    public int getMaxParallelSetups() {
+        return maxParallelSetups == null ? 1 : maxParallelSetups;
     }
     
     private DescribableList<AWSEBSetup, AWSEBSetupDescriptor> extensions;
@@ -61,14 +77,19 @@ public class AWSEBBuilder extends AWSEBBuilderBackwardsCompatibility {
 
 
     @Override
-    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
-        return AWSEBSetup.perform(build, launcher, listener, getExtensions());
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException {
+        return AWSEBSetup.perform(build, launcher, listener, getExtensions(), getMaxParallelSetups());
     }
 
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.NONE;
     }
 
+    @Override
+    public Collection<? extends Action> getProjectActions(AbstractProject<?, ?> project) {
+        return Arrays.asList(new AWSEBDeploymentProjectAction(project), new AWSEBTrendsProjectAction(project));
+    }
+
     // Overridden for better type safety.
     // If your plugin doesn't really define any property on Descriptor,
     // you don't have to do this.
@@ -106,6 +127,13 @@ public class AWSEBBuilder extends AWSEBBuilderBackwardsCompatibility {
             save();
             return super.configure(req, json);
         }
+
+        public FormValidation doCheckMaxParallelSetups(@QueryParameter String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FormValidation.ok();
+            }
+            return FormValidation.validatePositiveInteger(value);
+        }
         
         
         public List<AWSEBSetupDescriptor> getExtensionDescriptors() {
@@ -28,7 +28,7 @@ public abstract class AWSEBBuilderBackwardsCompatibility extends Builder impleme
                 List<AWSEBSetup> s3Setup = new ArrayList<AWSEBSetup>(1);
                 if (isNotBlank(bucketName) || isNotBlank(keyPrefix)) {
                     s3Setup.add(new AWSEBS3Setup(bucketName, keyPrefix, 
-                            rootObject, includes, excludes, overwriteExistingFile));
+                            rootObject, includes, excludes, overwriteExistingFile, null, null, null, null));
                     bucketName = null;
                     keyPrefix = null;
                     rootObject = null;
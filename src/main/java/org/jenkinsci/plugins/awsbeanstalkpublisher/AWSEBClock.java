@@ -0,0 +1,38 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where environment updates get the time from, wait and schedule their next check.
+ *
+ * Updates use {@link #SYSTEM}, a simulation can give them one of its own to run hours of updates in virtual time.
+ */
+public interface AWSEBClock {
+
+    AWSEBClock SYSTEM = new AWSEBClock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void sleep(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+        }
+
+        @Override
+        public Future<?> schedule(Runnable task, long delayMillis) {
+            return AWSEBEnvironmentMonitor.getExecutor().schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    };
+
+    long currentTimeMillis();
+
+    void sleep(long millis) throws InterruptedException;
+
+    /**
+     * Runs the task once, after the delay.
+     */
+    Future<?> schedule(Runnable task, long delayMillis);
+}
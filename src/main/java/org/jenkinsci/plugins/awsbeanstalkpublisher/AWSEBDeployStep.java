@@ -0,0 +1,286 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.FormValidation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.google.inject.Inject;
+
+/**
+ * Pipeline step updating environments to an application version that already exists, eg.
+ * <pre>awsebDeploy applicationName: 'api', environmentList: 'api-prod', versionLabel: 'build-42', awsRegion: 'us-east-1'</pre>
+ *
+ * The step runs asynchronously: the environments are watched by {@link AWSEBEnvironmentMonitor},
+ * so waiting for Beanstalk takes neither an executor nor a thread per environment.
+ */
+public class AWSEBDeployStep extends AbstractStepImpl {
+
+    private final String applicationName;
+    private final List<String> environmentList;
+    private final String versionLabel;
+    private final String awsRegion;
+    private final String credentials;
+    private final Integer timeoutMinutes;
+
+    @DataBoundConstructor
+    public AWSEBDeployStep(String applicationName, String environmentList, String versionLabel,
+            String awsRegion, String credentials, Integer timeoutMinutes) {
+        this.applicationName = applicationName;
+        this.versionLabel = versionLabel;
+        this.awsRegion = awsRegion;
+        this.credentials = credentials;
+        this.timeoutMinutes = timeoutMinutes;
+        this.environmentList = new ArrayList<String>();
+        if (!StringUtils.isEmpty(environmentList)) {
+            for (String next : environmentList.split("\n")) {
+                if (!next.trim().isEmpty()) {
+                    this.environmentList.add(next.trim());
+                }
+            }
+        }
+    }
+
+    public String getApplicationName() {
+        return applicationName;
+    }
+
+    public String getEnvironmentList() {
+        return StringUtils.join(environmentList, '\n');
+    }
+
+    public String getVersionLabel() {
+        return versionLabel;
+    }
+
+    public String getAwsRegion() {
+        return awsRegion;
+    }
+
+    public String getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * Minutes each environment may take to update, 0 for no limit.
+     */
+    public int getTimeoutMinutes() {
+        return timeoutMinutes == null ? 0 : timeoutMinutes;
+    }
+
+    public static class Execution extends AbstractStepExecutionImpl {
+        private static final long serialVersionUID = 1L;
+
+        @Inject(optional = true)
+        private transient AWSEBDeployStep step;
+        @StepContextParameter
+        private transient TaskListener listener;
+        @StepContextParameter
+        private transient Run<?, ?> run;
+
+        private transient List<AWSEBEnvironmentMonitor.Watch> watches;
+        private transient boolean stopped;
+
+        // Owns the updates in AWSEBInflightUpdates, to find them again after a restart.
+        private String id;
+
+        @Override
+        public boolean start() throws Exception {
+            if (step.environmentList.isEmpty()) {
+                throw new AbortException("No environments to update");
+            }
+            id = UUID.randomUUID().toString();
+            // Looking the environments up blocks on AWS.
+            AWSEBEnvironmentMonitor.getExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        watch();
+                    } catch (Exception e) {
+                        getContext().onFailure(e);
+                    }
+                }
+            });
+            return false;
+        }
+
+        private synchronized void watch() throws AbortException {
+            if (stopped) {
+                // Aborted before we got to it, nothing was sent.
+                return;
+            }
+            Regions region = Regions.fromName(step.getAwsRegion());
+            AWSEBCredentials awsCredentials = AWSEBCredentials.getCredentialsByString(step.getCredentials());
+            AWSCredentialsProvider provider = awsCredentials == null ? null : awsCredentials.getAwsCredentials();
+            AWSElasticBeanstalk awseb = AWSEBUtils.getElasticBeanstalk(provider, Region.getRegion(region));
+
+            List<EnvironmentDescription> envList = awseb.describeEnvironments(new DescribeEnvironmentsRequest()
+                    .withApplicationName(step.getApplicationName()).withEnvironmentNames(step.environmentList)
+                    .withIncludeDeleted(false)).getEnvironments();
+            if (envList.isEmpty()) {
+                throw new AbortException(String.format("No environments found matching applicationName:%s", step.getApplicationName()));
+            }
+
+            AWSEBEnvironmentMonitor.Callback callback = countDown(envList.size());
+            watches = new ArrayList<AWSEBEnvironmentMonitor.Watch>(envList.size());
+            AWSEBDeploymentLimiter.Slots slots = AWSEBDeploymentLimiter.forAccount(awsCredentials, region).forJob(run.getParent().getFullName(), 0);
+            long timeout = TimeUnit.MINUTES.toMillis(step.getTimeoutMinutes());
+            for (EnvironmentDescription envd : envList) {
+                AWSEBUtils.log(listener, "Environment found (environment id='%s', name='%s'). "
+                        + "Attempting to update environment to version label '%s'",
+                        envd.getEnvironmentId(), envd.getEnvironmentName(), step.getVersionLabel());
+                AWSEBEnvironmentUpdaterThread update = new AWSEBEnvironmentUpdaterThread(awseb, envd, listener,
+                        step.getVersionLabel(), run.getFullDisplayName(), slots).withTimeouts(0, timeout).withBuildStarted(run.getTimeInMillis())
+                        .persistAs(new AWSEBInflightUpdates.Update(id, true, awsCredentials, region, envd, step.getVersionLabel()));
+                watches.add(AWSEBEnvironmentMonitor.watch(update, callback));
+            }
+        }
+
+        /**
+         * @return a callback finishing the step once it was called for each of the updates.
+         */
+        private AWSEBEnvironmentMonitor.Callback countDown(final int count) {
+            return new AWSEBEnvironmentMonitor.Callback() {
+                private int remaining = count;
+
+                @Override
+                public synchronized void done(AWSEBEnvironmentUpdaterThread update) {
+                    if (--remaining == 0) {
+                        finished();
+                    }
+                }
+            };
+        }
+
+        private void finished() {
+            TaskListener log;
+            try {
+                log = getContext().get(TaskListener.class);
+            } catch (Exception e) {
+                getContext().onFailure(e);
+                return;
+            }
+            List<String> failed = new ArrayList<String>();
+            for (AWSEBInflightUpdates.Update update : AWSEBInflightUpdates.getUpdates(id)) {
+                log.getLogger().println(update.getStatus());
+                if (!update.isSuccess() && !update.isSuperseded()) {
+                    failed.add(update.getEnvironmentName());
+                }
+            }
+            AWSEBInflightUpdates.forget(id);
+            if (failed.isEmpty()) {
+                getContext().onSuccess(null);
+            } else {
+                getContext().onFailure(new AbortException(String.format("Unable to update environments %s", failed)));
+            }
+        }
+
+        /**
+         * Watches the updates that were sent before Jenkins restarted again, those still waiting for their turn
+         * are reported as not updated, as the environment may have been updated by someone else since.
+         */
+        @Override
+        public synchronized void onResume() {
+            super.onResume();
+            List<AWSEBInflightUpdates.Update> updates = AWSEBInflightUpdates.getUpdates(id);
+            if (updates.isEmpty()) {
+                getContext().onFailure(new AbortException("Jenkins restarted before the environments were updated"));
+                return;
+            }
+            TaskListener log;
+            try {
+                log = getContext().get(TaskListener.class);
+            } catch (Exception e) {
+                getContext().onFailure(e);
+                return;
+            }
+
+            List<AWSEBInflightUpdates.Update> inflight = new ArrayList<AWSEBInflightUpdates.Update>();
+            for (AWSEBInflightUpdates.Update update : updates) {
+                if (update.isDone()) {
+                    continue;
+                }
+                if (update.isSent()) {
+                    inflight.add(update);
+                } else {
+                    AWSEBInflightUpdates.done(update, false, false, String.format("'%s': Not updated, Jenkins restarted before the update was sent.",
+                            update.getEnvironmentName()));
+                }
+            }
+            if (inflight.isEmpty()) {
+                finished();
+                return;
+            }
+
+            AWSEBEnvironmentMonitor.Callback callback = countDown(inflight.size());
+            watches = new ArrayList<AWSEBEnvironmentMonitor.Watch>(inflight.size());
+            for (AWSEBInflightUpdates.Update update : inflight) {
+                AWSEBUtils.log(log, "'%s': Resuming the update to version label '%s' after a restart", update.getEnvironmentName(), update.getVersionLabel());
+                watches.add(AWSEBEnvironmentMonitor.watch(update.resume(log), callback));
+            }
+        }
+
+        @Override
+        public synchronized void stop(Throwable cause) throws Exception {
+            stopped = true;
+            if (watches != null) {
+                for (AWSEBEnvironmentMonitor.Watch watch : watches) {
+                    watch.cancel();
+                }
+            }
+            AWSEBInflightUpdates.forget(id);
+            getContext().onFailure(cause);
+        }
+    }
+
+    @Extension(optional = true)
+    public static class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "awsebDeploy";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Update AWS Elastic Beanstalk environments";
+        }
+
+        public FormValidation doCheckAwsRegion(@QueryParameter String value) {
+            try {
+                Regions.fromName(value.trim());
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error("Bad region name: %s", value);
+            }
+        }
+
+        public FormValidation doCheckTimeoutMinutes(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.Run;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.RunAction2;
+
+/**
+ * Environment updates that finished after the build did, because they were left to the background
+ * or Jenkins restarted in between, shown on the build page as the build log is already closed.
+ */
+public class AWSEBDeploymentAction implements RunAction2 {
+
+    private static final Logger LOGGER = Logger.getLogger(AWSEBDeploymentAction.class.getName());
+
+    private final List<Outcome> outcomes = new ArrayList<Outcome>();
+
+    private transient Run<?, ?> run;
+
+    /**
+     * @param run the build that sent the update, null if it was deleted since.
+     * @param superseded a newer build took the environment over, the update was skipped rather than failed.
+     */
+    public static void record(Run<?, ?> run, String environmentName, String versionLabel, boolean success, boolean superseded,
+            String status) {
+        if (run == null) {
+            return;
+        }
+        synchronized (run) {
+            AWSEBDeploymentAction action = run.getAction(AWSEBDeploymentAction.class);
+            if (action == null) {
+                action = new AWSEBDeploymentAction();
+                run.addAction(action);
+            }
+            action.add(new Outcome(environmentName, versionLabel, success, superseded, status));
+            try {
+                run.save();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Unable to save %s", run.getFullDisplayName()), e);
+            }
+        }
+    }
+
+    private synchronized void add(Outcome outcome) {
+        outcomes.add(outcome);
+    }
+
+    public synchronized List<Outcome> getOutcomes() {
+        return Collections.unmodifiableList(new ArrayList<Outcome>(outcomes));
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "clipboard.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Elastic Beanstalk Updates";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "awseb";
+    }
+
+    public static class Outcome {
+        private final String environmentName;
+        private final String versionLabel;
+        private final boolean success;
+        private final boolean superseded;
+        private final String status;
+        private final Date finished;
+
+        public Outcome(String environmentName, String versionLabel, boolean success, boolean superseded, String status) {
+            this.environmentName = environmentName;
+            this.versionLabel = versionLabel;
+            this.success = success;
+            this.superseded = superseded;
+            this.status = status;
+            this.finished = new Date();
+        }
+
+        public String getEnvironmentName() {
+            return environmentName;
+        }
+
+        public String getVersionLabel() {
+            return versionLabel;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public boolean isSuperseded() {
+            return superseded;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public Date getFinished() {
+            return finished;
+        }
+    }
+}
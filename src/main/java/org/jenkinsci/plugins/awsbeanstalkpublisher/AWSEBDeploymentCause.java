@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.Extension;
+import hudson.model.Cause;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Why a build was started by an {@link AWSEBDeploymentReporter}: the environments of the upstream build are done updating.
+ */
+public class AWSEBDeploymentCause extends Cause.UpstreamCause {
+
+    private final List<String> failedEnvironments;
+
+    /**
+     * @param failedEnvironments the environments that failed to update, empty if all of them were updated.
+     */
+    public AWSEBDeploymentCause(Run<?, ?> upstream, List<String> failedEnvironments) {
+        super(upstream);
+        this.failedEnvironments = new ArrayList<String>(failedEnvironments);
+    }
+
+    public List<String> getFailedEnvironments() {
+        return Collections.unmodifiableList(failedEnvironments);
+    }
+
+    @Override
+    public String getShortDescription() {
+        if (failedEnvironments.isEmpty()) {
+            return super.getShortDescription() + ", which updated its Elastic Beanstalk environments";
+        }
+        return String.format("%s, whose Elastic Beanstalk environments %s failed to update", super.getShortDescription(), failedEnvironments);
+    }
+
+    /**
+     * Fails the builds started to mark a failed deployment.
+     */
+    @Extension
+    public static class FailMarkerBuild extends RunListener<Run<?, ?>> {
+        @Override
+        public void onStarted(Run<?, ?> run, TaskListener listener) {
+            AWSEBDeploymentCause cause = run.getCause(AWSEBDeploymentCause.class);
+            if (cause != null && !cause.failedEnvironments.isEmpty()) {
+                AWSEBUtils.log(listener, "Marking the build as failed, environments %s failed to update", cause.failedEnvironments);
+                run.setResult(Result.FAILURE);
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.TaskListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.regions.Regions;
+
+/**
+ * Caps how many environment updates run at once for an account and region, over all builds of this Jenkins.
+ *
+ * Builds waiting for a slot are served by priority, then the job with the fewest updates running, then in order
+ * of arrival, so one job updating many environments doesn't keep all the others waiting.
+ */
+public class AWSEBDeploymentLimiter {
+
+    private static volatile int limit;
+
+    private final static Map<String, AWSEBDeploymentLimiter> limiters = new HashMap<String, AWSEBDeploymentLimiter>();
+
+    private final Map<String, Integer> running = new HashMap<String, Integer>();
+    private final List<Waiter> waiting = new ArrayList<Waiter>();
+    private int runningTotal;
+    private long arrivals;
+
+    /**
+     * @param maxConcurrentUpdates environment updates per account and region, 0 or less for no limit.
+     */
+    public static void setLimit(int maxConcurrentUpdates) {
+        limit = maxConcurrentUpdates;
+        synchronized (limiters) {
+            for (AWSEBDeploymentLimiter limiter : limiters.values()) {
+                synchronized (limiter) {
+                    limiter.notifyAll();
+                }
+            }
+        }
+    }
+
+    public static AWSEBDeploymentLimiter forAccount(AWSEBCredentials credentials, Regions region) {
+        String key = String.format("%s|%s", credentials == null ? "" : credentials.toString(), region);
+        synchronized (limiters) {
+            AWSEBDeploymentLimiter limiter = limiters.get(key);
+            if (limiter == null) {
+                limiter = new AWSEBDeploymentLimiter();
+                limiters.put(key, limiter);
+            }
+            return limiter;
+        }
+    }
+
+    /**
+     * @param job the full name of the job, updates are shared fairly between jobs.
+     * @param priority jobs with a higher priority get a slot first.
+     */
+    public Slots forJob(String job, int priority) {
+        return new Slots(job, priority);
+    }
+
+    private synchronized Permit acquire(String job, int priority, TaskListener listener, String environmentName, long deadline) throws InterruptedException {
+        Waiter waiter = new Waiter(job, priority, arrivals++);
+        waiting.add(waiter);
+        long started = System.currentTimeMillis();
+        int lastPosition = 0;
+        try {
+            while (!isFree(waiter)) {
+                int position = getPosition(waiter);
+                if (position != lastPosition) {
+                    AWSEBUtils.log(listener, "'%s': Waiting for a deployment slot, %d of %d running, position %d in the queue",
+                            environmentName, runningTotal, limit, position);
+                    lastPosition = position;
+                }
+                if (deadline == 0) {
+                    wait();
+                    continue;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    AWSEBUtils.log(listener, "'%s': Gave up waiting for a deployment slot after %d seconds", environmentName, (System.currentTimeMillis() - started) / 1000);
+                    return null;
+                }
+                wait(remaining);
+            }
+        } finally {
+            waiting.remove(waiter);
+            notifyAll();
+        }
+
+        if (lastPosition > 0) {
+            AWSEBUtils.log(listener, "'%s': Got a deployment slot after waiting %d seconds", environmentName, (System.currentTimeMillis() - started) / 1000);
+        }
+        return take(job);
+    }
+
+    private Permit take(String job) {
+        runningTotal++;
+        running.put(job, getRunning(job) + 1);
+        return new Permit(job);
+    }
+
+    private boolean isFree(Waiter waiter) {
+        return limit <= 0 || (runningTotal < limit && getPosition(waiter) == 1);
+    }
+
+    private synchronized void release(String job) {
+        runningTotal--;
+        int count = getRunning(job) - 1;
+        if (count > 0) {
+            running.put(job, count);
+        } else {
+            running.remove(job);
+        }
+        notifyAll();
+    }
+
+    private int getRunning(String job) {
+        Integer count = running.get(job);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return 1 for the waiter to be served next.
+     */
+    private int getPosition(Waiter waiter) {
+        int position = 1;
+        for (Waiter other : waiting) {
+            if (other != waiter && isBefore(other, waiter)) {
+                position++;
+            }
+        }
+        return position;
+    }
+
+    private boolean isBefore(Waiter first, Waiter second) {
+        if (first.priority != second.priority) {
+            return first.priority > second.priority;
+        }
+        int firstRunning = getRunning(first.job);
+        int secondRunning = getRunning(second.job);
+        if (firstRunning != secondRunning) {
+            return firstRunning < secondRunning;
+        }
+        return first.arrival < second.arrival;
+    }
+
+    private static class Waiter {
+        private final String job;
+        private final int priority;
+        private final long arrival;
+
+        Waiter(String job, int priority, long arrival) {
+            this.job = job;
+            this.priority = priority;
+            this.arrival = arrival;
+        }
+    }
+
+    /**
+     * Deployment slots of one job.
+     */
+    public class Slots {
+        private final String job;
+        private final int priority;
+
+        private Slots(String job, int priority) {
+            this.job = job;
+            this.priority = priority;
+        }
+
+        /**
+         * Waits for a slot, logging the position in the queue while it changes.
+         */
+        public Permit acquire(TaskListener listener, String environmentName) throws InterruptedException {
+            return acquire(listener, environmentName, 0);
+        }
+
+        /**
+         * @param deadline when to give up, 0 to wait for as long as it takes.
+         * @return the slot, or null when the deadline passed first.
+         */
+        public Permit acquire(TaskListener listener, String environmentName, long deadline) throws InterruptedException {
+            return AWSEBDeploymentLimiter.this.acquire(job, priority, listener, environmentName, deadline);
+        }
+
+        /**
+         * Queues for a slot without waiting, for callers that check back later.
+         */
+        public Request request(TaskListener listener, String environmentName) {
+            synchronized (AWSEBDeploymentLimiter.this) {
+                Waiter waiter = new Waiter(job, priority, arrivals++);
+                waiting.add(waiter);
+                return new Request(waiter, listener, environmentName);
+            }
+        }
+    }
+
+    /**
+     * A place in the queue that is kept between calls to {@link #tryAcquire()}, until it gets a slot or is cancelled.
+     */
+    public class Request {
+        private final Waiter waiter;
+        private final TaskListener listener;
+        private final String environmentName;
+        private int lastPosition;
+
+        private Request(Waiter waiter, TaskListener listener, String environmentName) {
+            this.waiter = waiter;
+            this.listener = listener;
+            this.environmentName = environmentName;
+        }
+
+        /**
+         * @return the slot when it's our turn, null to try again later.
+         */
+        public Permit tryAcquire() {
+            synchronized (AWSEBDeploymentLimiter.this) {
+                if (!isFree(waiter)) {
+                    int position = getPosition(waiter);
+                    if (position != lastPosition) {
+                        AWSEBUtils.log(listener, "'%s': Waiting for a deployment slot, %d of %d running, position %d in the queue",
+                                environmentName, runningTotal, limit, position);
+                        lastPosition = position;
+                    }
+                    return null;
+                }
+                cancel();
+                if (lastPosition > 0) {
+                    AWSEBUtils.log(listener, "'%s': Got a deployment slot", environmentName);
+                }
+                return take(waiter.job);
+            }
+        }
+
+        /**
+         * Leaves the queue.
+         */
+        public void cancel() {
+            synchronized (AWSEBDeploymentLimiter.this) {
+                if (waiting.remove(waiter)) {
+                    AWSEBDeploymentLimiter.this.notifyAll();
+                }
+            }
+        }
+    }
+
+    public class Permit {
+        private final String job;
+        private boolean released;
+
+        private Permit(String job) {
+            this.job = job;
+        }
+
+        public void release() {
+            synchronized (AWSEBDeploymentLimiter.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                AWSEBDeploymentLimiter.this.release(job);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Run;
+
+/**
+ * Shows on the project page how the environments of the latest build that recorded an {@link AWSEBDeploymentAction} ended up.
+ */
+public class AWSEBDeploymentProjectAction implements Action {
+
+    // Don't load the whole history of a project that stopped deploying in the background.
+    private static final int MAX_BUILDS_SEARCHED = 20;
+
+    private final AbstractProject<?, ?> project;
+
+    public AWSEBDeploymentProjectAction(AbstractProject<?, ?> project) {
+        this.project = project;
+    }
+
+    public AbstractProject<?, ?> getProject() {
+        return project;
+    }
+
+    /**
+     * @return null if none of the latest builds has one.
+     */
+    public AWSEBDeploymentAction getLastDeployment() {
+        Run<?, ?> run = project.getLastBuild();
+        for (int i = 0; run != null && i < MAX_BUILDS_SEARCHED; i++) {
+            AWSEBDeploymentAction action = run.getAction(AWSEBDeploymentAction.class);
+            if (action != null) {
+                return action;
+            }
+            run = run.getPreviousBuild();
+        }
+        return null;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Elastic Beanstalk Updates";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+}
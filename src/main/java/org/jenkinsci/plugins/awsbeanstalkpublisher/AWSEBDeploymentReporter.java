@@ -0,0 +1,81 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.AbstractProject;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.LogTaskListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBDetachedDeployment;
+
+/**
+ * Reports on the environments a build left updating in the background, see {@link AWSEBDetachedDeployment}.
+ *
+ * Each outcome is recorded on the build as it comes in. Once all of them are in, the downstream projects are built
+ * if every environment was updated, the failure project otherwise.
+ */
+public class AWSEBDeploymentReporter implements AWSEBEnvironmentMonitor.Callback {
+
+    private static final Logger LOGGER = Logger.getLogger(AWSEBDeploymentReporter.class.getName());
+
+    private final Run<?, ?> run;
+    private final AWSEBDetachedDeployment detached;
+    private final List<String> failed = new ArrayList<String>();
+    private int remaining;
+
+    /**
+     * @param count how many environments to wait for.
+     */
+    public AWSEBDeploymentReporter(Run<?, ?> run, AWSEBDetachedDeployment detached, int count) {
+        this.run = run;
+        this.detached = detached;
+        this.remaining = count;
+    }
+
+    /**
+     * Where the environments watched in the background log their progress.
+     */
+    public TaskListener getListener() {
+        return new LogTaskListener(LOGGER, Level.FINE);
+    }
+
+    @Override
+    public synchronized void done(AWSEBEnvironmentUpdaterThread update) {
+        AWSEBDeploymentAction.record(run, update.getEnvironmentName(), update.getVersionLabel(), update.isSuccessfull(), update.isSuperseded(),
+                update.getStatus());
+        if (!update.isSuccessfull() && !update.isSuperseded()) {
+            failed.add(update.getEnvironmentName());
+        }
+        if (--remaining == 0) {
+            finished();
+        }
+    }
+
+    private void finished() {
+        LOGGER.log(Level.INFO, "Environment updates of {0} are done, {1} failed", new Object[] { run.getFullDisplayName(), failed.size() });
+        if (failed.isEmpty()) {
+            for (String name : detached.getDownstreamProjectNames()) {
+                schedule(name, new AWSEBDeploymentCause(run, Collections.<String>emptyList()));
+            }
+        } else if (!StringUtils.isBlank(detached.getFailureProject())) {
+            schedule(detached.getFailureProject().trim(), new AWSEBDeploymentCause(run, failed));
+        }
+    }
+
+    private void schedule(String name, AWSEBDeploymentCause cause) {
+        AbstractProject<?, ?> project = Jenkins.getInstance().getItemByFullName(name, AbstractProject.class);
+        if (project == null) {
+            LOGGER.log(Level.WARNING, "No such project {0} to build after {1}", new Object[] { name, run.getFullDisplayName() });
+            return;
+        }
+        project.scheduleBuild2(0, cause);
+    }
+}
@@ -0,0 +1,214 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lets one build at a time update an environment, for all builds of this Jenkins.
+ *
+ * Beanstalk refuses to update an environment that is still updating, so builds queue here instead of
+ * burning their attempts. Only the latest build waits: when a newer one arrives, the build that was waiting
+ * is superseded and doesn't deploy at all, as the newer version would replace it right away.
+ * Builds are ordered by when they started, not by when they got here, so of the builds that meet here an older one
+ * never deploys over a newer one. Nothing is remembered once the environment is free again: a build that gets here
+ * after a newer one is done deploys all the same.
+ */
+public class AWSEBEnvironmentLock {
+
+    private final static Map<String, AWSEBEnvironmentLock> locks = new HashMap<String, AWSEBEnvironmentLock>();
+
+    private final String environmentId;
+    private Ticket holder;
+    private Ticket next;
+    // Dropped from locks once free, whoever still has it queues on the current lock instead.
+    private boolean retired;
+
+    private AWSEBEnvironmentLock(String environmentId) {
+        this.environmentId = environmentId;
+    }
+
+    public static AWSEBEnvironmentLock forEnvironment(String environmentId) {
+        synchronized (locks) {
+            AWSEBEnvironmentLock lock = locks.get(environmentId);
+            if (lock == null) {
+                lock = new AWSEBEnvironmentLock(environmentId);
+                locks.put(environmentId, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Queues for the environment, superseding whoever was waiting for it unless they are newer.
+     * A ticket older than the one deploying or waiting is superseded by it straight away.
+     *
+     * @param owner who deploys, eg. the build name, shown to the builds waiting for it.
+     * @param started when the build started, builds that started at the same time go in the order they got here.
+     */
+    public Ticket enqueue(String owner, long started) {
+        synchronized (this) {
+            if (!retired) {
+                Ticket ticket = new Ticket(owner, started);
+                if (holder == null) {
+                    holder = ticket;
+                } else if (started < holder.started) {
+                    ticket.supersededBy = holder.owner;
+                } else if (next != null && started < next.started) {
+                    ticket.supersededBy = next.owner;
+                } else {
+                    if (next != null) {
+                        next.supersededBy = owner;
+                    }
+                    next = ticket;
+                }
+                notifyAll();
+                return ticket;
+            }
+        }
+        return forEnvironment(environmentId).enqueue(owner, started);
+    }
+
+    /**
+     * Takes the lock for an update Beanstalk is already running, eg. one that was resumed after a restart.
+     * It's older than any build to come, they wait for it.
+     *
+     * @return the ticket holding the lock, or null when someone else holds it already.
+     */
+    public Ticket hold(String owner) {
+        synchronized (this) {
+            if (!retired) {
+                if (holder != null) {
+                    return null;
+                }
+                holder = new Ticket(owner, Long.MIN_VALUE);
+                return holder;
+            }
+        }
+        return forEnvironment(environmentId).hold(owner);
+    }
+
+    // Only called with no holder, and so no one waiting.
+    private void retire() {
+        retired = true;
+        synchronized (locks) {
+            if (locks.get(environmentId) == this) {
+                locks.remove(environmentId);
+            }
+        }
+    }
+
+    public class Ticket {
+        private final String owner;
+        private final long started;
+        private String supersededBy;
+
+        private Ticket(String owner, long started) {
+            this.owner = owner;
+            this.started = started;
+        }
+
+        /**
+         * @return who is deploying to the environment, null if it's us.
+         */
+        public String getHolder() {
+            synchronized (AWSEBEnvironmentLock.this) {
+                return holder == this || holder == null ? null : holder.owner;
+            }
+        }
+
+        /**
+         * @return who superseded us while we waited, null if we weren't.
+         */
+        public String getSupersededBy() {
+            synchronized (AWSEBEnvironmentLock.this) {
+                return supersededBy;
+            }
+        }
+
+        /**
+         * Waits for our turn.
+         *
+         * @return true when we hold the lock and have to {@link #release} it, false when we were superseded.
+         */
+        public boolean await() throws InterruptedException {
+            return await(0);
+        }
+
+        /**
+         * Waits for our turn, until the deadline.
+         *
+         * @param deadline when to give up, 0 to wait for as long as it takes.
+         * @return true when we hold the lock and have to {@link #release} it, false when we were superseded or the deadline passed.
+         */
+        public boolean await(long deadline) throws InterruptedException {
+            return await(deadline, AWSEBClock.SYSTEM);
+        }
+
+        /**
+         * Waits for our turn, until the deadline of the clock the update runs on.
+         */
+        public boolean await(long deadline, AWSEBClock clock) throws InterruptedException {
+            synchronized (AWSEBEnvironmentLock.this) {
+                try {
+                    while (holder != this && supersededBy == null) {
+                        if (deadline == 0) {
+                            AWSEBEnvironmentLock.this.wait();
+                            continue;
+                        }
+                        long remaining = deadline - clock.currentTimeMillis();
+                        if (remaining <= 0) {
+                            giveUp();
+                            return false;
+                        }
+                        AWSEBEnvironmentLock.this.wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    // We may have got the lock just before.
+                    cancel();
+                    throw e;
+                }
+                return holder == this;
+            }
+        }
+
+        /**
+         * Doesn't wait.
+         *
+         * @return true when it's our turn or we were superseded, like {@link #await} would return.
+         */
+        public boolean isDone() {
+            synchronized (AWSEBEnvironmentLock.this) {
+                return holder == this || supersededBy != null;
+            }
+        }
+
+        /**
+         * Leaves the queue, or releases the lock when we hold it.
+         */
+        public void cancel() {
+            synchronized (AWSEBEnvironmentLock.this) {
+                giveUp();
+                release();
+            }
+        }
+
+        private void giveUp() {
+            if (next == this) {
+                next = null;
+            }
+        }
+
+        public void release() {
+            synchronized (AWSEBEnvironmentLock.this) {
+                if (holder == this) {
+                    holder = next;
+                    next = null;
+                    AWSEBEnvironmentLock.this.notifyAll();
+                    if (holder == null) {
+                        retire();
+                    }
+                }
+            }
+        }
+    }
+}
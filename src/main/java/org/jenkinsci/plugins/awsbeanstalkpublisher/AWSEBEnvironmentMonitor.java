@@ -0,0 +1,107 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches environment updates from a few threads of our own instead of a thread per environment.
+ *
+ * Every update is {@link AWSEBEnvironmentUpdaterThread#poll() polled} when it's due, so hundreds of environments
+ * being updated cost a few runs every 30 seconds, not hundreds of sleeping threads.
+ * The checks are scheduled on the update's {@link AWSEBClock}.
+ */
+public class AWSEBEnvironmentMonitor {
+
+    private static final Logger LOGGER = Logger.getLogger(AWSEBEnvironmentMonitor.class.getName());
+
+    private static final int THREADS = Integer.getInteger(AWSEBEnvironmentMonitor.class.getName() + ".threads", 8);
+
+    // A check blocks on AWS for as long as the client timeout, so checks stay off the timer all of Jenkins shares.
+    private static final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(THREADS,
+            new NamingThreadFactory(new DaemonThreadFactory(), "AWSEBEnvironmentMonitor"));
+
+    /**
+     * Where the checks run, and anything else that waits on AWS in the background.
+     */
+    public static ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    public interface Callback {
+        /**
+         * Called once, from a monitor thread, when the update is done.
+         */
+        void done(AWSEBEnvironmentUpdaterThread update);
+    }
+
+    public static Watch watch(AWSEBEnvironmentUpdaterThread update, Callback callback) {
+        Watch watch = new Watch(update, callback);
+        watch.schedule(0);
+        return watch;
+    }
+
+    public static class Watch implements Runnable {
+        private final AWSEBEnvironmentUpdaterThread update;
+        private final Callback callback;
+        private volatile boolean cancelled;
+        private volatile Future<?> next;
+        private volatile long due;
+
+        private Watch(AWSEBEnvironmentUpdaterThread update, Callback callback) {
+            this.update = update;
+            this.callback = callback;
+        }
+
+        public AWSEBEnvironmentUpdaterThread getUpdate() {
+            return update;
+        }
+
+        private void schedule(long delay) {
+            AWSEBClock clock = update.getClock();
+            due = clock.currentTimeMillis() + delay;
+            next = clock.schedule(this, delay);
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            AWSEBMetrics.recordMonitorTick(update.getClock().currentTimeMillis() - due);
+            boolean done;
+            try {
+                done = update.poll();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, String.format("Unable to check on environment %s", update.getEnvironmentName()), e);
+                done = true;
+            }
+            if (!done) {
+                schedule(update.getPollDelay());
+                return;
+            }
+            try {
+                callback.done(update);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, String.format("Unable to report the update of environment %s", update.getEnvironmentName()), e);
+            }
+        }
+
+        /**
+         * Stops watching, the callback isn't called.
+         */
+        public void cancel() {
+            cancelled = true;
+            Future<?> scheduled = next;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            update.cancel();
+        }
+    }
+}
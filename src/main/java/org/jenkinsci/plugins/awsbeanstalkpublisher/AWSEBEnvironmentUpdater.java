@@ -8,81 +8,235 @@ import hudson.model.Result;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBDeploymentPriority;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBDeploymentTimeout;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBDetachedDeployment;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBMultiRegion;
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBSetup;
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBElasticBeanstalkSetup;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBRollingDeployment;
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBS3Setup;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBVersionRetention;
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.envlookup.EnvLookup;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
 import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
 import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
 
 public class AWSEBEnvironmentUpdater {
-    
-    private final static int MAX_THREAD_COUNT = 5;
-    
+
+    final static int MAX_THREAD_COUNT = 5;
+
     private final AbstractBuild<?, ?> build;
+    private final Launcher launcher;
     private final BuildListener listener;
     private final AWSEBElasticBeanstalkSetup envSetup;
-    
+
     private final String applicationName;
     private final String versionLabel;
+    private final AWSEBCredentials credentials;
+    private final Regions awsRegion;
     private final AWSElasticBeanstalk awseb;
     private final boolean failOnError;
-    
-    
-    public AWSEBEnvironmentUpdater(AbstractBuild<?, ?> build, Launcher launcher, 
+    private final long deployDeadline;
+    private final long environmentTimeout;
+    private final AWSEBBuildMetrics metrics;
+
+
+    public AWSEBEnvironmentUpdater(AbstractBuild<?, ?> build, Launcher launcher,
             BuildListener listener, AWSEBElasticBeanstalkSetup envSetup){
+        this(build, launcher, listener, envSetup, envSetup.getAwsRegion(build, listener));
+    }
+
+    public AWSEBEnvironmentUpdater(AbstractBuild<?, ?> build, Launcher launcher,
+            BuildListener listener, AWSEBElasticBeanstalkSetup envSetup, Regions awsRegion){
         this.build = build;
+        this.launcher = launcher;
         this.listener = listener;
         this.envSetup = envSetup;
-        
+        this.awsRegion = awsRegion;
+
         applicationName = AWSEBUtils.getValue(build, listener,envSetup.getApplicationName());
         versionLabel = AWSEBUtils.getValue(build, listener,envSetup.getVersionLabelFormat());
         failOnError = envSetup.getFailOnError();
-        
 
-        AWSEBCredentials credentials = envSetup.getActualcredentials(build, listener);
+        AWSEBDeploymentTimeout timeout = envSetup.getExtensions().get(AWSEBDeploymentTimeout.class);
+        deployDeadline = timeout == null ? 0 : timeout.getDeployDeadline();
+        environmentTimeout = timeout == null ? 0 : timeout.getEnvironmentTimeoutMillis();
+
+
+        credentials = envSetup.getActualcredentials(build, listener);
         AWSCredentialsProvider provider = null;
         if (credentials != null) {
-            provider = envSetup.getActualcredentials(build, listener).getAwsCredentials();
+            provider = credentials.getAwsCredentials();
         }
-        
-        Region region = Region.getRegion(envSetup.getAwsRegion(build, listener));
-        
-        awseb = AWSEBUtils.getElasticBeanstalk(provider, region);
+
+        Region region = Region.getRegion(awsRegion);
+
+        metrics = AWSEBBuildMetrics.forBuild(build);
+        awseb = AWSEBUtils.getElasticBeanstalk(provider, region, metrics.getCollector());
     }
-    
+
     public boolean perform() throws Exception{
+        AWSEBMultiRegion multiRegion = envSetup.getExtensions().get(AWSEBMultiRegion.class);
+        if (multiRegion != null && multiRegion.isEnabled()) {
+            return new AWSEBMultiRegionUpdater(build, launcher, listener, envSetup, multiRegion).perform();
+        }
+
+        final AWSEBStageGraph stages = new AWSEBStageGraph(listener, metrics.getTrace());
+        stages.add("upload", new Callable<List<AWSEBS3Uploader>>() {
+            @Override
+            public List<AWSEBS3Uploader> call() throws Exception {
+                return uploadArchives();
+            }
+        });
+        stages.add("discover", new Callable<List<EnvironmentDescription>>() {
+            @Override
+            public List<EnvironmentDescription> call() throws Exception {
+                List<EnvironmentDescription> envList = getEnvironments();
+                if (envList.isEmpty() && failOnError) {
+                    // No point in finishing the upload.
+                    throw new AWSEBStageGraph.Halt(String.format("No environments found matching applicationName:%s", applicationName));
+                }
+                return envList;
+            }
+        });
+        stages.add("update", new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return updateEnvironments(stages.<List<EnvironmentDescription>>get("discover"));
+            }
+        }, "upload", "discover");
+        stages.add("prune", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                pruneVersions();
+                return null;
+            }
+        }, "update");
+
+        try {
+            if (!stages.run()) {
+                listener.finished(Result.FAILURE);
+                return false;
+            }
+        } finally {
+            stages.printTimings();
+        }
+        return stages.<Boolean>get("update");
+    }
+
+    public Regions getAwsRegion() {
+        return awsRegion;
+    }
+
+    /**
+     * Builds and uploads the bundles, and creates the application version.
+     */
+    public List<AWSEBS3Uploader> uploadArchives() throws Exception {
+        List<AWSEBS3Uploader> uploaders = new ArrayList<AWSEBS3Uploader>(1);
         for (AWSEBSetup extension : envSetup.getExtensions()) {
             if (extension instanceof AWSEBS3Setup){
                 AWSEBS3Setup s3 = (AWSEBS3Setup) extension;
-                AWSEBS3Uploader uploader = new AWSEBS3Uploader(build, listener, envSetup, s3);
+                AWSEBS3Uploader uploader = new AWSEBS3Uploader(build, listener, awsRegion, credentials, s3,
+                        envSetup.getApplicationName(), envSetup.getVersionLabelFormat());
                 uploader.uploadArchive(awseb);
+                uploaders.add(uploader);
             }
         }
-        
-        return updateEnvironments();
+        return uploaders;
     }
-    
 
-    public boolean updateEnvironments() throws InterruptedException {
-        List<EnvironmentDescription> envList = new ArrayList<EnvironmentDescription>(10); 
-        
+    /**
+     * Creates the application version in this region from bundles that were already uploaded elsewhere,
+     * each one copied with the settings of the S3 setup that uploaded it.
+     *
+     * @param bucketName the bucket in this region to copy them into.
+     */
+    public void copyArchives(List<AWSEBS3Uploader> sources, String bucketName) throws Exception {
+        for (AWSEBS3Uploader source : sources) {
+            AWSEBS3Setup copy = source.getS3Setup().withCopySource(bucketName, source.getS3ObjectPath());
+            AWSEBS3Uploader uploader = new AWSEBS3Uploader(build, listener, awsRegion, credentials, copy,
+                    envSetup.getApplicationName(), envSetup.getVersionLabelFormat());
+            uploader.uploadArchive(awseb);
+        }
+    }
+
+    public void pruneVersions() {
+        for (AWSEBSetup extension : envSetup.getExtensions()) {
+            if (extension instanceof AWSEBVersionRetention){
+                pruneVersions((AWSEBVersionRetention) extension);
+            }
+        }
+    }
+
+    private void pruneVersions(AWSEBVersionRetention retention) {
+        if (!retention.isEnabled()) {
+            return;
+        }
+        AWSEBVersionPruner pruner = new AWSEBVersionPruner(awseb, credentials,
+                awsRegion, applicationName, versionLabel, retention);
+        if (pruner.schedule()) {
+            AWSEBUtils.log(listener, "Pruning old versions of application %s in the background (keep %d versions, %d days)",
+                    applicationName, retention.getKeepVersions(), retention.getKeepDays());
+        }
+    }
+
+    public List<EnvironmentDescription> getEnvironments() {
+        AWSEBBuildMetrics.Timing timing = metrics.start("discover");
+        try {
+            return lookUpEnvironments();
+        } finally {
+            timing.stop();
+        }
+    }
+
+    private List<EnvironmentDescription> lookUpEnvironments() {
+        List<EnvironmentDescription> envList = new ArrayList<EnvironmentDescription>(10);
+
         for (AWSEBSetup extension : envSetup.getEnvLookup()) {
             if (extension instanceof EnvLookup){
                 EnvLookup envLookup = (EnvLookup) extension;
                 envList.addAll(envLookup.getEnvironments(build, listener, awseb, applicationName));
             }
         }
-        
+        return envList;
+    }
+
+    public List<AWSEBEnvironmentUpdaterThread> getUpdaters(List<EnvironmentDescription> envList) {
+        AWSEBDeploymentPriority priority = envSetup.getExtensions().get(AWSEBDeploymentPriority.class);
+        AWSEBDeploymentLimiter.Slots slots = AWSEBDeploymentLimiter.forAccount(credentials, awsRegion)
+                .forJob(build.getParent().getFullName(), priority == null ? 0 : priority.getPriority());
+
+        List<AWSEBEnvironmentUpdaterThread> updaters = new ArrayList<AWSEBEnvironmentUpdaterThread>();
+        for (EnvironmentDescription envd : envList) {
+            AWSEBUtils.log(listener, "Environment found (environment id='%s', name='%s'). "
+                    + "Attempting to update environment to version label '%s'",
+                    envd.getEnvironmentId(), envd.getEnvironmentName(), versionLabel);
+            updaters.add(new AWSEBEnvironmentUpdaterThread(awseb, envd, listener, versionLabel, build.getFullDisplayName(), slots)
+                    .withTimeouts(deployDeadline, environmentTimeout)
+                    .withBuildStarted(build.getTimeInMillis())
+                    .withMetrics(metrics)
+                    .persistAs(new AWSEBInflightUpdates.Update(build.getExternalizableId(), false, credentials, awsRegion, envd, versionLabel)));
+        }
+        return updaters;
+    }
+
+    public boolean updateEnvironments() throws InterruptedException {
+        return updateEnvironments(getEnvironments());
+    }
+
+    public boolean updateEnvironments(List<EnvironmentDescription> envList) throws InterruptedException {
         if (envList.size() <= 0) {
-            AWSEBUtils.log(listener, "No environments found matching applicationName:%s", 
+            AWSEBUtils.log(listener, "No environments found matching applicationName:%s",
                     applicationName);
             if (envSetup.getFailOnError()) {
                 listener.finished(Result.FAILURE);
@@ -93,41 +247,123 @@ public class AWSEBEnvironmentUpdater {
             }
         }
 
+        // Interrupts the updates when the build is aborted.
         ExecutorService pool = Executors.newFixedThreadPool(MAX_THREAD_COUNT);
+        List<AWSEBEnvironmentUpdaterThread> updaters = getUpdaters(envList);
+        boolean finished = false;
+        try {
+            AWSEBRollingDeployment rolling = getRollingDeployment();
+            AWSEBDetachedDeployment detached = envSetup.getExtensions().get(AWSEBDetachedDeployment.class);
+            boolean result;
+            if (rolling != null) {
+                result = printResults(new AWSEBWaveScheduler(listener, rolling).run(pool, updaters));
+            } else if (detached != null) {
+                result = printResults(submitEnvironments(pool, updaters, detached));
+            } else {
+                result = printResults(pool.invokeAll(updaters));
+            }
+            finished = true;
+            return result;
+        } finally {
+            pool.shutdownNow();
+            if (finished) {
+                AWSEBInflightUpdates.forget(updaters);
+            } else {
+                // Beanstalk goes on with the updates that were sent, see them through in the background.
+                AWSEBInflightUpdates.handOff(updaters, pool);
+            }
+        }
+    }
 
-        List<AWSEBEnvironmentUpdaterThread> updaters = new ArrayList<AWSEBEnvironmentUpdaterThread>();
-        for (EnvironmentDescription envd : envList) {
-            AWSEBUtils.log(listener, "Environment found (environment id='%s', name='%s'). "
-                    + "Attempting to update environment to version label '%s'", 
-                    envd.getEnvironmentId(), envd.getEnvironmentName(), versionLabel);
-            updaters.add(new AWSEBEnvironmentUpdaterThread(awseb, envd, listener, versionLabel));
+    /**
+     * @return how to roll out to the environments in waves, or null to update all of them at once.
+     */
+    AWSEBRollingDeployment getRollingDeployment() {
+        AWSEBRollingDeployment rolling = envSetup.getExtensions().get(AWSEBRollingDeployment.class);
+        if (rolling != null && rolling.isEnabled()) {
+            return rolling;
+        }
+        return null;
+    }
+
+    /**
+     * Sends the updates and leaves the environments to be watched in the background.
+     *
+     * @return true if every update was sent, or done already and successful.
+     */
+    boolean submitEnvironments(ExecutorService pool, List<AWSEBEnvironmentUpdaterThread> updaters, AWSEBDetachedDeployment detached)
+            throws InterruptedException {
+        final AWSEBDeploymentReporter reporter = new AWSEBDeploymentReporter(build, detached, updaters.size());
+        List<Callable<AWSEBEnvironmentUpdaterThread>> submits = new ArrayList<Callable<AWSEBEnvironmentUpdaterThread>>(updaters.size());
+        for (final AWSEBEnvironmentUpdaterThread updater : updaters) {
+            submits.add(new Callable<AWSEBEnvironmentUpdaterThread>() {
+                @Override
+                public AWSEBEnvironmentUpdaterThread call() throws Exception {
+                    return updater.submit(reporter.getListener());
+                }
+            });
+        }
+        List<Future<AWSEBEnvironmentUpdaterThread>> results = pool.invokeAll(submits);
+
+        boolean allSent = true;
+        int watched = 0;
+        for (int i = 0; i < updaters.size(); i++) {
+            AWSEBEnvironmentUpdaterThread updater = updaters.get(i);
+            AWSEBEnvironmentUpdaterThread watcher;
+            try {
+                watcher = results.get(i).get();
+            } catch (ExecutionException e) {
+                AWSEBUtils.log(listener, "'%s': Unable to send the update", updater.getEnvironmentName());
+                e.getCause().printStackTrace(listener.getLogger());
+                watcher = null;
+            }
+            if (watcher == null) {
+                updater.printResults();
+                allSent &= updater.isSuccessfull() || updater.isSuperseded();
+                reporter.done(updater);
+            } else {
+                AWSEBEnvironmentMonitor.watch(watcher, reporter);
+                watched++;
+            }
+        }
+        if (watched > 0) {
+            AWSEBUtils.log(listener, "Not waiting for %d environment(s) to finish updating, see the build page for how they end up", watched);
         }
-        List<Future<AWSEBEnvironmentUpdaterThread>> results = pool.invokeAll(updaters);
+        return allSent;
+    }
 
-        return printResults(results);
+    boolean printResults(List<Future<AWSEBEnvironmentUpdaterThread>> results) throws InterruptedException {
+        return printResults(collectResults(results));
+    }
+
+    private boolean printResults(boolean allSuccess) {
+        if (failOnError && !allSuccess) {
+            listener.finished(Result.FAILURE);
+            build.setResult(Result.FAILURE);
+            return false;
+        } else {
+            listener.finished(Result.SUCCESS);
+            return true;
+        }
     }
 
-    private boolean printResults(List<Future<AWSEBEnvironmentUpdaterThread>> results) {
+    boolean collectResults(List<Future<AWSEBEnvironmentUpdaterThread>> results) throws InterruptedException {
         PrintStream log = listener.getLogger();
         boolean allSuccess = true;
         for (Future<AWSEBEnvironmentUpdaterThread> future : results) {
             try {
                 AWSEBEnvironmentUpdaterThread result = future.get();
-                allSuccess &= result.isSuccessfull();
+                allSuccess &= result.isSuccessfull() || result.isSuperseded();
                 result.printResults();
+            } catch (InterruptedException e) {
+                throw e;
             } catch (Exception e) {
                 AWSEBUtils.log(listener, "Unable to get results from update");
                 e.printStackTrace(log);
+                allSuccess = false;
             }
         }
-        if (failOnError && !allSuccess) {
-            listener.finished(Result.FAILURE);
-            build.setResult(Result.FAILURE);
-            return false;
-        } else {
-            listener.finished(Result.SUCCESS);
-            return true;
-        }
+        return allSuccess;
     }
 
 }
@@ -1,14 +1,19 @@
 package org.jenkinsci.plugins.awsbeanstalkpublisher;
 
-import hudson.model.BuildListener;
+import hudson.model.TaskListener;
 
 import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang.ObjectUtils;
+
+import com.amazonaws.AbortedException;
 import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
 import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsRequest;
 import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsResult;
@@ -28,17 +33,56 @@ public class AWSEBEnvironmentUpdaterThread implements Callable<AWSEBEnvironmentU
     private final DescribeEnvironmentsRequest envRequest;
     private final DescribeEventsRequest eventRequest;
     private final String environmentId;
-    private final BuildListener listener;
+    private final TaskListener listener;
     private final String versionLabel;
+    private final String owner;
+    private final AWSEBDeploymentLimiter.Slots slots;
 
     private boolean isUpdated = false;
     private boolean isComplete = false;
     private boolean success = false;
     private int nAttempt;
     private EventDescription lastEvent;
+    private String supersededBy;
+    private boolean timedOut = false;
+    private long deployDeadline;
+    private long environmentTimeout;
+    private long deadline;
+    private AWSEBEnvironmentLock.Ticket ticket;
+    private AWSEBDeploymentLimiter.Request slotRequest;
+    private AWSEBDeploymentLimiter.Permit permit;
+    private boolean started;
+    private boolean abandoned;
+    private AWSEBInflightUpdates.Update state;
+    private boolean detached;
+    // Counts into the plugin wide metrics only, unless a build's are given.
+    private AWSEBBuildMetrics metrics = new AWSEBBuildMetrics();
+    private long sentAt;
+    private AWSEBMetrics.UpdateState updateState = AWSEBMetrics.UpdateState.NONE;
+    private AWSEBClock clock = AWSEBClock.SYSTEM;
+    private long buildStarted;
+
+    public AWSEBEnvironmentUpdaterThread(AWSElasticBeanstalk awseb, EnvironmentDescription envd, TaskListener listener, String versionLabel) {
+        this(awseb, envd, listener, versionLabel, versionLabel, null);
+    }
+
+    /**
+     * @param owner who deploys, eg. the build name, shown to other builds waiting for the environment.
+     * @param slots where to get a slot from before updating, null to update right away.
+     */
+    public AWSEBEnvironmentUpdaterThread(AWSElasticBeanstalk awseb, EnvironmentDescription envd, TaskListener listener, String versionLabel,
+            String owner, AWSEBDeploymentLimiter.Slots slots) {
+        this(awseb, envd, listener, versionLabel, owner, slots, null);
+    }
 
-    public AWSEBEnvironmentUpdaterThread(AWSElasticBeanstalk awseb, EnvironmentDescription envd, BuildListener listener, String versionLabel) {
+    /**
+     * @param since the last event that was logged, null to start from the latest one.
+     */
+    private AWSEBEnvironmentUpdaterThread(AWSElasticBeanstalk awseb, EnvironmentDescription envd, TaskListener listener, String versionLabel,
+            String owner, AWSEBDeploymentLimiter.Slots slots, EventDescription since) {
         this.awseb = awseb;
+        this.owner = owner;
+        this.slots = slots;
         this.envd = envd;
         this.listener = listener;
         this.versionLabel = versionLabel;
@@ -50,13 +94,17 @@ public class AWSEBEnvironmentUpdaterThread implements Callable<AWSEBEnvironmentU
         eventRequest = new DescribeEventsRequest().withEnvironmentId(envd.getEnvironmentId());
         
         // Hack to acknowledge that the time of the Jenkins box may not match AWS.
-        try {
-            DescribeEventsResult lastEntry = awseb.describeEvents(new DescribeEventsRequest()
-                                                                        .withEnvironmentId(envd.getEnvironmentId())
-                                                                        .withMaxRecords(1));
-            lastEvent = lastEntry.getEvents().get(0);
-        } catch (Exception e) {
-            log("'%s': Unable to get last event, using system current timestamp for event logs", envd.getEnvironmentName());
+        if (since != null) {
+            lastEvent = since;
+        } else {
+            try {
+                DescribeEventsResult lastEntry = awseb.describeEvents(new DescribeEventsRequest()
+                                                                            .withEnvironmentId(envd.getEnvironmentId())
+                                                                            .withMaxRecords(1));
+                lastEvent = lastEntry.getEvents().get(0);
+            } catch (Exception e) {
+                log("'%s': Unable to get last event, using system current timestamp for event logs", envd.getEnvironmentName());
+            }
         }
         eventRequest.withStartTime(lastEvent.getEventDate()); // Initialize to the right start time.
         
@@ -65,24 +113,103 @@ public class AWSEBEnvironmentUpdaterThread implements Callable<AWSEBEnvironmentU
 
     }
 
+    /**
+     * Goes on watching an update that was sent, without sending it again. It doesn't hold the environment lock,
+     * see {@link #handOver} and {@link #holdEnvironment()}.
+     */
+    static AWSEBEnvironmentUpdaterThread resume(AWSElasticBeanstalk awseb, AWSEBInflightUpdates.Update state, TaskListener listener) {
+        EnvironmentDescription envd = new EnvironmentDescription()
+                .withEnvironmentId(state.getEnvironmentId()).withEnvironmentName(state.getEnvironmentName());
+        AWSEBEnvironmentUpdaterThread thread = new AWSEBEnvironmentUpdaterThread(awseb, envd, listener, state.getVersionLabel(),
+                String.format("the update to %s", state.getVersionLabel()), null, state.getLastEvent());
+        thread.state = state;
+        thread.isUpdated = true;
+        thread.started = true;
+        thread.deadline = state.getDeadline();
+        return thread;
+    }
+
     private void log(String mask, Object... args) {
         listener.getLogger().println(String.format(mask, args));
     }
 
+    /**
+     * @param deployDeadline when the whole deployment has to be done, including waiting for the environment, 0 for never.
+     * @param environmentTimeout milliseconds this environment may take to update once the update is sent, 0 for no limit.
+     */
+    public AWSEBEnvironmentUpdaterThread withTimeouts(long deployDeadline, long environmentTimeout) {
+        this.deployDeadline = deployDeadline;
+        this.environmentTimeout = environmentTimeout;
+        return this;
+    }
+
+    /**
+     * Times waiting for the environment, sending the update and waiting for it to finish into the build's metrics.
+     */
+    public AWSEBEnvironmentUpdaterThread withMetrics(AWSEBBuildMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @param started when the build deploying started, an older build never supersedes a newer one for the environment.
+     */
+    public AWSEBEnvironmentUpdaterThread withBuildStarted(long started) {
+        this.buildStarted = started;
+        return this;
+    }
+
+    /**
+     * Times the deadlines, the waits between checks and the {@link AWSEBEnvironmentMonitor} checks with another clock.
+     */
+    public AWSEBEnvironmentUpdaterThread withClock(AWSEBClock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    AWSEBClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Remembers the update in {@link AWSEBInflightUpdates} until it's done, so it can be resumed after a restart.
+     */
+    public AWSEBEnvironmentUpdaterThread persistAs(AWSEBInflightUpdates.Update state) {
+        this.state = state;
+        AWSEBInflightUpdates.add(state);
+        return this;
+    }
+
+    /**
+     * The SDK gives up on a call when the thread is interrupted, that has to stop us instead of being retried.
+     */
+    private static void rethrowIfAborted(Exception e) {
+        if (e instanceof AbortedException) {
+            throw (AbortedException) e;
+        }
+    }
+
     private void updateEnv() {
         
         log("'%s': Attempt %d/%d", envd.getEnvironmentName(), nAttempt, MAX_ATTEMPTS);
         
         
         UpdateEnvironmentRequest uavReq = new UpdateEnvironmentRequest().withEnvironmentId(environmentId).withVersionLabel(versionLabel);
-        isUpdated = true;
-        
 
+        AWSEBBuildMetrics.Timing timing = metrics.start("environment.update");
         try {
             awseb.updateEnvironment(uavReq);
+            // Only once it went through, a failed update is sent again on the next check.
+            isUpdated = true;
+            timing.stop();
+            sentAt = clock.currentTimeMillis();
+            if (state != null) {
+                AWSEBInflightUpdates.sent(state, deadline, lastEvent);
+            }
             isReady();
             nAttempt = 0;
         } catch (Exception e) {
+            rethrowIfAborted(e);
             log("'%s': Problem:", envd.getEnvironmentName());
             e.printStackTrace(listener.getLogger());
             if (e.getMessage().contains("No Application Version named")) {
@@ -98,10 +225,11 @@ public class AWSEBEnvironmentUpdaterThread implements Callable<AWSEBEnvironmentU
     }
     
     private boolean compareEventDescriptions(EventDescription first, EventDescription second) {
-        boolean isEqual = first.getApplicationName().equals(second.getApplicationName());
-        isEqual &= first.getEnvironmentName().equals(second.getEnvironmentName());
-        isEqual &= first.getMessage().equals(second.getMessage());
-        isEqual &= first.getSeverity().equals(second.getSeverity());
+        // A resumed or made up last event may lack some of the fields.
+        boolean isEqual = ObjectUtils.equals(first.getApplicationName(), second.getApplicationName());
+        isEqual &= ObjectUtils.equals(first.getEnvironmentName(), second.getEnvironmentName());
+        isEqual &= ObjectUtils.equals(first.getMessage(), second.getMessage());
+        isEqual &= ObjectUtils.equals(first.getSeverity(), second.getSeverity());
         isEqual &= first.getEventDate().getTime() == second.getEventDate().getTime();
         return isEqual;
     }
@@ -122,12 +250,17 @@ public class AWSEBEnvironmentUpdaterThread implements Callable<AWSEBEnvironmentU
                 Collections.reverse(events);
                 
                 // Remove last event so we don't get duplicates, hopefully.
-                if (compareEventDescriptions(lastEvent, events.get(0))) {
+                if (!events.isEmpty() && compareEventDescriptions(lastEvent, events.get(0))) {
                     events.remove(0);
                 }
                 
-                // Set the last event date.
-                lastEvent = events.get(0);
+                // Set the last event date, the watermark to resume from.
+                if (!events.isEmpty()) {
+                    lastEvent = events.get(events.size() - 1);
+                    if (state != null) {
+                        AWSEBInflightUpdates.progress(state, lastEvent);
+                    }
+                }
                 
                 
                 for (EventDescription event : events) {
@@ -137,6 +270,7 @@ public class AWSEBEnvironmentUpdaterThread implements Callable<AWSEBEnvironmentU
                     log("'%s': EVENT [%s] (%s) %s", envName, eventDateString, event.getSeverity(), event.getMessage());
                 }
             } catch (Exception e) {
+                rethrowIfAborted(e);
                 log("'%s': Unable to process events %s", envName, e.getMessage());
             }
 
@@ -170,7 +304,7 @@ public class AWSEBEnvironmentUpdaterThread implements Callable<AWSEBEnvironmentU
                 log("'%s': Waiting for update to finish. Status: %s", envName, lastEnv.getStatus());
             }
         } catch (Exception e) {
-
+            rethrowIfAborted(e);
             log("Problem: " + e.getMessage());
 
             if (nAttempt++ > MAX_ATTEMPTS) {
@@ -182,16 +316,184 @@ public class AWSEBEnvironmentUpdaterThread implements Callable<AWSEBEnvironmentU
 
     @Override
     public AWSEBEnvironmentUpdaterThread call() throws Exception {
-        run();
+        long called = clock.currentTimeMillis();
+        try {
+            return update();
+        } finally {
+            completed();
+            // Whoever watches the rest of a detached update counts it from now on.
+            setUpdateState(AWSEBMetrics.UpdateState.NONE);
+            Map<String, Object> args = new LinkedHashMap<String, Object>();
+            args.put("versionLabel", versionLabel);
+            args.put("status", getStatus());
+            metrics.getTrace().add(envd.getEnvironmentName(), "environment", called, clock.currentTimeMillis(), args);
+        }
+    }
+
+    private AWSEBEnvironmentUpdaterThread update() throws Exception {
+        AWSEBEnvironmentLock.Ticket ticket = AWSEBEnvironmentLock.forEnvironment(environmentId).enqueue(owner, buildStarted);
+        setUpdateState(AWSEBMetrics.UpdateState.QUEUED);
+        String holder = ticket.getHolder();
+        if (holder != null && !ticket.isDone()) {
+            log("'%s': Waiting for %s to finish deploying", envd.getEnvironmentName(), holder);
+        }
+        AWSEBBuildMetrics.Timing lock = metrics.start("environment.lock");
+        boolean acquired = ticket.await(deployDeadline, clock);
+        lock.stop();
+        if (!acquired) {
+            supersededBy = ticket.getSupersededBy();
+            if (supersededBy == null) {
+                timedOut = true;
+                isComplete = true;
+                log("'%s': Gave up waiting for %s, the deployment ran out of time", envd.getEnvironmentName(), holder);
+                return this;
+            }
+            isComplete = true;
+            log("'%s': Superseded by %s, skipping the update", envd.getEnvironmentName(), supersededBy);
+            return this;
+        }
+        AWSEBDeploymentLimiter.Permit permit = null;
+        try {
+            if (slots != null) {
+                AWSEBBuildMetrics.Timing slot = metrics.start("environment.slot");
+                permit = slots.acquire(listener, envd.getEnvironmentName(), deployDeadline);
+                slot.stop();
+                if (permit == null) {
+                    timedOut = true;
+                    isComplete = true;
+                    return this;
+                }
+            }
+            try {
+                setUpdateState(AWSEBMetrics.UpdateState.ACTIVE);
+                setDeadline();
+                if (detached) {
+                    checkEnvironment();
+                } else {
+                    run();
+                }
+            } catch (AbortedException e) {
+                throw new InterruptedException(String.format("Update of '%s' was aborted", envd.getEnvironmentName()));
+            }
+        } finally {
+            keep(ticket, permit);
+        }
+        return this;
+    }
+
+    /**
+     * Keeps the environment lock and the deployment slot for whoever watches the rest of an update that was sent,
+     * or is detached, so no other build updates the environment meanwhile and the update still counts against the limit.
+     * Releases them otherwise.
+     *
+     * @param permit null if there is no limit.
+     */
+    private synchronized void keep(AWSEBEnvironmentLock.Ticket ticket, AWSEBDeploymentLimiter.Permit permit) {
+        if (!abandoned && !isComplete && (detached || isUpdated)) {
+            this.ticket = ticket;
+            this.permit = permit;
+        } else {
+            ticket.release();
+            if (permit != null) {
+                permit.release();
+            }
+        }
+    }
+
+    /**
+     * Gives the environment lock and deployment slot this update kept over to the watcher of the rest of it.
+     */
+    synchronized void handOver(AWSEBEnvironmentUpdaterThread watcher) {
+        watcher.ticket = ticket;
+        watcher.permit = permit;
+        // An update that didn't go through yet is sent again by the watcher.
+        watcher.isUpdated = isUpdated;
+        ticket = null;
+        permit = null;
+    }
+
+    /**
+     * Nobody watches the rest of the update, lets the next build have the environment now, or once the thread is done.
+     */
+    synchronized void abandon() {
+        abandoned = true;
+        releaseAll();
+        ticket = null;
+        permit = null;
+    }
+
+    /**
+     * Takes the environment lock for an update that was resumed after a restart, as Beanstalk is still running it.
+     */
+    AWSEBEnvironmentUpdaterThread holdEnvironment() {
+        ticket = AWSEBEnvironmentLock.forEnvironment(environmentId).hold(owner);
+        if (ticket == null) {
+            log("'%s': Another build is deploying to the environment already, watching the update anyway", envd.getEnvironmentName());
+        }
         return this;
     }
+
+    /**
+     * Sends the update like {@link #call()} does, without waiting for it to finish.
+     *
+     * @param background where to log the rest of the update.
+     * @return what to {@link #poll()} for the rest of the update, it holds the environment lock until it's done;
+     *         null if the update is done already.
+     */
+    public AWSEBEnvironmentUpdaterThread submit(TaskListener background) throws Exception {
+        if (state == null) {
+            throw new IllegalStateException("Only updates persisted in AWSEBInflightUpdates can be watched in the background");
+        }
+        detached = true;
+        call();
+        if (isComplete) {
+            return null;
+        }
+        AWSEBEnvironmentUpdaterThread watcher = resume(awseb, state, background);
+        watcher.clock = clock;
+        handOver(watcher);
+        return watcher;
+    }
     
+    /**
+     * Records the outcome of an update that is done, one that was interrupted stays in flight.
+     */
+    private void completed() {
+        if (isComplete && sentAt > 0) {
+            long waited = clock.currentTimeMillis() - sentAt;
+            metrics.recordPhase("environment.wait", waited, 0);
+            metrics.recordEnvironment(envd.getEnvironmentName(), waited);
+            sentAt = 0;
+        }
+        if (isComplete) {
+            setUpdateState(AWSEBMetrics.UpdateState.NONE);
+        }
+        if (isComplete && state != null && !state.isDone()) {
+            AWSEBInflightUpdates.done(state, success, isSuperseded(), getStatus());
+        }
+    }
+
+    private synchronized void setUpdateState(AWSEBMetrics.UpdateState state) {
+        AWSEBMetrics.updateState(updateState, state);
+        updateState = state;
+    }
+
     public void printResults() {
+        log(getStatus());
+    }
+
+    public String getStatus() {
         StringBuilder status = new StringBuilder();
         status.append("'");
         status.append(envd.getEnvironmentName());
         status.append("': ");
-        if (success) {
+        if (timedOut) {
+            status.append(isUpdated ? "Timed out waiting for the update to finish!" : "Timed out before it could be updated!");
+        } else if (supersededBy != null) {
+            status.append("Superseded by ");
+            status.append(supersededBy);
+            status.append(", not updated.");
+        } else if (success) {
             status.append("Completed successfully.");
         } else {
             if (isUpdated) {
@@ -200,28 +502,190 @@ public class AWSEBEnvironmentUpdaterThread implements Callable<AWSEBEnvironmentU
                 status.append("Failed to be updated!!");
             }
         }
-        log(status.toString());
+        return status.toString();
     }
     
+    /**
+     * @return where the update is remembered until it's done, null if it isn't.
+     */
+    AWSEBInflightUpdates.Update getInflightUpdate() {
+        return state;
+    }
+
+    public String getEnvironmentName() {
+        return envd.getEnvironmentName();
+    }
+
+    public String getVersionLabel() {
+        return versionLabel;
+    }
+
+    /**
+     * @return true when a newer build took the environment over, the update was skipped rather than failed.
+     */
+    public boolean isSuperseded() {
+        return supersededBy != null;
+    }
+
+    /**
+     * @return true when the environment runs our version, never for a {@link #isSuperseded() superseded} update.
+     */
     public boolean isSuccessfull() {
         return success;
     }
 
-    public void run() {
-        while (!isComplete) {
-            if (isUpdated) {
-                isReady();
-            } else {
-                updateEnv();
-            }
-            if (!isComplete){
-                try {
-                    log("'%s': Pausing update for %d seconds", envd.getEnvironmentName(), WAIT_TIME_SECONDS);
-                    Thread.sleep(WAIT_TIME_MILLISECONDS);
-                } catch (Exception e) {
-                    e.printStackTrace(listener.getLogger());
+    private void setDeadline() {
+        deadline = deployDeadline;
+        if (environmentTimeout > 0) {
+            long environmentDeadline = clock.currentTimeMillis() + environmentTimeout;
+            deadline = deadline == 0 ? environmentDeadline : Math.min(deadline, environmentDeadline);
+        }
+    }
+
+    /**
+     * Updates the environment and watches it until it's done, the deadline passed or the thread is interrupted.
+     */
+    public void run() throws InterruptedException {
+        while (!checkEnvironment()) {
+            long wait = getPollDelay();
+            log("'%s': Pausing update for %d seconds", envd.getEnvironmentName(), TimeUnit.MILLISECONDS.toSeconds(wait));
+            clock.sleep(wait);
+        }
+    }
+
+    /**
+     * Sends the update, or checks on it once.
+     *
+     * @return true once the environment is done, or the deadline passed.
+     */
+    private boolean checkEnvironment() {
+        if (isUpdated) {
+            long polled = clock.currentTimeMillis();
+            isReady();
+            metrics.getTrace().add("poll", "poll", polled, clock.currentTimeMillis(), null);
+        } else {
+            updateEnv();
+        }
+        if (!isComplete && deadline > 0 && clock.currentTimeMillis() >= deadline) {
+            log("'%s': Timed out, no longer waiting for the update", envd.getEnvironmentName());
+            timedOut = true;
+            isComplete = true;
+        }
+        return isComplete;
+    }
+
+    /**
+     * @return milliseconds to wait before checking on the environment again.
+     */
+    public long getPollDelay() {
+        if (deadline > 0) {
+            return Math.max(0, Math.min(WAIT_TIME_MILLISECONDS, deadline - clock.currentTimeMillis()));
+        }
+        return WAIT_TIME_MILLISECONDS;
+    }
+
+    /**
+     * Does what {@link #call()} does one step at a time, without blocking, so one thread can watch many environments.
+     * Waits for the environment lock and a deployment slot in between, holding both until the update is done.
+     *
+     * @return true once the environment is done, call again after {@link #getPollDelay()} otherwise.
+     */
+    public boolean poll() {
+        if (isComplete) {
+            return true;
+        }
+        try {
+            return pollOnce();
+        } finally {
+            completed();
+        }
+    }
+
+    private boolean pollOnce() {
+        if (!started) {
+            if (ticket == null) {
+                ticket = AWSEBEnvironmentLock.forEnvironment(environmentId).enqueue(owner, buildStarted);
+                setUpdateState(AWSEBMetrics.UpdateState.QUEUED);
+                String holder = ticket.getHolder();
+                if (holder != null && !ticket.isDone()) {
+                    log("'%s': Waiting for %s to finish deploying", envd.getEnvironmentName(), holder);
+                }
+            }
+            if (!ticket.isDone()) {
+                if (deployDeadline > 0 && clock.currentTimeMillis() >= deployDeadline) {
+                    ticket.cancel();
+                    log("'%s': Gave up waiting for the environment, the deployment ran out of time", envd.getEnvironmentName());
+                    timedOut = true;
+                    isComplete = true;
+                }
+                return isComplete;
+            }
+            supersededBy = ticket.getSupersededBy();
+            if (supersededBy != null) {
+                log("'%s': Superseded by %s, skipping the update", envd.getEnvironmentName(), supersededBy);
+                isComplete = true;
+                return true;
+            }
+            if (slots != null && permit == null) {
+                if (slotRequest == null) {
+                    slotRequest = slots.request(listener, envd.getEnvironmentName());
+                }
+                permit = slotRequest.tryAcquire();
+                if (permit == null) {
+                    if (deployDeadline > 0 && clock.currentTimeMillis() >= deployDeadline) {
+                        slotRequest.cancel();
+                        ticket.cancel();
+                        log("'%s': Gave up waiting for a deployment slot, the deployment ran out of time", envd.getEnvironmentName());
+                        timedOut = true;
+                        isComplete = true;
+                    }
+                    return isComplete;
                 }
             }
+            started = true;
+            setDeadline();
+        }
+
+        setUpdateState(AWSEBMetrics.UpdateState.ACTIVE);
+        try {
+            checkEnvironment();
+        } catch (RuntimeException e) {
+            isComplete = true;
+            throw e;
+        } finally {
+            if (isComplete) {
+                releaseAll();
+            }
+        }
+        return isComplete;
+    }
+
+    private void releaseAll() {
+        if (ticket != null) {
+            ticket.release();
+        }
+        if (permit != null) {
+            permit.release();
+        }
+    }
+
+    /**
+     * Stops {@link #poll()}ing, letting the next build have the environment.
+     */
+    public void cancel() {
+        isComplete = true;
+        setUpdateState(AWSEBMetrics.UpdateState.NONE);
+        if (slotRequest != null) {
+            slotRequest.cancel();
+        }
+        if (ticket != null) {
+            ticket.cancel();
+        }
+        if (permit != null) {
+            permit.release();
+        }
+        if (state != null) {
+            AWSEBInflightUpdates.remove(state);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,339 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.LogTaskListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EventDescription;
+
+/**
+ * Remembers the environment updates in flight in the Jenkins home, so they survive a restart of Jenkins.
+ *
+ * Beanstalk goes on updating an environment whatever happens to the build that asked for it. After a restart
+ * the updates that were sent are watched again from their last event until they're done, without sending them again,
+ * and the outcome is recorded on the build with an {@link AWSEBDeploymentAction}. Pipeline steps resume their own updates.
+ */
+public class AWSEBInflightUpdates {
+
+    private static final Logger LOGGER = Logger.getLogger(AWSEBInflightUpdates.class.getName());
+
+    // How long an aborted build's threads get to notice before their updates are handed off.
+    private static final long HAND_OFF_WAIT_SECONDS = 10;
+
+    // Watermarks are saved at most this often, a restart then logs again the events of one poll at most.
+    private static final long PROGRESS_SAVE_MILLISECONDS = TimeUnit.SECONDS.toMillis(30);
+
+    private static List<Update> updates;
+
+    private static long lastSaved;
+
+    public static synchronized void add(Update update) {
+        load().add(update);
+        save();
+    }
+
+    /**
+     * The update was sent, from now on it has to be watched until it's done.
+     */
+    public static synchronized void sent(Update update, long deadline, EventDescription lastEvent) {
+        update.sent = true;
+        update.deadline = deadline;
+        update.lastEvent = lastEvent;
+        save();
+    }
+
+    /**
+     * Moves the watermark, events up to this one were already logged. It's saved with the next change of state
+     * or once the last save is old enough, not on every event.
+     */
+    public static synchronized void progress(Update update, EventDescription lastEvent) {
+        update.lastEvent = lastEvent;
+        if (System.currentTimeMillis() - lastSaved >= PROGRESS_SAVE_MILLISECONDS) {
+            save();
+        }
+    }
+
+    /**
+     * Updates of builds are forgotten once done, those of Pipeline steps are kept until the step {@link #forget}s them.
+     */
+    public static synchronized void done(Update update, boolean success, boolean superseded, String status) {
+        update.done = true;
+        update.success = success;
+        update.superseded = superseded;
+        update.status = status;
+        if (!update.pipeline) {
+            load().remove(update);
+        }
+        save();
+    }
+
+    public static synchronized void remove(Update update) {
+        if (load().remove(update)) {
+            save();
+        }
+    }
+
+    public static synchronized void forget(String owner) {
+        if (load().removeAll(getUpdates(owner))) {
+            save();
+        }
+    }
+
+    /**
+     * Forgets the updates that were never sent, eg. because the rollout was halted before their wave.
+     */
+    public static synchronized void forget(List<AWSEBEnvironmentUpdaterThread> updaters) {
+        boolean changed = false;
+        for (AWSEBEnvironmentUpdaterThread updater : updaters) {
+            Update update = updater.getInflightUpdate();
+            if (update != null && !update.sent) {
+                changed |= load().remove(update);
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    public static synchronized List<Update> getUpdates(String owner) {
+        List<Update> owned = new ArrayList<Update>();
+        for (Update update : load()) {
+            if (update.owner.equals(owner)) {
+                owned.add(update);
+            }
+        }
+        return owned;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Update> load() {
+        if (updates != null) {
+            return updates;
+        }
+        updates = new ArrayList<Update>();
+        XmlFile file = getFile();
+        if (file.exists()) {
+            try {
+                updates.addAll((List<Update>) file.read());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read the environment updates in flight", e);
+            }
+        }
+        return updates;
+    }
+
+    private static void save() {
+        lastSaved = System.currentTimeMillis();
+        try {
+            getFile().write(updates);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to save the environment updates in flight", e);
+        }
+    }
+
+    private static XmlFile getFile() {
+        return new XmlFile(new File(Jenkins.getInstance().getRootDir(), AWSEBInflightUpdates.class.getName() + ".xml"));
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void resumeAll() {
+        List<Update> builds = new ArrayList<Update>();
+        synchronized (AWSEBInflightUpdates.class) {
+            for (Update update : load()) {
+                if (!update.pipeline) {
+                    builds.add(update);
+                }
+            }
+        }
+        for (Update update : builds) {
+            resume(update, null);
+        }
+    }
+
+    /**
+     * Finishes watching the updates a build sent but didn't see through, eg. because it was aborted.
+     *
+     * @param pool the threads that were running the updaters, already shut down.
+     */
+    public static void handOff(List<AWSEBEnvironmentUpdaterThread> updaters, ExecutorService pool) {
+        try {
+            if (!pool.awaitTermination(HAND_OFF_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.log(Level.WARNING, "Environment updates are still running, not watching them in the background");
+                abandon(updaters);
+                return;
+            }
+        } catch (InterruptedException e) {
+            abandon(updaters);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        List<AWSEBEnvironmentUpdaterThread> inflight = new ArrayList<AWSEBEnvironmentUpdaterThread>();
+        synchronized (AWSEBInflightUpdates.class) {
+            for (AWSEBEnvironmentUpdaterThread updater : updaters) {
+                if (load().contains(updater.getInflightUpdate())) {
+                    inflight.add(updater);
+                } else {
+                    updater.abandon();
+                }
+            }
+        }
+        for (AWSEBEnvironmentUpdaterThread updater : inflight) {
+            resume(updater.getInflightUpdate(), updater);
+        }
+    }
+
+    private static void abandon(List<AWSEBEnvironmentUpdaterThread> updaters) {
+        for (AWSEBEnvironmentUpdaterThread updater : updaters) {
+            updater.abandon();
+        }
+    }
+
+    /**
+     * @param previous the updater that sent the update and kept the environment lock, null to take it after a restart.
+     */
+    private static void resume(final Update update, AWSEBEnvironmentUpdaterThread previous) {
+        final Run<?, ?> run = Run.fromExternalizableId(update.owner);
+        if (!update.sent) {
+            if (previous != null) {
+                previous.abandon();
+            }
+            remove(update);
+            AWSEBDeploymentAction.record(run, update.environmentName, update.versionLabel, false, false,
+                    String.format("'%s': Not updated, the build stopped before the update was sent.", update.environmentName));
+            return;
+        }
+        LOGGER.log(Level.INFO, "Resuming the update of {0} to {1} for {2}",
+                new Object[] { update.environmentName, update.versionLabel, update.owner });
+        TaskListener listener = new LogTaskListener(LOGGER, Level.FINE);
+        AWSEBEnvironmentUpdaterThread watcher;
+        if (previous == null) {
+            watcher = update.resume(listener);
+        } else {
+            watcher = update.watch(listener);
+            previous.handOver(watcher);
+        }
+        AWSEBEnvironmentMonitor.watch(watcher, new AWSEBEnvironmentMonitor.Callback() {
+            @Override
+            public void done(AWSEBEnvironmentUpdaterThread result) {
+                LOGGER.log(Level.INFO, result.getStatus());
+                AWSEBDeploymentAction.record(run, update.environmentName, update.versionLabel, result.isSuccessfull(), result.isSuperseded(),
+                        result.getStatus());
+            }
+        });
+    }
+
+    public static class Update implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String owner;
+        private final boolean pipeline;
+        private final String credentials;
+        private final String region;
+        private final String environmentId;
+        private final String environmentName;
+        private final String versionLabel;
+
+        private boolean sent;
+        private long deadline;
+        private EventDescription lastEvent;
+
+        private boolean done;
+        private boolean success;
+        private boolean superseded;
+        private String status;
+
+        /**
+         * @param owner the externalizable id of the build, or the id of the Pipeline step.
+         */
+        public Update(String owner, boolean pipeline, AWSEBCredentials credentials, Regions region,
+                EnvironmentDescription envd, String versionLabel) {
+            this.owner = owner;
+            this.pipeline = pipeline;
+            this.credentials = credentials == null ? null : credentials.toString();
+            this.region = region.getName();
+            this.environmentId = envd.getEnvironmentId();
+            this.environmentName = envd.getEnvironmentName();
+            this.versionLabel = versionLabel;
+        }
+
+        public String getEnvironmentId() {
+            return environmentId;
+        }
+
+        public String getEnvironmentName() {
+            return environmentName;
+        }
+
+        public String getVersionLabel() {
+            return versionLabel;
+        }
+
+        public boolean isSent() {
+            return sent;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public EventDescription getLastEvent() {
+            return lastEvent;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * @return true when a newer build took the environment over, the update was skipped rather than failed.
+         */
+        public boolean isSuperseded() {
+            return superseded;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * Watches the update again after a restart, from the last event that was logged, holding the environment lock until it's done.
+         */
+        public AWSEBEnvironmentUpdaterThread resume(TaskListener listener) {
+            return watch(listener).holdEnvironment();
+        }
+
+        /**
+         * Watches the update again, from the last event that was logged, without the environment lock.
+         */
+        AWSEBEnvironmentUpdaterThread watch(TaskListener listener) {
+            AWSEBCredentials awsCredentials = AWSEBCredentials.getCredentialsByString(credentials);
+            AWSCredentialsProvider provider = awsCredentials == null ? null : awsCredentials.getAwsCredentials();
+            AWSElasticBeanstalk awseb = AWSEBUtils.getElasticBeanstalk(provider, Region.getRegion(Regions.fromName(region)));
+            return AWSEBEnvironmentUpdaterThread.resume(awseb, this, listener);
+        }
+    }
+}
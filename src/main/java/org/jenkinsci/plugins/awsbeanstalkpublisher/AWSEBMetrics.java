@@ -0,0 +1,384 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.TimingInfo;
+
+/**
+ * Time spent in each phase of a deployment and AWS calls made, over all builds since Jenkins started.
+ *
+ * {@link AWSEBBuildMetrics} records into it along with its own build. The AWS clients made by {@link AWSEBUtils}
+ * report their calls here with {@link #getCollector()}, retries and throttled requests included.
+ * It also keeps the gauges and counters {@link AWSEBMetricsRootAction} exposes.
+ */
+public class AWSEBMetrics {
+
+    /**
+     * Upper bounds, in milliseconds, of the buckets of the AWS call latency histograms, the last one is unbounded.
+     */
+    static final long[] LATENCY_BUCKETS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000 };
+
+    private static final Map<String, Phase> phases = new TreeMap<String, Phase>();
+    private static final Map<String, Calls> calls = new TreeMap<String, Calls>();
+    // Guarded by calls, counts of each bucket and not cumulative.
+    private static final Map<String, long[]> latencies = new TreeMap<String, long[]>();
+
+    private static final AtomicInteger activeUpdates = new AtomicInteger();
+    private static final AtomicInteger queuedUpdates = new AtomicInteger();
+    private static final AtomicLong clientCacheHits = new AtomicLong();
+    private static final AtomicLong clientCacheMisses = new AtomicLong();
+    private static final AtomicLong monitorTicks = new AtomicLong();
+    private static final AtomicLong monitorLagMillis = new AtomicLong();
+
+    private static final RequestMetricCollector COLLECTOR = new Collector(null);
+
+    public static void recordPhase(String name, long millis, long bytes) {
+        synchronized (phases) {
+            Phase phase = phases.get(name);
+            if (phase == null) {
+                phase = new Phase();
+                phases.put(name, phase);
+            }
+            phase.add(millis, bytes);
+        }
+    }
+
+    public static void recordCall(String operation, long requests, long retries, long throttles, boolean failed, long millis, long throttledMillis) {
+        synchronized (calls) {
+            Calls call = calls.get(operation);
+            if (call == null) {
+                call = new Calls();
+                calls.put(operation, call);
+            }
+            call.add(requests, retries, throttles, failed, millis, throttledMillis);
+
+            long[] buckets = latencies.get(operation);
+            if (buckets == null) {
+                buckets = new long[LATENCY_BUCKETS.length + 1];
+                latencies.put(operation, buckets);
+            }
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+        }
+    }
+
+    /**
+     * @return a copy, by operation, of how many calls fell in each of the {@link #LATENCY_BUCKETS}.
+     */
+    public static Map<String, long[]> getLatencies() {
+        synchronized (calls) {
+            Map<String, long[]> copy = new TreeMap<String, long[]>();
+            for (Map.Entry<String, long[]> latency : latencies.entrySet()) {
+                copy.put(latency.getKey(), latency.getValue().clone());
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * Moves an environment update from one state to another, for the gauges of active and queued updates.
+     */
+    static void updateState(UpdateState from, UpdateState to) {
+        if (from != to) {
+            count(from, -1);
+            count(to, 1);
+        }
+    }
+
+    private static void count(UpdateState state, int delta) {
+        if (state == UpdateState.QUEUED) {
+            queuedUpdates.addAndGet(delta);
+        } else if (state == UpdateState.ACTIVE) {
+            activeUpdates.addAndGet(delta);
+        }
+    }
+
+    public static int getActiveUpdates() {
+        return activeUpdates.get();
+    }
+
+    public static int getQueuedUpdates() {
+        return queuedUpdates.get();
+    }
+
+    static void clientCacheHit() {
+        clientCacheHits.incrementAndGet();
+    }
+
+    static void clientCacheMiss() {
+        clientCacheMisses.incrementAndGet();
+    }
+
+    public static long getClientCacheHits() {
+        return clientCacheHits.get();
+    }
+
+    public static long getClientCacheMisses() {
+        return clientCacheMisses.get();
+    }
+
+    /**
+     * @param lagMillis how late the monitor checked on an environment.
+     */
+    static void recordMonitorTick(long lagMillis) {
+        monitorTicks.incrementAndGet();
+        monitorLagMillis.addAndGet(Math.max(0, lagMillis));
+    }
+
+    public static long getMonitorTicks() {
+        return monitorTicks.get();
+    }
+
+    public static long getMonitorLagMillis() {
+        return monitorLagMillis.get();
+    }
+
+    /**
+     * @return a copy, by phase name.
+     */
+    public static Map<String, Phase> getPhases() {
+        synchronized (phases) {
+            return copy(phases);
+        }
+    }
+
+    /**
+     * @return a copy, by operation, eg. <code>AWSElasticBeanstalk.UpdateEnvironment</code>.
+     */
+    public static Map<String, Calls> getCalls() {
+        synchronized (calls) {
+            return copy(calls);
+        }
+    }
+
+    static <T extends Stat<T>> Map<String, T> copy(Map<String, T> stats) {
+        Map<String, T> copy = new TreeMap<String, T>();
+        for (Map.Entry<String, T> stat : stats.entrySet()) {
+            copy.put(stat.getKey(), stat.getValue().copy());
+        }
+        return copy;
+    }
+
+    /**
+     * Counts the calls of clients that aren't made for a build.
+     */
+    public static RequestMetricCollector getCollector() {
+        return COLLECTOR;
+    }
+
+    /**
+     * Where an environment update is at, see {@link #updateState}.
+     */
+    enum UpdateState {
+        NONE, QUEUED, ACTIVE
+    }
+
+    interface Stat<T> {
+        T copy();
+    }
+
+    public static class Phase implements Stat<Phase>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private long count;
+        private long totalMillis;
+        private long maxMillis;
+        private long bytes;
+
+        synchronized void add(long millis, long bytes) {
+            count++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+            this.bytes += bytes;
+        }
+
+        @Override
+        public synchronized Phase copy() {
+            Phase copy = new Phase();
+            copy.count = count;
+            copy.totalMillis = totalMillis;
+            copy.maxMillis = maxMillis;
+            copy.bytes = bytes;
+            return copy;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return 0 for phases that don't move bytes.
+         */
+        public long getBytesPerSecond() {
+            return totalMillis == 0 ? 0 : bytes * 1000 / totalMillis;
+        }
+    }
+
+    public static class Calls implements Stat<Calls>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private long calls;
+        private long requests;
+        private long retries;
+        private long throttles;
+        private long failures;
+        private long totalMillis;
+        private long throttledMillis;
+
+        synchronized void add(long requests, long retries, long throttles, boolean failed, long millis, long throttledMillis) {
+            this.calls++;
+            this.requests += requests;
+            this.retries += retries;
+            this.throttles += throttles;
+            this.failures += failed ? 1 : 0;
+            this.totalMillis += millis;
+            this.throttledMillis += throttledMillis;
+        }
+
+        @Override
+        public synchronized Calls copy() {
+            Calls copy = new Calls();
+            copy.calls = calls;
+            copy.requests = requests;
+            copy.retries = retries;
+            copy.throttles = throttles;
+            copy.failures = failures;
+            copy.totalMillis = totalMillis;
+            copy.throttledMillis = throttledMillis;
+            return copy;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * @return HTTP requests sent, one per call plus its retries.
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getThrottles() {
+            return throttles;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        /**
+         * @return time spent backing off before retrying calls that were throttled.
+         */
+        public long getThrottledMillis() {
+            return throttledMillis;
+        }
+    }
+
+    /**
+     * Counts each call of a client, once it is done, into a build and this registry.
+     */
+    static class Collector extends RequestMetricCollector {
+        private final AWSEBBuildMetrics build;
+
+        /**
+         * @param build null to only count into this registry.
+         */
+        Collector(AWSEBBuildMetrics build) {
+            this.build = build;
+        }
+
+        @Override
+        public void collectMetrics(Request<?> request, Response<?> response) {
+            AWSRequestMetrics metrics = request.getAWSRequestMetrics();
+            if (metrics == null) {
+                return;
+            }
+            TimingInfo timing = metrics.getTimingInfo();
+            String operation = getOperation(request);
+            long requests = getCounter(timing, AWSRequestMetrics.Field.RequestCount);
+            // The SDK's own retries are each counted as a request.
+            long retries = Math.max(0, requests - 1);
+            long throttles = getCounter(timing, AWSRequestMetrics.Field.ThrottleException);
+            Double millis = timing.getTimeTakenMillisIfKnown();
+            long elapsed = millis == null ? 0 : millis.longValue();
+            boolean failed = response == null;
+            long throttled = throttles == 0 ? 0 : getPauses(timing);
+
+            recordCall(operation, requests, retries, throttles, failed, elapsed, throttled);
+            if (build != null) {
+                build.recordCall(operation, requests, retries, throttles, failed, elapsed, throttled);
+
+                Long started = timing.getStartEpochTimeMilliIfKnown();
+                long end = started == null ? System.currentTimeMillis() : started + elapsed;
+                Map<String, Object> args = new LinkedHashMap<String, Object>();
+                args.put("requests", requests);
+                args.put("retries", retries);
+                args.put("throttles", throttles);
+                args.put("failed", failed);
+                build.getTrace().add(operation, "aws", end - elapsed, end, args);
+            }
+        }
+
+        private static long getCounter(TimingInfo timing, AWSRequestMetrics.Field field) {
+            Number counter = timing.getCounter(field.name());
+            return counter == null ? 0 : counter.longValue();
+        }
+
+        private static long getPauses(TimingInfo timing) {
+            long pauses = 0;
+            List<TimingInfo> retryPauses = timing.getAllSubMeasurements(AWSRequestMetrics.Field.RetryPauseTime.name());
+            if (retryPauses != null) {
+                for (TimingInfo pause : retryPauses) {
+                    Double millis = pause.getTimeTakenMillisIfKnown();
+                    pauses += millis == null ? 0 : millis.longValue();
+                }
+            }
+            return pauses;
+        }
+
+        private static String getOperation(Request<?> request) {
+            if (request.getOriginalRequest() == null) {
+                return request.getServiceName();
+            }
+            String operation = request.getOriginalRequest().getClass().getSimpleName();
+            if (operation.endsWith("Request")) {
+                operation = operation.substring(0, operation.length() - "Request".length());
+            }
+            return request.getServiceName() + "." + operation;
+        }
+    }
+}
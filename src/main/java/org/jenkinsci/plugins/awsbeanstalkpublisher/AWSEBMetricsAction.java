@@ -0,0 +1,64 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.Run;
+
+import java.util.Map;
+
+import jenkins.model.RunAction2;
+
+/**
+ * Where a build's deployment spent its time, by phase, and the AWS calls it made, see {@link AWSEBBuildMetrics}.
+ */
+public class AWSEBMetricsAction implements RunAction2 {
+
+    private Map<String, AWSEBMetrics.Phase> phases;
+    private Map<String, AWSEBMetrics.Calls> calls;
+    private transient Run<?, ?> run;
+
+    public AWSEBMetricsAction(Map<String, AWSEBMetrics.Phase> phases, Map<String, AWSEBMetrics.Calls> calls) {
+        this.phases = phases;
+        this.calls = calls;
+    }
+
+    synchronized void update(Map<String, AWSEBMetrics.Phase> phases, Map<String, AWSEBMetrics.Calls> calls) {
+        this.phases = phases;
+        this.calls = calls;
+    }
+
+    public synchronized Map<String, AWSEBMetrics.Phase> getPhases() {
+        return phases;
+    }
+
+    public synchronized Map<String, AWSEBMetrics.Calls> getCalls() {
+        return calls;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Elastic Beanstalk Timings";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "awseb-timings";
+    }
+}
@@ -0,0 +1,134 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import jenkins.model.Jenkins;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Serves {@link AWSEBMetrics} at <code>/awseb-metrics/</code> in the Prometheus text exposition format.
+ *
+ * It only reads counters the deployments keep up to date, so scraping it often is cheap.
+ * Names of operations and phases say what Jenkins deploys where, so scrapers need to be administrators.
+ */
+@Extension
+public class AWSEBMetricsRootAction implements RootAction {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        rsp.setContentType(CONTENT_TYPE);
+        PrintWriter out = rsp.getWriter();
+        write(out);
+        out.flush();
+    }
+
+    static void write(PrintWriter out) {
+        header(out, "awseb_environment_updates_active", "gauge", "Environment updates being sent or waited for.");
+        sample(out, "awseb_environment_updates_active", null, null, AWSEBMetrics.getActiveUpdates());
+        header(out, "awseb_environment_updates_queued", "gauge", "Environment updates waiting for the environment or a deployment slot.");
+        sample(out, "awseb_environment_updates_queued", null, null, AWSEBMetrics.getQueuedUpdates());
+
+        // Latencies first, so every operation they have is in the calls too, with at least as many calls.
+        Map<String, long[]> latencies = AWSEBMetrics.getLatencies();
+        Map<String, AWSEBMetrics.Calls> calls = AWSEBMetrics.getCalls();
+        header(out, "awseb_aws_call_duration_seconds", "histogram", "Duration of the AWS calls, retries included.");
+        for (Map.Entry<String, long[]> latency : latencies.entrySet()) {
+            String operation = latency.getKey();
+            long[] buckets = latency.getValue();
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i];
+                String le = i < AWSEBMetrics.LATENCY_BUCKETS.length ? seconds(AWSEBMetrics.LATENCY_BUCKETS[i]) : "+Inf";
+                out.printf("awseb_aws_call_duration_seconds_bucket{operation=\"%s\",le=\"%s\"} %s\n", escape(operation), le, cumulative);
+            }
+            AWSEBMetrics.Calls call = calls.get(operation);
+            sample(out, "awseb_aws_call_duration_seconds_sum", "operation", operation, call == null ? "0" : seconds(call.getTotalMillis()));
+            sample(out, "awseb_aws_call_duration_seconds_count", "operation", operation, cumulative);
+        }
+
+        header(out, "awseb_aws_requests_total", "counter", "HTTP requests sent to AWS, one per call plus its retries.");
+        for (Map.Entry<String, AWSEBMetrics.Calls> call : calls.entrySet()) {
+            sample(out, "awseb_aws_requests_total", "operation", call.getKey(), call.getValue().getRequests());
+        }
+        header(out, "awseb_aws_call_errors_total", "counter", "AWS calls that failed, after their retries.");
+        for (Map.Entry<String, AWSEBMetrics.Calls> call : calls.entrySet()) {
+            sample(out, "awseb_aws_call_errors_total", "operation", call.getKey(), call.getValue().getFailures());
+        }
+        header(out, "awseb_aws_throttles_total", "counter", "Requests AWS throttled.");
+        for (Map.Entry<String, AWSEBMetrics.Calls> call : calls.entrySet()) {
+            sample(out, "awseb_aws_throttles_total", "operation", call.getKey(), call.getValue().getThrottles());
+        }
+        header(out, "awseb_aws_throttled_seconds_total", "counter", "Time spent backing off before retrying throttled calls.");
+        for (Map.Entry<String, AWSEBMetrics.Calls> call : calls.entrySet()) {
+            sample(out, "awseb_aws_throttled_seconds_total", "operation", call.getKey(), seconds(call.getValue().getThrottledMillis()));
+        }
+
+        Map<String, AWSEBMetrics.Phase> phases = AWSEBMetrics.getPhases();
+        header(out, "awseb_phase_seconds_total", "counter", "Time spent in each phase of the deployments.");
+        for (Map.Entry<String, AWSEBMetrics.Phase> phase : phases.entrySet()) {
+            sample(out, "awseb_phase_seconds_total", "phase", phase.getKey(), seconds(phase.getValue().getTotalMillis()));
+        }
+        header(out, "awseb_phase_bytes_total", "counter", "Bytes zipped, hashed, uploaded or copied by each phase.");
+        for (Map.Entry<String, AWSEBMetrics.Phase> phase : phases.entrySet()) {
+            sample(out, "awseb_phase_bytes_total", "phase", phase.getKey(), phase.getValue().getBytes());
+        }
+        AWSEBMetrics.Phase upload = phases.get("upload");
+        header(out, "awseb_upload_bytes_per_second", "gauge", "Average throughput of the bundle uploads.");
+        sample(out, "awseb_upload_bytes_per_second", null, null, upload == null ? 0 : upload.getBytesPerSecond());
+
+        header(out, "awseb_client_cache_hits_total", "counter", "Shared AWS clients found in the cache.");
+        sample(out, "awseb_client_cache_hits_total", null, null, AWSEBMetrics.getClientCacheHits());
+        header(out, "awseb_client_cache_misses_total", "counter", "Shared AWS clients that had to be made.");
+        sample(out, "awseb_client_cache_misses_total", null, null, AWSEBMetrics.getClientCacheMisses());
+
+        header(out, "awseb_monitor_tick_lag_seconds", "summary", "How late the environments watched in the background were checked on.");
+        sample(out, "awseb_monitor_tick_lag_seconds_sum", null, null, seconds(AWSEBMetrics.getMonitorLagMillis()));
+        sample(out, "awseb_monitor_tick_lag_seconds_count", null, null, AWSEBMetrics.getMonitorTicks());
+    }
+
+    private static void header(PrintWriter out, String name, String type, String help) {
+        out.printf("# HELP %s %s\n", name, help);
+        out.printf("# TYPE %s %s\n", name, type);
+    }
+
+    private static void sample(PrintWriter out, String name, String label, String value, Object sample) {
+        if (label == null) {
+            out.printf("%s %s\n", name, sample);
+        } else {
+            out.printf("%s{%s=\"%s\"} %s\n", name, label, escape(value), sample);
+        }
+    }
+
+    private static String seconds(long millis) {
+        return Double.toString(millis / 1000.0);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public String getIconFileName() {
+        // Not for people, no link in the side panel.
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Elastic Beanstalk Metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "awseb-metrics";
+    }
+}
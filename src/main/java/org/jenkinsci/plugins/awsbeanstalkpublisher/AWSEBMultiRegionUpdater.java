@@ -0,0 +1,169 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Result;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBDetachedDeployment;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBElasticBeanstalkSetup;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBMultiRegion;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBRollingDeployment;
+
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+
+/**
+ * Deploys one build to several regions.
+ *
+ * The bundle is built and uploaded once in the setup's own region, copied to every other region's bucket
+ * in parallel, and then the environments of all regions are updated from one pool of {@link AWSEBEnvironmentUpdater#MAX_THREAD_COUNT} threads.
+ */
+public class AWSEBMultiRegionUpdater {
+
+    private final AbstractBuild<?, ?> build;
+    private final Launcher launcher;
+    private final BuildListener listener;
+    private final AWSEBElasticBeanstalkSetup envSetup;
+    private final AWSEBMultiRegion multiRegion;
+
+    public AWSEBMultiRegionUpdater(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener,
+            AWSEBElasticBeanstalkSetup envSetup, AWSEBMultiRegion multiRegion) {
+        this.build = build;
+        this.launcher = launcher;
+        this.listener = listener;
+        this.envSetup = envSetup;
+        this.multiRegion = multiRegion;
+    }
+
+    public boolean perform() throws Exception {
+        AWSEBEnvironmentUpdater primary = new AWSEBEnvironmentUpdater(build, launcher, listener, envSetup);
+        Map<Regions, String> regions = multiRegion.getRegions(build, listener);
+        regions.remove(primary.getAwsRegion());
+
+        List<AWSEBS3Uploader> sources = primary.uploadArchives();
+
+        Map<Regions, AWSEBEnvironmentUpdater> updaters = new LinkedHashMap<Regions, AWSEBEnvironmentUpdater>();
+        updaters.put(primary.getAwsRegion(), primary);
+        boolean allSuccess = replicate(sources, regions, updaters);
+
+        Map<Regions, List<AWSEBEnvironmentUpdaterThread>> threads = new LinkedHashMap<Regions, List<AWSEBEnvironmentUpdaterThread>>();
+        List<AWSEBEnvironmentUpdaterThread> all = new ArrayList<AWSEBEnvironmentUpdaterThread>();
+        for (Map.Entry<Regions, AWSEBEnvironmentUpdater> region : updaters.entrySet()) {
+            List<EnvironmentDescription> envList = region.getValue().getEnvironments();
+            if (envList.isEmpty()) {
+                AWSEBUtils.log(listener, "%s: No environments found", region.getKey().getName());
+                allSuccess = false;
+            }
+            threads.put(region.getKey(), region.getValue().getUpdaters(envList));
+            all.addAll(threads.get(region.getKey()));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(AWSEBEnvironmentUpdater.MAX_THREAD_COUNT);
+        boolean finished = false;
+        try {
+            AWSEBRollingDeployment rolling = primary.getRollingDeployment();
+            AWSEBDetachedDeployment detached = envSetup.getExtensions().get(AWSEBDetachedDeployment.class);
+            if (rolling != null) {
+                // One rollout over all regions, the canary comes from the primary region.
+                allSuccess &= new AWSEBWaveScheduler(listener, rolling).run(pool, all);
+                threads.clear();
+            } else if (detached != null) {
+                allSuccess &= primary.submitEnvironments(pool, all, detached);
+                threads.clear();
+            }
+
+            Map<Regions, List<Future<AWSEBEnvironmentUpdaterThread>>> results = new LinkedHashMap<Regions, List<Future<AWSEBEnvironmentUpdaterThread>>>();
+            for (Map.Entry<Regions, List<AWSEBEnvironmentUpdaterThread>> region : threads.entrySet()) {
+                List<Future<AWSEBEnvironmentUpdaterThread>> futures = new ArrayList<Future<AWSEBEnvironmentUpdaterThread>>();
+                for (AWSEBEnvironmentUpdaterThread thread : region.getValue()) {
+                    futures.add(pool.submit(thread));
+                }
+                results.put(region.getKey(), futures);
+            }
+
+            for (Map.Entry<Regions, List<Future<AWSEBEnvironmentUpdaterThread>>> region : results.entrySet()) {
+                AWSEBUtils.log(listener, "Results for region %s:", region.getKey().getName());
+                allSuccess &= updaters.get(region.getKey()).collectResults(region.getValue());
+            }
+            finished = true;
+        } finally {
+            pool.shutdownNow();
+            if (finished) {
+                AWSEBInflightUpdates.forget(all);
+            } else {
+                // Beanstalk goes on with the updates that were sent, see them through in the background.
+                AWSEBInflightUpdates.handOff(all, pool);
+            }
+        }
+
+        for (AWSEBEnvironmentUpdater updater : updaters.values()) {
+            updater.pruneVersions();
+        }
+
+        if (envSetup.getFailOnError() && !allSuccess) {
+            build.setResult(Result.FAILURE);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the bundles into every region and creates the application versions there, all regions at once.
+     * Regions that fail are left out of the updaters.
+     */
+    private boolean replicate(final List<AWSEBS3Uploader> sources, Map<Regions, String> regions,
+            Map<Regions, AWSEBEnvironmentUpdater> updaters) throws InterruptedException {
+        if (regions.isEmpty()) {
+            return true;
+        }
+
+        Map<Regions, AWSEBEnvironmentUpdater> candidates = new LinkedHashMap<Regions, AWSEBEnvironmentUpdater>();
+        List<Callable<Void>> copies = new ArrayList<Callable<Void>>(regions.size());
+        for (Map.Entry<Regions, String> region : regions.entrySet()) {
+            final String bucketName = region.getValue();
+            final AWSEBEnvironmentUpdater updater = new AWSEBEnvironmentUpdater(build, launcher, listener, envSetup, region.getKey());
+            candidates.put(region.getKey(), updater);
+            copies.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    if (!sources.isEmpty() && bucketName == null) {
+                        throw new IllegalArgumentException(String.format("No bucket configured for region %s", updater.getAwsRegion().getName()));
+                    }
+                    updater.copyArchives(sources, bucketName);
+                    return null;
+                }
+            });
+        }
+
+        boolean allSuccess = true;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(regions.size(), AWSEBEnvironmentUpdater.MAX_THREAD_COUNT));
+        try {
+            List<Future<Void>> results = pool.invokeAll(copies);
+            int i = 0;
+            for (Map.Entry<Regions, AWSEBEnvironmentUpdater> region : candidates.entrySet()) {
+                try {
+                    results.get(i++).get();
+                    updaters.put(region.getKey(), region.getValue());
+                } catch (ExecutionException e) {
+                    AWSEBUtils.log(listener, "%s: Unable to create the application version, skipping the region", region.getKey().getName());
+                    e.getCause().printStackTrace(listener.getLogger());
+                    allSuccess = false;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return allSuccess;
+    }
+}
@@ -0,0 +1,241 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.XmlFile;
+import hudson.model.BuildListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.amazonaws.internal.ResettableInputStream;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.MultipartUpload;
+import com.amazonaws.services.s3.model.MultipartUploadListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PartListing;
+import com.amazonaws.services.s3.model.PartSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+/**
+ * Uploads a bundle in parts, remembering the progress in the job directory so a retried
+ * build of the same bundle only sends the parts S3 doesn't have yet.
+ */
+public class AWSEBMultipartUploader {
+
+    public static final long MULTIPART_THRESHOLD = 32 * 1024 * 1024;
+    public static final long PART_SIZE = 16 * 1024 * 1024;
+
+    private static final int STALE_UPLOAD_HOURS = 24;
+    private static final long STALE_UPLOAD_MILLISECONDS = TimeUnit.HOURS.toMillis(STALE_UPLOAD_HOURS);
+
+    private final AmazonS3 s3;
+    private final BuildListener listener;
+    private final String bucketName;
+    private final String objectKey;
+    private final File localArchive;
+    private final String fingerprint;
+    private final XmlFile stateFile;
+    private final AWSEBUploadThrottle throttle;
+
+    public AWSEBMultipartUploader(AmazonS3 s3, BuildListener listener, File stateDir,
+            String bucketName, String objectKey, File localArchive, String fingerprint, AWSEBUploadThrottle throttle) {
+        this.s3 = s3;
+        this.listener = listener;
+        this.bucketName = bucketName;
+        this.objectKey = objectKey;
+        this.localArchive = localArchive;
+        this.fingerprint = fingerprint;
+        this.stateFile = new XmlFile(new File(stateDir, DigestUtils.md5Hex(bucketName + "/" + objectKey) + ".xml"));
+        this.throttle = throttle;
+    }
+
+    public static boolean isMultipart(File localArchive) {
+        return localArchive.length() > MULTIPART_THRESHOLD;
+    }
+
+    public void upload(ObjectMetadata metadata) throws IOException, InterruptedException {
+        abortStaleUploads();
+
+        UploadState state = resumeUpload();
+        if (state == null) {
+            InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucketName, objectKey, metadata);
+            state = new UploadState(bucketName, objectKey, s3.initiateMultipartUpload(request).getUploadId(), fingerprint);
+            save(state);
+        }
+
+        long length = localArchive.length();
+        int partCount = getPartCount(length);
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            if (state.partETags.containsKey(partNumber)) {
+                continue;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            ResettableInputStream part = openPart(localArchive, partNumber);
+            UploadPartResult result;
+            try {
+                UploadPartRequest request = new UploadPartRequest()
+                        .withBucketName(bucketName).withKey(objectKey).withUploadId(state.uploadId)
+                        .withPartNumber(partNumber).withInputStream(throttle.wrap(part))
+                        .withPartSize(getPartSize(length, partNumber)).withLastPart(partNumber == partCount);
+                result = s3.uploadPart(request);
+            } finally {
+                part.close();
+            }
+            state.partETags.put(partNumber, result.getETag());
+            save(state);
+            AWSEBUtils.log(listener, "Uploaded part %d/%d of %s", partNumber, partCount, localArchive.getName());
+        }
+
+        List<PartETag> partETags = new ArrayList<PartETag>(state.partETags.size());
+        for (Map.Entry<Integer, String> part : state.partETags.entrySet()) {
+            partETags.add(new PartETag(part.getKey(), part.getValue()));
+        }
+        s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, objectKey, state.uploadId, partETags));
+        stateFile.delete();
+    }
+
+    static int getPartCount(long length) {
+        return (int) ((length + PART_SIZE - 1) / PART_SIZE);
+    }
+
+    /**
+     * @param partNumber starts at 1, like S3's.
+     */
+    static long getPartSize(long length, int partNumber) {
+        return Math.min(PART_SIZE, length - (partNumber - 1) * PART_SIZE);
+    }
+
+    /**
+     * @return a stream of the archive positioned at the start of the part, the SDK reads {@link #getPartSize} bytes of it.
+     */
+    static ResettableInputStream openPart(File localArchive, int partNumber) throws IOException {
+        ResettableInputStream part = new ResettableInputStream(localArchive);
+        try {
+            part.skip((partNumber - 1) * PART_SIZE);
+        } catch (IOException e) {
+            part.close();
+            throw e;
+        }
+        return part;
+    }
+
+    /**
+     * @return the state of an earlier upload of the same bundle, refreshed from S3, or null to start over.
+     */
+    private UploadState resumeUpload() throws IOException {
+        if (!stateFile.exists()) {
+            return null;
+        }
+        UploadState state;
+        try {
+            state = (UploadState) stateFile.read();
+        } catch (IOException e) {
+            AWSEBUtils.log(listener, "Unable to read the state of the previous upload, starting over: %s", e.getMessage());
+            stateFile.delete();
+            return null;
+        }
+
+        if (!fingerprint.equals(state.fingerprint) || state.isStale()) {
+            abort(state.uploadId);
+            stateFile.delete();
+            return null;
+        }
+
+        // S3 is the source of truth for the parts it has.
+        state.partETags.clear();
+        try {
+            ListPartsRequest request = new ListPartsRequest(bucketName, objectKey, state.uploadId);
+            PartListing listing;
+            do {
+                listing = s3.listParts(request);
+                for (PartSummary part : listing.getParts()) {
+                    state.partETags.put(part.getPartNumber(), part.getETag());
+                }
+                request.setPartNumberMarker(listing.getNextPartNumberMarker());
+            } while (listing.isTruncated());
+        } catch (AmazonS3Exception s3e) {
+            if (s3e.getStatusCode() == 404) {
+                // NoSuchUpload - it was completed or aborted since.
+                stateFile.delete();
+                return null;
+            }
+            throw s3e;
+        }
+
+        AWSEBUtils.log(listener, "Resuming upload of %s, %d parts already uploaded", localArchive.getName(), state.partETags.size());
+        save(state);
+        return state;
+    }
+
+    /**
+     * Aborts uploads of this key that were started too long ago to still be resumed, so orphaned parts don't pile up.
+     */
+    private void abortStaleUploads() {
+        Date staleBefore = new Date(System.currentTimeMillis() - STALE_UPLOAD_MILLISECONDS);
+        try {
+            MultipartUploadListing listing = s3.listMultipartUploads(new ListMultipartUploadsRequest(bucketName).withPrefix(objectKey));
+            for (MultipartUpload upload : listing.getMultipartUploads()) {
+                if (objectKey.equals(upload.getKey()) && upload.getInitiated().before(staleBefore)) {
+                    abort(upload.getUploadId());
+                }
+            }
+        } catch (AmazonS3Exception s3e) {
+            AWSEBUtils.log(listener, "Unable to list stale uploads of %s: %s", objectKey, s3e.getMessage());
+        }
+    }
+
+    private void abort(String uploadId) {
+        try {
+            s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, objectKey, uploadId));
+            AWSEBUtils.log(listener, "Aborted stale upload %s of %s", uploadId, objectKey);
+        } catch (AmazonS3Exception s3e) {
+            // 404: NoSuchUpload - already gone
+            if (s3e.getStatusCode() != 404) {
+                throw s3e;
+            }
+        }
+    }
+
+    private void save(UploadState state) throws IOException {
+        stateFile.getFile().getParentFile().mkdirs();
+        stateFile.write(state);
+    }
+
+    public static class UploadState {
+        private final String bucketName;
+        private final String objectKey;
+        private final String uploadId;
+        private final String fingerprint;
+        private final long started;
+        private final TreeMap<Integer, String> partETags = new TreeMap<Integer, String>();
+
+        public UploadState(String bucketName, String objectKey, String uploadId, String fingerprint) {
+            this.bucketName = bucketName;
+            this.objectKey = objectKey;
+            this.uploadId = uploadId;
+            this.fingerprint = fingerprint;
+            this.started = System.currentTimeMillis();
+        }
+
+        private boolean isStale() {
+            return System.currentTimeMillis() - started > STALE_UPLOAD_MILLISECONDS;
+        }
+    }
+}
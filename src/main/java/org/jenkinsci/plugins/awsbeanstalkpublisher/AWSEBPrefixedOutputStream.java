@@ -0,0 +1,43 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.BuildListener;
+import hudson.model.StreamBuildListener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Prefixes every line written to the build log, so setups running at the same time can be told apart.
+ * Whole lines are written at once, lines of different setups never get mixed up.
+ */
+public class AWSEBPrefixedOutputStream extends LineTransformationOutputStream {
+
+    private final OutputStream out;
+    private final byte[] prefix;
+
+    public AWSEBPrefixedOutputStream(OutputStream out, String prefix) {
+        this.out = out;
+        this.prefix = ("[" + prefix + "] ").getBytes(Charset.defaultCharset());
+    }
+
+    public static BuildListener getListener(BuildListener listener, String prefix) {
+        return new StreamBuildListener(new AWSEBPrefixedOutputStream(listener.getLogger(), prefix), Charset.defaultCharset());
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        synchronized (out) {
+            out.write(prefix);
+            out.write(b, 0, len);
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        out.flush();
+    }
+}
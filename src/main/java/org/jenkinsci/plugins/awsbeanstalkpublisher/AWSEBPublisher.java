@@ -1,6 +1,8 @@
 package org.jenkinsci.plugins.awsbeanstalkpublisher;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -13,6 +15,7 @@ import hudson.model.BuildListener;
 import hudson.model.Items;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.Action;
 import hudson.model.Result;
 import hudson.model.Saveable;
 import hudson.tasks.BuildStepDescriptor;
@@ -44,10 +47,21 @@ public class AWSEBPublisher extends AWSEBPublisherBackwardsCompatibility {
     
     @DataBoundConstructor
     public AWSEBPublisher(
-            List<AWSEBElasticBeanstalkSetup> extensions) {
+            List<AWSEBElasticBeanstalkSetup> extensions,
+            Integer maxParallelSetups) {
         super();
         this.extensions = new DescribableList<AWSEBSetup, AWSEBSetupDescriptor>(
                 Saveable.NOOP,Util.fixNull(extensions));
+        this.maxParallelSetups = maxParallelSetups;
+    }
+    
+    /**
+     * How many applications to deploy at the same time, 1 deploys them one after the other.
+     */
+    private Integer maxParallelSetups;
+    
+    public int getMaxParallelSetups() {
+        return maxParallelSetups == null ? 1 : maxParallelSetups;
     }
     
     private DescribableList<AWSEBSetup, AWSEBSetupDescriptor> extensions;
@@ -66,17 +80,22 @@ public class AWSEBPublisher extends AWSEBPublisherBackwardsCompatibility {
     }
 
     @Override
-    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException {
         if (build.getResult().isWorseThan(Result.SUCCESS)) {
             return false;
         }
-        return AWSEBSetup.perform(build, launcher, listener, getExtensions());
+        return AWSEBSetup.perform(build, launcher, listener, getExtensions(), getMaxParallelSetups());
     }
 
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.NONE;
     }
 
+    @Override
+    public Collection<? extends Action> getProjectActions(AbstractProject<?, ?> project) {
+        return Arrays.asList(new AWSEBDeploymentProjectAction(project), new AWSEBTrendsProjectAction(project));
+    }
+
     // Overridden for better type safety.
     // If your plugin doesn't really define any property on Descriptor,
     // you don't have to do this.
@@ -97,6 +116,10 @@ public class AWSEBPublisher extends AWSEBPublisherBackwardsCompatibility {
 
         private Set<AWSEBCredentials> credentials;
 
+        private Integer uploadLimitKBps;
+
+        private Integer maxConcurrentUpdates;
+
         @SuppressWarnings("rawtypes")
         public boolean isApplicable(Class<? extends AbstractProject> aClass) {
             // Indicates that this builder can be used with all kinds of project types
@@ -124,6 +147,8 @@ public class AWSEBPublisher extends AWSEBPublisherBackwardsCompatibility {
             } else if (AWSEBCredentials.getCredentials() != null) {
                 credentials = AWSEBCredentials.getCredentials();
             }
+            AWSEBUploadThrottle.setGlobalLimit(getUploadLimitKBps());
+            AWSEBDeploymentLimiter.setLimit(getMaxConcurrentUpdates());
         }
 
         @Override
@@ -131,6 +156,10 @@ public class AWSEBPublisher extends AWSEBPublisherBackwardsCompatibility {
             
             AWSEBCredentials.configureCredentials(req.bindJSONToList(AWSEBCredentials.class, json.get("credentials")));
             credentials = AWSEBCredentials.getCredentials();
+            uploadLimitKBps = json.optInt("uploadLimitKBps", 0);
+            AWSEBUploadThrottle.setGlobalLimit(getUploadLimitKBps());
+            maxConcurrentUpdates = json.optInt("maxConcurrentUpdates", 0);
+            AWSEBDeploymentLimiter.setLimit(getMaxConcurrentUpdates());
             save();
             return super.configure(req, json);
         }
@@ -138,6 +167,35 @@ public class AWSEBPublisher extends AWSEBPublisherBackwardsCompatibility {
         public Set<AWSEBCredentials> getCredentials() {
             return credentials;
         }
+
+        /**
+         * Bandwidth shared by all bundle uploads, 0 for no limit.
+         */
+        public int getUploadLimitKBps() {
+            return uploadLimitKBps == null ? 0 : uploadLimitKBps;
+        }
+
+        public FormValidation doCheckUploadLimitKBps(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        /**
+         * Environment updates running at once per account and region, over all jobs, 0 for no limit.
+         */
+        public int getMaxConcurrentUpdates() {
+            return maxConcurrentUpdates == null ? 0 : maxConcurrentUpdates;
+        }
+
+        public FormValidation doCheckMaxConcurrentUpdates(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckMaxParallelSetups(@QueryParameter String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FormValidation.ok();
+            }
+            return FormValidation.validatePositiveInteger(value);
+        }
         
     }
 
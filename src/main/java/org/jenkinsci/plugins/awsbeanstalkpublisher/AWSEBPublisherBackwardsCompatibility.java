@@ -28,7 +28,7 @@ public abstract class AWSEBPublisherBackwardsCompatibility  extends Recorder {
                 List<AWSEBSetup> s3Setup = new ArrayList<AWSEBSetup>(2);
                 if (isNotBlank(bucketName) || isNotBlank(keyPrefix)) {
                     s3Setup.add(new AWSEBS3Setup(bucketName, keyPrefix, 
-                            rootObject, includes, excludes, overwriteExistingFile));
+                            rootObject, includes, excludes, overwriteExistingFile, null, null, null, null));
                     bucketName = null;
                     keyPrefix = null;
                     rootObject = null;
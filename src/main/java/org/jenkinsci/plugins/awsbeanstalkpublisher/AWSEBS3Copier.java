@@ -0,0 +1,118 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.BuildListener;
+import hudson.util.DaemonThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+
+/**
+ * Copies an existing bundle inside S3, so promoting it doesn't send any bytes through Jenkins.
+ */
+public class AWSEBS3Copier {
+
+    // CopyObject is limited to 5 GB, bigger objects have to be copied in parts.
+    private static final long MAX_SINGLE_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+    private static final long COPY_PART_SIZE = 512L * 1024 * 1024;
+    private static final int MAX_COPY_THREADS = 8;
+
+    private final AmazonS3 s3;
+    private final AmazonS3 sourceS3;
+    private final BuildListener listener;
+    private final String sourceBucket;
+    private final String sourceKey;
+
+    /**
+     * @param s3 client for the destination bucket's region, which the copy requests go to.
+     * @param sourceS3 client for the source bucket's region.
+     */
+    public AWSEBS3Copier(AmazonS3 s3, AmazonS3 sourceS3, BuildListener listener, String sourceBucket, String sourceKey) {
+        this.s3 = s3;
+        this.sourceS3 = sourceS3;
+        this.listener = listener;
+        this.sourceBucket = sourceBucket;
+        this.sourceKey = sourceKey;
+    }
+
+    public ObjectMetadata getSourceMetadata() {
+        return sourceS3.getObjectMetadata(sourceBucket, sourceKey);
+    }
+
+    /**
+     * @return the number of bytes copied.
+     */
+    public long copyTo(String bucketName, String objectKey) throws InterruptedException {
+        ObjectMetadata source = getSourceMetadata();
+        AWSEBUtils.log(listener, "Copying s3://%s/%s (%d bytes) to s3://%s/%s", sourceBucket, sourceKey, source.getContentLength(), bucketName, objectKey);
+        if (source.getContentLength() <= MAX_SINGLE_COPY_SIZE) {
+            s3.copyObject(new CopyObjectRequest(sourceBucket, sourceKey, bucketName, objectKey));
+        } else {
+            copyInParts(source, bucketName, objectKey);
+        }
+        return source.getContentLength();
+    }
+
+    private void copyInParts(ObjectMetadata source, final String bucketName, final String objectKey) throws InterruptedException {
+        ObjectMetadata meta = new ObjectMetadata();
+        meta.setUserMetadata(source.getUserMetadata());
+        meta.setContentType(source.getContentType());
+        final String uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, objectKey, meta)).getUploadId();
+        long length = source.getContentLength();
+
+        List<Callable<PartETag>> parts = new ArrayList<Callable<PartETag>>();
+        int partNumber = 1;
+        for (long offset = 0; offset < length; offset += COPY_PART_SIZE) {
+            final CopyPartRequest request = new CopyPartRequest()
+                    .withSourceBucketName(sourceBucket).withSourceKey(sourceKey)
+                    .withDestinationBucketName(bucketName).withDestinationKey(objectKey)
+                    .withUploadId(uploadId).withPartNumber(partNumber++)
+                    .withFirstByte(offset).withLastByte(Math.min(offset + COPY_PART_SIZE, length) - 1);
+            parts.add(new Callable<PartETag>() {
+                @Override
+                public PartETag call() throws Exception {
+                    return s3.copyPart(request).getPartETag();
+                }
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(MAX_COPY_THREADS, new DaemonThreadFactory());
+        boolean completed = false;
+        try {
+            List<PartETag> partETags = new ArrayList<PartETag>(parts.size());
+            for (Future<PartETag> future : pool.invokeAll(parts)) {
+                partETags.add(future.get());
+            }
+            Collections.sort(partETags, new Comparator<PartETag>() {
+                @Override
+                public int compare(PartETag first, PartETag second) {
+                    return first.getPartNumber() - second.getPartNumber();
+                }
+            });
+            s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, objectKey, uploadId, partETags));
+            completed = true;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(String.format("Unable to copy s3://%s/%s", sourceBucket, sourceKey), e.getCause());
+        } finally {
+            pool.shutdownNow();
+            if (!completed) {
+                s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, objectKey, uploadId));
+            }
+        }
+    }
+}
@@ -6,33 +6,45 @@ import hudson.model.AbstractBuild;
 import hudson.util.DirScanner;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
-import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBElasticBeanstalkSetup;
 import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBS3Setup;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.internal.ResettableInputStream;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.ApplicationVersionDescription;
 import com.amazonaws.services.elasticbeanstalk.model.CreateApplicationVersionRequest;
+import com.amazonaws.services.elasticbeanstalk.model.CreateApplicationVersionResult;
 import com.amazonaws.services.elasticbeanstalk.model.S3Location;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.google.common.annotations.VisibleForTesting;
 
 public class AWSEBS3Uploader {
 
+    private static final String MD5_METADATA = "awseb-md5";
+    private static final String UPLOAD_STATE_DIR = "awseb-uploads";
     
     private final String keyPrefix;
     private final String bucketName;
     private final String includes;
     private final String excludes;
     private final String rootObject;
+    private final String copySource;
     private final boolean isOverwriteExistingFile;
+    private final int uploadLimitKBps;
+    private final AWSEBS3Setup s3Setup;
+    private final boolean useAccelerateEndpoint;
+    private final boolean useDualstackEndpoint;
     
     private final String applicationName;
     private final String versionLabel;
@@ -40,11 +52,13 @@ public class AWSEBS3Uploader {
     private final AbstractBuild<?, ?> build;
     private final BuildListener listener;
     private final AWSEBCredentials credentials;
+    private final AWSEBBuildMetrics metrics;
     
 
     private String objectKey;
     private String s3ObjectPath;
     private AmazonS3 s3;
+    private boolean isTemporaryArchive;
     
     public AWSEBS3Uploader(AbstractBuild<?, ?> build, BuildListener listener, Regions awsRegion, 
             AWSEBCredentials credentials, AWSEBS3Setup s3Setup,
@@ -60,7 +74,13 @@ public class AWSEBS3Uploader {
         this.includes = AWSEBUtils.getValue(build, listener, s3Setup.getIncludes());
         this.excludes = AWSEBUtils.getValue(build, listener, s3Setup.getExcludes());
         this.rootObject = AWSEBUtils.getValue(build, listener, s3Setup.getRootObject());
+        this.copySource = AWSEBUtils.getValue(build, listener, s3Setup.getCopySource());
         this.isOverwriteExistingFile = s3Setup.isOverwriteExistingFile();
+        this.uploadLimitKBps = s3Setup.getUploadLimitKBps();
+        this.s3Setup = s3Setup;
+        this.useAccelerateEndpoint = s3Setup.isUseAccelerateEndpoint();
+        this.useDualstackEndpoint = s3Setup.isUseDualstackEndpoint();
+        this.metrics = AWSEBBuildMetrics.forBuild(build);
     }
     
 
@@ -71,47 +91,236 @@ public class AWSEBS3Uploader {
 
     public void uploadArchive(AWSElasticBeanstalk awseb) throws Exception {
         if (s3 == null) {
-            s3 = AWSEBUtils.getS3(credentials, awsRegion);
+            s3 = AWSEBUtils.getS3(credentials, awsRegion, bucketName, useAccelerateEndpoint, useDualstackEndpoint, metrics.getCollector());
+            if (useAccelerateEndpoint) {
+                AWSEBUtils.log(listener, "Using the accelerated%s S3 endpoint for bucket %s", useDualstackEndpoint ? " dual-stack" : "", bucketName);
+            } else if (useDualstackEndpoint) {
+                AWSEBUtils.log(listener, "Using the dual-stack S3 endpoint for bucket %s", bucketName);
+            }
         }
 
         objectKey = AWSEBUtils.formatPath("%s/%s-%s.zip", keyPrefix, applicationName, versionLabel);
 
         s3ObjectPath = "s3://" + AWSEBUtils.formatPath("%s/%s", bucketName, objectKey);
+
+        AWSEBSharedBundles.Bundle shared = null;
+        if (StringUtils.isEmpty(copySource)) {
+            shared = AWSEBSharedBundles.forBuild(build).get(getBundleDefinition());
+            if (!shared.claim()) {
+                S3Location location = shared.await();
+                if (location != null) {
+                    useSharedArchive(awseb, location);
+                    return;
+                }
+                AWSEBUtils.log(listener, "Another application setup failed to upload the same bundle, uploading it again");
+                shared = null;
+            }
+        }
+
+        try {
+            uploadOwnArchive(awseb);
+            if (shared != null) {
+                shared.uploaded(new S3Location(bucketName, objectKey));
+            }
+        } finally {
+            if (shared != null) {
+                shared.finished();
+            }
+        }
+    }
+
+    private void uploadOwnArchive(AWSElasticBeanstalk awseb) throws Exception {
+        if (isExistingVersion(awseb)) {
+            AWSEBUtils.log(listener, "Application version %s for application %s already exists for path %s, skipping upload", versionLabel, applicationName, s3ObjectPath);
+            return;
+        }
+
+        if (!StringUtils.isEmpty(copySource)) {
+            copyArchive(getCopySourceLocation(awseb));
+            createApplicationVersion(awseb);
+            return;
+        }
+
         FilePath rootFileObject = new FilePath(build.getWorkspace(), AWSEBUtils.getValue(build, listener, rootObject));
         File localArchive = getLocalFileObject(rootFileObject);
 
-        AWSEBUtils.log(listener, "Uploading file %s as %s", localArchive.getName(), s3ObjectPath);
+        try {
+            AWSEBUtils.log(listener, "Uploading file %s as %s", localArchive.getName(), s3ObjectPath);
+
+            AWSEBBuildMetrics.Timing hash = metrics.start("hash");
+            String ourMd5 = AWSEBUtils.md5Hex(localArchive);
+            hash.stop(localArchive.length());
+            boolean uploadFile = true;
+
+            AWSEBBuildMetrics.Timing head = metrics.start("head");
+            try {
+                ObjectMetadata meta = s3.getObjectMetadata(bucketName, objectKey);
+                uploadFile = isUploadNeeded(ourMd5, meta, isOverwriteExistingFile);
+            } catch (AmazonS3Exception s3e) {
+                if (s3e.getStatusCode() == 403 || s3e.getStatusCode() == 404) {
+                    // i.e. 404: NoSuchKey - The specified key does not exist
+                    // 403: PermissionDenied is a sneaky way to hide that the file doesn't exist
+                    uploadFile = true;
+                } else {
+                    throw s3e;
+                }
+            } finally {
+                head.stop();
+            }
+
+            if (uploadFile) {
+                AWSEBBuildMetrics.Timing upload = metrics.start("upload");
+                ObjectMetadata meta = new ObjectMetadata();
+                meta.addUserMetadata(MD5_METADATA, ourMd5);
+                AWSEBUploadThrottle throttle = new AWSEBUploadThrottle(listener, localArchive.getName(), localArchive.length(), s3Setup, uploadLimitKBps);
+                if (AWSEBMultipartUploader.isMultipart(localArchive)) {
+                    File stateDir = new File(build.getParent().getRootDir(), UPLOAD_STATE_DIR);
+                    new AWSEBMultipartUploader(s3, listener, stateDir, bucketName, objectKey, localArchive, ourMd5, throttle).upload(meta);
+                } else {
+                    meta.setContentLength(localArchive.length());
+                    ResettableInputStream in = new ResettableInputStream(localArchive);
+                    try {
+                        s3.putObject(new PutObjectRequest(bucketName, objectKey, throttle.wrap(in), meta));
+                    } finally {
+                        in.close();
+                    }
+                }
+                throttle.finished();
+                upload.stop(localArchive.length());
+            }
+        } finally {
+            if (isTemporaryArchive) {
+                localArchive.delete();
+            }
+        }
+        createApplicationVersion(awseb);
+    }
+
+    /**
+     * Promotes an existing bundle with a server side copy, no bytes go through Jenkins.
+     */
+    private void copyArchive(S3Location source) throws InterruptedException {
+        if (bucketName.equals(source.getS3Bucket()) && objectKey.equals(source.getS3Key())) {
+            AWSEBUtils.log(listener, "Bundle is already at %s, nothing to copy", s3ObjectPath);
+            return;
+        }
+
+        AmazonS3 sourceS3 = AWSEBUtils.getS3(credentials, awsRegion, source.getS3Bucket(), false, false, metrics.getCollector());
+        AWSEBS3Copier copier = new AWSEBS3Copier(s3, sourceS3, listener, source.getS3Bucket(), source.getS3Key());
+        if (!isOverwriteExistingFile && isSameObject(copier.getSourceMetadata())) {
+            AWSEBUtils.log(listener, "%s already matches s3://%s/%s, skipping copy", s3ObjectPath, source.getS3Bucket(), source.getS3Key());
+            return;
+        }
+        AWSEBBuildMetrics.Timing copy = metrics.start("copy");
+        copy.stop(copier.copyTo(bucketName, objectKey));
+    }
 
-        boolean uploadFile = true;
+    /**
+     * Points our application version at a bundle another application setup of this step already uploaded,
+     * copying it over when we use another bucket. {@link AWSEBVersionPruner} keeps bundles other applications use.
+     */
+    private void useSharedArchive(AWSElasticBeanstalk awseb, S3Location location) throws InterruptedException {
+        if (bucketName.equals(location.getS3Bucket())) {
+            objectKey = location.getS3Key();
+            s3ObjectPath = "s3://" + AWSEBUtils.formatPath("%s/%s", bucketName, objectKey);
+            AWSEBUtils.log(listener, "Bundle was already uploaded by another application setup, using %s", s3ObjectPath);
+        } else {
+            AWSEBUtils.log(listener, "Bundle was already uploaded by another application setup to s3://%s/%s, copying it", location.getS3Bucket(), location.getS3Key());
+        }
+
+        if (isExistingVersion(awseb)) {
+            AWSEBUtils.log(listener, "Application version %s for application %s already exists for path %s", versionLabel, applicationName, s3ObjectPath);
+            return;
+        }
+        if (!bucketName.equals(location.getS3Bucket())) {
+            copyArchive(location);
+        }
+        createApplicationVersion(awseb);
+    }
+
+    /**
+     * @return what the bundle is built from, setups of a step with the same definition share one upload.
+     *         Bundles aren't shared between steps, an earlier one may have left another workspace.
+     */
+    private String getBundleDefinition() throws IOException, InterruptedException {
+        FilePath rootFileObject = new FilePath(build.getWorkspace(), rootObject);
+        if (rootFileObject.isDirectory()) {
+            return String.format("%s|%s|%s", rootFileObject.getRemote(), StringUtils.defaultString(includes), StringUtils.defaultString(excludes));
+        }
+        return String.format("%s|%d|%d", rootFileObject.getRemote(), rootFileObject.length(), rootFileObject.lastModified());
+    }
 
+    private S3Location getCopySourceLocation(AWSElasticBeanstalk awseb) {
+        if (copySource.startsWith("s3://")) {
+            String path = copySource.substring("s3://".length());
+            int slash = path.indexOf('/');
+            if (slash <= 0 || slash == path.length() - 1) {
+                throw new IllegalArgumentException(String.format("Copy source %s should look like s3://bucket/key", copySource));
+            }
+            return new S3Location(path.substring(0, slash), path.substring(slash + 1));
+        }
+
+        // [applicationName/]versionLabel, labels can have slashes too: without such a version of such an
+        // application, the whole of it is a label of this one.
+        ApplicationVersionDescription version = null;
+        int slash = copySource.indexOf('/');
+        if (slash > 0) {
+            version = getVersion(awseb, copySource.substring(0, slash), copySource.substring(slash + 1));
+        }
+        if (version == null) {
+            version = getVersion(awseb, applicationName, copySource);
+        }
+        if (version == null || version.getSourceBundle() == null) {
+            throw new IllegalStateException(String.format("Application version %s doesn't exist, unable to copy it", copySource));
+        }
+        return version.getSourceBundle();
+    }
+
+    private ApplicationVersionDescription getVersion(AWSElasticBeanstalk awseb, String sourceApplication, String sourceLabel) {
+        return AWSEBApplicationVersionCache.forApplication(credentials, awsRegion, sourceApplication).get(awseb, sourceLabel);
+    }
+
+    private boolean isSameObject(ObjectMetadata source) {
         try {
             ObjectMetadata meta = s3.getObjectMetadata(bucketName, objectKey);
-            String awsMd5 = meta.getContentMD5();
-            FileInputStream fis = new FileInputStream(localArchive);
-            String ourMd5 = DigestUtils.md5Hex(fis);
-            fis.close();
-            if (ourMd5.equals(awsMd5)) {
-                uploadFile = false || isOverwriteExistingFile;
-            }
+            String md5 = getMd5(meta);
+            return md5 != null && md5.equals(getMd5(source));
         } catch (AmazonS3Exception s3e) {
             if (s3e.getStatusCode() == 403 || s3e.getStatusCode() == 404) {
-                // i.e. 404: NoSuchKey - The specified key does not exist
-                // 403: PermissionDenied is a sneaky way to hide that the file doesn't exist
-                uploadFile = true;
-            } else {
-                throw s3e;
+                return false;
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace(listener.getLogger());
-        } catch (IOException e) {
-            e.printStackTrace(listener.getLogger());
+            throw s3e;
         }
+    }
+
+    /**
+     * @param existing the metadata of the bundle already at the key.
+     * @return false if the bundle there is ours and isn't to be overwritten.
+     */
+    static boolean isUploadNeeded(String ourMd5, ObjectMetadata existing, boolean overwrite) {
+        return overwrite || !ourMd5.equals(getMd5(existing));
+    }
 
-        if (uploadFile) {
-            s3.putObject(bucketName, objectKey, localArchive);
+    /**
+     * Multipart uploads don't have an MD5 as their ETag, so we store our own along with the bundle.
+     */
+    private static String getMd5(ObjectMetadata meta) {
+        String md5 = meta.getUserMetaDataOf(MD5_METADATA);
+        if (md5 == null) {
+            md5 = meta.getETag();
         }
-        localArchive.delete();
-        createApplicationVersion(awseb);
+        return md5;
+    }
+
+    /**
+     * @return s3://bucket/key of the bundle, once it has been uploaded.
+     */
+    public String getS3ObjectPath() {
+        return s3ObjectPath;
+    }
+
+    public AWSEBS3Setup getS3Setup() {
+        return s3Setup;
     }
 
     @VisibleForTesting
@@ -119,21 +328,74 @@ public class AWSEBS3Uploader {
         this.s3 = s3;
     }
 
+    /**
+     * @return the archive to upload. A local zip is used straight from the workspace, anything else
+     *         ends up in a temporary file that {@link #isTemporaryArchive} says to delete afterwards.
+     */
     private File getLocalFileObject(FilePath rootFileObject) throws Exception {
-        File resultFile = File.createTempFile("awseb-", ".zip");
+        if (!rootFileObject.isDirectory() && !rootFileObject.isRemote()) {
+            File archive = new File(rootFileObject.getRemote());
+            AWSEBUtils.log(listener, "Root File Object is a local file, uploading %s without copying it", archive.getName());
+            checkZipFile(archive);
+            isTemporaryArchive = false;
+            return archive;
+        }
 
-        if (!rootFileObject.isDirectory()) {
-            AWSEBUtils.log(listener, "Root File Object is a file. We assume its a zip file, which is okay.");
+        AWSEBBuildMetrics.Timing zip = metrics.start("zip");
+        File resultFile = File.createTempFile("awseb-", ".zip");
+        isTemporaryArchive = true;
+        OutputStream out = new FileOutputStream(resultFile);
+        try {
+            if (!rootFileObject.isDirectory()) {
+                AWSEBUtils.log(listener, "Root File Object (%s) is on another node, copying it into tmp file %s", rootFileObject.getName(), resultFile.getName());
 
-            rootFileObject.copyTo(new FileOutputStream(resultFile));
-        } else {
-            AWSEBUtils.log(listener, "Zipping contents of Root File Object (%s) into tmp file %s (includes=%s, excludes=%s)", rootFileObject.getName(), resultFile.getName(), includes, excludes);
+                rootFileObject.copyTo(out);
+            } else {
+                AWSEBUtils.log(listener, "Zipping contents of Root File Object (%s) into tmp file %s (includes=%s, excludes=%s)", rootFileObject.getName(), resultFile.getName(), includes, excludes);
 
-            rootFileObject.zip(new FileOutputStream(resultFile), new DirScanner.Glob(includes, excludes));
+                rootFileObject.zip(out, new DirScanner.Glob(includes, excludes));
+            }
+            out.close();
+            checkZipFile(resultFile);
+        } catch (Exception e) {
+            IOUtils.closeQuietly(out);
+            resultFile.delete();
+            throw e;
+        } finally {
+            zip.stop(resultFile.length());
         }
 
         return resultFile;
     }
+
+    private void checkZipFile(File archive) throws IOException {
+        if (!AWSEBUtils.isZipFile(archive)) {
+            throw new IllegalArgumentException(String.format("Root File Object %s is not a zip archive (zip, war or jar)", archive.getName()));
+        }
+    }
+    
+    /**
+     * Checks whether the application version was already created, eg. by a previous run of this build.
+     * 
+     * @return true if the version exists and points at our bundle.
+     * @throws IllegalStateException if the version exists, but points to a different bundle.
+     */
+    private boolean isExistingVersion(AWSElasticBeanstalk awseb) {
+        ApplicationVersionDescription existing = getVersionCache().get(awseb, versionLabel);
+        if (existing == null) {
+            return false;
+        }
+        if (AWSEBApplicationVersionCache.isSameBundle(existing, bucketName, objectKey)) {
+            return true;
+        }
+        S3Location bundle = existing.getSourceBundle();
+        throw new IllegalStateException(String.format("Application version %s for application %s already exists with a different source bundle (s3://%s/%s instead of %s)", 
+                versionLabel, applicationName, bundle == null ? "" : bundle.getS3Bucket(), bundle == null ? "" : bundle.getS3Key(), s3ObjectPath));
+    }
+
+    private AWSEBApplicationVersionCache getVersionCache() {
+        return AWSEBApplicationVersionCache.forApplication(credentials, awsRegion, applicationName);
+    }
     
     public void createApplicationVersion(AWSElasticBeanstalk awseb) {
         AWSEBUtils.log(listener, "Creating application version %s for application %s for path %s", versionLabel, applicationName, s3ObjectPath);
@@ -141,7 +403,20 @@ public class AWSEBS3Uploader {
         CreateApplicationVersionRequest cavRequest = new CreateApplicationVersionRequest().withApplicationName(applicationName).withAutoCreateApplication(true)
                 .withSourceBundle(new S3Location(bucketName, objectKey)).withVersionLabel(versionLabel);
 
-        awseb.createApplicationVersion(cavRequest);
+        AWSEBBuildMetrics.Timing timing = metrics.start("createApplicationVersion");
+        try {
+            CreateApplicationVersionResult result = awseb.createApplicationVersion(cavRequest);
+            getVersionCache().put(result.getApplicationVersion());
+        } catch (AmazonServiceException ase) {
+            // Another build may have created the same version since we last looked.
+            getVersionCache().remove(versionLabel);
+            if (!isExistingVersion(awseb)) {
+                throw ase;
+            }
+            AWSEBUtils.log(listener, "Application version %s was created concurrently for path %s", versionLabel, s3ObjectPath);
+        } finally {
+            timing.stop();
+        }
     }
 
 
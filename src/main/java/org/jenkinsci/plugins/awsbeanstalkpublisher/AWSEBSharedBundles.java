@@ -0,0 +1,99 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.AbstractBuild;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import com.amazonaws.services.elasticbeanstalk.model.S3Location;
+
+/**
+ * The bundles uploaded by one build step, by what they were built from.
+ *
+ * When several application setups of a step zip the same root object, the first one builds and uploads it,
+ * the others wait for it and use the same S3 object, or copy it server side when they use another bucket. The step {@link #forget}s them when it's done,
+ * a later step of the build may have changed the workspace. Builds are weakly referenced, so nothing leaks when one goes away mid step.
+ */
+public class AWSEBSharedBundles {
+
+    private final static Map<AbstractBuild<?, ?>, AWSEBSharedBundles> builds = new WeakHashMap<AbstractBuild<?, ?>, AWSEBSharedBundles>();
+
+    private final Map<String, Bundle> bundles = new HashMap<String, Bundle>();
+
+    public static AWSEBSharedBundles forBuild(AbstractBuild<?, ?> build) {
+        synchronized (builds) {
+            AWSEBSharedBundles shared = builds.get(build);
+            if (shared == null) {
+                shared = new AWSEBSharedBundles();
+                builds.put(build, shared);
+            }
+            return shared;
+        }
+    }
+
+    /**
+     * Lets the next step of the build upload its own bundles.
+     */
+    public static void forget(AbstractBuild<?, ?> build) {
+        synchronized (builds) {
+            builds.remove(build);
+        }
+    }
+
+    /**
+     * @param definition what the bundle is built from, eg. the root object with its includes and excludes.
+     */
+    public Bundle get(String definition) {
+        synchronized (bundles) {
+            Bundle bundle = bundles.get(definition);
+            if (bundle == null) {
+                bundle = new Bundle();
+                bundles.put(definition, bundle);
+            }
+            return bundle;
+        }
+    }
+
+    public static class Bundle {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private boolean claimed;
+        private S3Location location;
+
+        /**
+         * @return true for the first caller, who has to build the bundle, call {@link #uploaded} when it worked and {@link #finished} in any case.
+         */
+        public synchronized boolean claim() {
+            if (claimed) {
+                return false;
+            }
+            claimed = true;
+            return true;
+        }
+
+        public synchronized void uploaded(S3Location location) {
+            this.location = location;
+            done.countDown();
+        }
+
+        /**
+         * Lets the others go on. When nothing was uploaded they build their own bundle.
+         */
+        public void finished() {
+            done.countDown();
+        }
+
+        /**
+         * Waits for whoever claimed the bundle.
+         *
+         * @return where the bundle was uploaded, or null if that failed and the caller should build its own.
+         */
+        public S3Location await() throws InterruptedException {
+            done.await();
+            synchronized (this) {
+                return location;
+            }
+        }
+    }
+}
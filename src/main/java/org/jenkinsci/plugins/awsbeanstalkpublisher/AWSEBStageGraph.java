@@ -0,0 +1,228 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.BuildListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the stages of a deployment as soon as the stages they depend on are done, so stages that don't
+ * depend on each other, eg. the upload and the environment lookup, overlap.
+ *
+ * When a stage fails the stages still running are interrupted and the ones not started yet are skipped.
+ * Every stage is timed, and {@link #printTimings} shows which chain of stages the deployment waited on.
+ */
+public class AWSEBStageGraph {
+
+    private final BuildListener listener;
+    private final AWSEBTrace trace;
+    private final Map<String, Stage<?>> stages = new LinkedHashMap<String, Stage<?>>();
+    private long started;
+
+    public AWSEBStageGraph(BuildListener listener) {
+        this(listener, null);
+    }
+
+    /**
+     * @param trace where to add a span for each stage, null for none.
+     */
+    public AWSEBStageGraph(BuildListener listener, AWSEBTrace trace) {
+        this.listener = listener;
+        this.trace = trace;
+    }
+
+    /**
+     * @param dependsOn stages that have to be done before this one starts, they have to be added first.
+     */
+    public <T> void add(String name, Callable<T> work, String... dependsOn) {
+        for (String dependency : dependsOn) {
+            if (!stages.containsKey(dependency)) {
+                throw new IllegalArgumentException(String.format("Stage %s depends on unknown stage %s", name, dependency));
+            }
+        }
+        stages.put(name, new Stage<T>(name, work, Arrays.asList(dependsOn), trace));
+    }
+
+    /**
+     * @return the result of a stage that is done.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name) {
+        return (T) stages.get(name).result;
+    }
+
+    /**
+     * Runs all the stages.
+     *
+     * @return false when a stage halted the deployment with {@link Halt}.
+     * @throws Exception the first failure of a stage.
+     */
+    public boolean run() throws Exception {
+        started = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(stages.size());
+        CompletionService<Stage<?>> completion = new ExecutorCompletionService<Stage<?>>(pool);
+        List<Future<Stage<?>>> running = new ArrayList<Future<Stage<?>>>();
+        try {
+            int done = 0;
+            while (done < stages.size()) {
+                for (Stage<?> stage : stages.values()) {
+                    if (!stage.submitted && isReady(stage)) {
+                        stage.submitted = true;
+                        running.add(completion.submit(stage));
+                    }
+                }
+
+                Future<Stage<?>> next = completion.take();
+                running.remove(next);
+                try {
+                    next.get();
+                    done++;
+                } catch (ExecutionException e) {
+                    for (Future<Stage<?>> other : running) {
+                        other.cancel(true);
+                    }
+                    if (e.getCause() instanceof Halt) {
+                        AWSEBUtils.log(listener, "%s", e.getCause().getMessage());
+                        return false;
+                    }
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+            return true;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private boolean isReady(Stage<?> stage) {
+        for (String dependency : stage.dependsOn) {
+            Stage<?> done = stages.get(dependency);
+            if (done.finished == 0 || done.failed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Logs when every stage ran, relative to the start, and the critical path: the last stage to finish,
+     * the dependency it waited for longest, and so on back to the start.
+     */
+    public void printTimings() {
+        Stage<?> last = null;
+        for (Stage<?> stage : stages.values()) {
+            if (stage.started == 0) {
+                AWSEBUtils.log(listener, "Stage %s: skipped", stage.name);
+                continue;
+            }
+            if (stage.finished == 0) {
+                AWSEBUtils.log(listener, "Stage %s: started at %s, did not finish", stage.name, seconds(stage.started - started));
+                continue;
+            }
+            AWSEBUtils.log(listener, "Stage %s: %s to %s (%s)%s", stage.name, seconds(stage.started - started),
+                    seconds(stage.finished - started), seconds(stage.getDuration()), stage.failed ? ", failed" : "");
+            // Stages come after those they depend on, so on a tie the later one is the one that waited.
+            if (last == null || stage.finished >= last.finished) {
+                last = stage;
+            }
+        }
+        if (last == null) {
+            return;
+        }
+
+        List<String> path = new ArrayList<String>();
+        for (Stage<?> stage = last; stage != null; stage = getLongestDependency(stage)) {
+            path.add(String.format("%s (%s)", stage.name, seconds(stage.getDuration())));
+        }
+        Collections.reverse(path);
+        StringBuilder critical = new StringBuilder();
+        for (String step : path) {
+            if (critical.length() > 0) {
+                critical.append(" -> ");
+            }
+            critical.append(step);
+        }
+        AWSEBUtils.log(listener, "Critical path: %s", critical);
+    }
+
+    private Stage<?> getLongestDependency(Stage<?> stage) {
+        Stage<?> longest = null;
+        for (String name : stage.dependsOn) {
+            Stage<?> dependency = stages.get(name);
+            if (dependency.finished != 0 && (longest == null || dependency.finished > longest.finished)) {
+                longest = dependency;
+            }
+        }
+        return longest;
+    }
+
+    private static String seconds(long milliseconds) {
+        return String.format("%.1fs", milliseconds / 1000.0);
+    }
+
+    /**
+     * Thrown by a stage to stop the deployment without an error, only its message is logged.
+     */
+    public static class Halt extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public Halt(String message) {
+            super(message);
+        }
+    }
+
+    private static class Stage<T> implements Callable<Stage<?>> {
+        private final String name;
+        private final Callable<T> work;
+        private final List<String> dependsOn;
+        private final AWSEBTrace trace;
+
+        private boolean submitted;
+        private volatile long started;
+        private volatile long finished;
+        private volatile boolean failed;
+        private volatile T result;
+
+        Stage(String name, Callable<T> work, List<String> dependsOn, AWSEBTrace trace) {
+            this.name = name;
+            this.work = work;
+            this.dependsOn = dependsOn;
+            this.trace = trace;
+        }
+
+        @Override
+        public Stage<?> call() throws Exception {
+            started = System.currentTimeMillis();
+            try {
+                result = work.call();
+                return this;
+            } catch (Exception e) {
+                failed = true;
+                throw e;
+            } finally {
+                finished = System.currentTimeMillis();
+                if (trace != null) {
+                    trace.add(name, "stage", started, finished, Collections.<String, Object>singletonMap("failed", failed));
+                }
+            }
+        }
+
+        long getDuration() {
+            return finished - started;
+        }
+    }
+}
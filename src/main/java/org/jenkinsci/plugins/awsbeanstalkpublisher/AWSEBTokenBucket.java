@@ -0,0 +1,71 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simple token bucket shared between threads.
+ *
+ * Callers take their permits straight away and then sleep off any debt, so requests larger than
+ * the bucket are allowed and the long term rate stays at permitsPerSecond no matter how many
+ * threads are drawing from it.
+ */
+public class AWSEBTokenBucket {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private long permitsPerSecond;
+    private double available;
+    private long lastRefill;
+
+    public AWSEBTokenBucket(long permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.available = permitsPerSecond;
+        this.lastRefill = nanoTime();
+    }
+
+    public synchronized long getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public synchronized void setPermitsPerSecond(long permitsPerSecond) {
+        refill();
+        this.permitsPerSecond = permitsPerSecond;
+        available = Math.min(available, permitsPerSecond);
+    }
+
+    /**
+     * Takes the permits, blocking for as long as it takes the bucket to pay them back.
+     * A bucket with no rate (0 or less) never blocks.
+     */
+    public void acquire(long permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (permitsPerSecond <= 0) {
+                return;
+            }
+            refill();
+            available -= permits;
+            waitNanos = available >= 0 ? 0 : (long) (-available * NANOS_PER_SECOND / permitsPerSecond);
+        }
+        if (waitNanos > 0) {
+            sleep(waitNanos);
+        }
+    }
+
+    // Overridden by tests to run in made up time.
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    void sleep(long nanos) throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+
+    private void refill() {
+        long now = nanoTime();
+        if (permitsPerSecond > 0) {
+            available = Math.min(permitsPerSecond, available + (double) (now - lastRefill) * permitsPerSecond / NANOS_PER_SECOND);
+        }
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,195 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spans of one build's deployment: its stages, phases, polls of the environments and AWS calls.
+ *
+ * Spans are laid out by the thread they ran on, so the ones of one environment update end up on one row,
+ * and a span's parent is the shortest one of its row that contains it. {@link #write} saves them in the
+ * Trace Event Format of chrome://tracing and Perfetto.
+ */
+public class AWSEBTrace {
+
+    public static final String ARTIFACT = "awseb-trace.json";
+
+    // About 10MB of JSON, plenty for a fan-out to a hundred environments.
+    private static final int MAX_SPANS = 50000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final List<Span> spans = new ArrayList<Span>();
+    private final Map<String, Integer> lanes = new LinkedHashMap<String, Integer>();
+    private int dropped;
+
+    /**
+     * Adds a span that is over.
+     *
+     * @param category eg. <code>stage</code>, <code>phase</code> or <code>aws</code>.
+     * @param args shown along with the span, null for none.
+     */
+    public void add(String name, String category, long startMillis, long endMillis, Map<String, Object> args) {
+        String lane = Thread.currentThread().getName();
+        synchronized (spans) {
+            if (spans.size() >= MAX_SPANS) {
+                dropped++;
+                return;
+            }
+            Integer tid = lanes.get(lane);
+            if (tid == null) {
+                tid = lanes.size() + 1;
+                lanes.put(lane, tid);
+            }
+            spans.add(new Span(name, category, tid, startMillis, Math.max(endMillis, startMillis), args));
+        }
+    }
+
+    public boolean isEmpty() {
+        synchronized (spans) {
+            return spans.isEmpty();
+        }
+    }
+
+    /**
+     * Writes the spans into a file that chrome://tracing, Perfetto or speedscope can load, streaming them out
+     * so a large trace isn't built in memory first.
+     */
+    public void write(File file) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+        try {
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+            boolean first = true;
+            synchronized (spans) {
+                for (Map.Entry<String, Integer> lane : lanes.entrySet()) {
+                    out.write(first ? "\n" : ",\n");
+                    first = false;
+                    out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + lane.getValue()
+                            + ",\"args\":{\"name\":" + quote(lane.getKey()) + "}}");
+                }
+
+                List<Span> sorted = getSortedSpans();
+                Map<Integer, List<Span>> open = new HashMap<Integer, List<Span>>();
+                long origin = sorted.isEmpty() ? 0 : sorted.get(0).start;
+                for (int id = 0; id < sorted.size(); id++) {
+                    Span span = sorted.get(id);
+                    span.id = id + 1;
+                    Span parent = getParent(open, span);
+
+                    out.write(first ? "\n" : ",\n");
+                    first = false;
+                    out.write("{\"name\":" + quote(span.name) + ",\"cat\":" + quote(span.category)
+                            + ",\"ph\":\"X\",\"ts\":" + (span.start - origin) * 1000 + ",\"dur\":" + (span.end - span.start) * 1000
+                            + ",\"pid\":1,\"tid\":" + span.tid + ",\"args\":{\"id\":" + span.id);
+                    if (parent != null) {
+                        out.write(",\"parent\":" + parent.id);
+                    }
+                    if (span.args != null) {
+                        for (Map.Entry<String, Object> arg : span.args.entrySet()) {
+                            out.write("," + quote(arg.getKey()) + ":" + toJson(arg.getValue()));
+                        }
+                    }
+                    out.write("}}");
+                }
+                out.write("\n]");
+                if (dropped > 0) {
+                    out.write(",\"otherData\":{\"droppedSpans\":" + dropped + "}");
+                }
+            }
+            out.write("}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String toJson(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+        }
+        return quote(value.toString());
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    // Longest first when they start together, so parents come before their children.
+    private List<Span> getSortedSpans() {
+        List<Span> sorted = new ArrayList<Span>(spans);
+        Collections.sort(sorted, new Comparator<Span>() {
+            @Override
+            public int compare(Span first, Span second) {
+                if (first.start != second.start) {
+                    return first.start < second.start ? -1 : 1;
+                }
+                if (first.end != second.end) {
+                    return first.end > second.end ? -1 : 1;
+                }
+                return 0;
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * @param open the spans of each row that may still contain the next ones, innermost last.
+     */
+    private static Span getParent(Map<Integer, List<Span>> open, Span span) {
+        List<Span> stack = open.get(span.tid);
+        if (stack == null) {
+            stack = new ArrayList<Span>();
+            open.put(span.tid, stack);
+        }
+        while (!stack.isEmpty() && stack.get(stack.size() - 1).end < span.end) {
+            stack.remove(stack.size() - 1);
+        }
+        Span parent = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+        stack.add(span);
+        return parent;
+    }
+
+    private static class Span {
+        private final String name;
+        private final String category;
+        private final int tid;
+        private final long start;
+        private final long end;
+        private final Map<String, Object> args;
+        private int id;
+
+        Span(String name, String category, int tid, long start, long end, Map<String, Object> args) {
+            this.name = name;
+            this.category = category;
+            this.tid = tid;
+            this.start = start;
+            this.end = end;
+            this.args = args;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.Job;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * How long deployments of a job took, kept for its latest builds in a ring buffer file in the job's directory,
+ * so trends show without loading old builds.
+ *
+ * Every sample takes a fixed size slot: the build number, when it finished, what was measured and the value.
+ * The oldest samples get overwritten once the file is full.
+ */
+public class AWSEBTrends {
+
+    private static final Logger LOGGER = Logger.getLogger(AWSEBTrends.class.getName());
+
+    public static final String FILE = "awseb-trends.dat";
+
+    private static final int MAGIC = 0x41454254;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 128;
+    private static final int MAX_NAME_BYTES = SLOT_SIZE - 4 - 8 - 1 - 8 - 2;
+    // 512KB per job.
+    static final int SLOTS = 4096;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Percentiles are taken over this many builds.
+    static final int WINDOW_BUILDS = 10;
+    static final int MAX_WINDOWS = 6;
+
+    // Trends of each file as of when it was last written, so the page of all the jobs doesn't read every file each time.
+    private static final Map<File, CachedTrends> cache = new HashMap<File, CachedTrends>();
+    private static long writes;
+
+    public enum Kind {
+        /** Time spent in a phase, see {@link AWSEBBuildMetrics}. */
+        PHASE,
+        /** Time an environment took to update once the update was sent. */
+        ENVIRONMENT,
+        /** Bytes per second of the bundle upload. */
+        THROUGHPUT,
+        /** Time spent backing off because AWS throttled the calls. */
+        THROTTLED
+    }
+
+    /**
+     * Adds what a build measured.
+     */
+    public static void record(Job<?, ?> job, int buildNumber, long timestamp, AWSEBBuildMetrics metrics) {
+        List<Sample> samples = new ArrayList<Sample>();
+        for (Map.Entry<String, AWSEBMetrics.Phase> phase : metrics.getPhases().entrySet()) {
+            samples.add(new Sample(buildNumber, timestamp, Kind.PHASE, phase.getKey(), phase.getValue().getTotalMillis()));
+            if ("upload".equals(phase.getKey()) && phase.getValue().getBytes() > 0) {
+                samples.add(new Sample(buildNumber, timestamp, Kind.THROUGHPUT, phase.getKey(), phase.getValue().getBytesPerSecond()));
+            }
+        }
+        for (Map.Entry<String, Long> environment : metrics.getEnvironments().entrySet()) {
+            samples.add(new Sample(buildNumber, timestamp, Kind.ENVIRONMENT, environment.getKey(), environment.getValue()));
+        }
+        long throttled = 0;
+        for (AWSEBMetrics.Calls calls : metrics.getCalls().values()) {
+            throttled += calls.getThrottledMillis();
+        }
+        samples.add(new Sample(buildNumber, timestamp, Kind.THROTTLED, "", throttled));
+
+        try {
+            write(getFile(job), samples);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to record the deployment trends of " + job.getFullName(), e);
+        }
+    }
+
+    public static File getFile(Job<?, ?> job) {
+        return new File(job.getRootDir(), FILE);
+    }
+
+    static synchronized void write(File file, List<Sample> samples) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            long written = 0;
+            int slots = SLOTS;
+            if (out.length() >= HEADER_SIZE && out.readInt() == MAGIC) {
+                slots = out.readInt();
+                written = out.readLong();
+            }
+            ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+            for (Sample sample : samples) {
+                slot.clear();
+                sample.write(slot);
+                out.seek(HEADER_SIZE + (written % slots) * SLOT_SIZE);
+                out.write(slot.array());
+                written++;
+            }
+            // Last, so the samples only count once they are all there.
+            out.seek(0);
+            out.writeInt(MAGIC);
+            out.writeInt(slots);
+            out.writeLong(written);
+        } finally {
+            out.close();
+            synchronized (cache) {
+                cache.remove(file);
+                writes++;
+            }
+        }
+    }
+
+    /**
+     * @return the samples of a job, oldest first.
+     */
+    public static List<Sample> read(Job<?, ?> job) {
+        File file = getFile(job);
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        try {
+            return read(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read the deployment trends of " + job.getFullName(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    static synchronized List<Sample> read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.length() < HEADER_SIZE || in.readInt() != MAGIC) {
+                return Collections.emptyList();
+            }
+            int slots = in.readInt();
+            long written = in.readLong();
+            int count = (int) Math.min(written, slots);
+            byte[] data = new byte[count * SLOT_SIZE];
+            in.readFully(data);
+
+            List<Sample> samples = new ArrayList<Sample>(count);
+            long first = written - count;
+            for (long i = first; i < written; i++) {
+                int offset = (int) (i % slots) * SLOT_SIZE;
+                Sample sample = Sample.read(ByteBuffer.wrap(data, offset, SLOT_SIZE));
+                if (sample != null) {
+                    samples.add(sample);
+                }
+            }
+            return samples;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the percentiles of each thing measured over the latest builds, in windows of {@link #WINDOW_BUILDS},
+     *         kept until the file changes.
+     */
+    public static List<Trend> getTrends(Job<?, ?> job) {
+        File file = getFile(job);
+        long modified = file.lastModified();
+        long length = file.length();
+        long generation;
+        synchronized (cache) {
+            CachedTrends cached = cache.get(file);
+            if (cached != null && cached.modified == modified && cached.length == length) {
+                return cached.trends;
+            }
+            generation = writes;
+        }
+        List<Trend> trends = Collections.unmodifiableList(getTrends(read(job)));
+        synchronized (cache) {
+            if (modified == 0) {
+                cache.remove(file);
+            } else if (generation == writes) {
+                cache.put(file, new CachedTrends(modified, length, trends));
+            }
+        }
+        return trends;
+    }
+
+    static List<Trend> getTrends(List<Sample> samples) {
+        List<Integer> builds = new ArrayList<Integer>();
+        for (Sample sample : samples) {
+            if (builds.isEmpty() || builds.get(builds.size() - 1) != sample.buildNumber) {
+                builds.add(sample.buildNumber);
+            }
+        }
+        // Windows of the latest builds, the oldest one may be partial.
+        int windows = Math.min(MAX_WINDOWS, (builds.size() + WINDOW_BUILDS - 1) / WINDOW_BUILDS);
+        int firstIndex = Math.max(0, builds.size() - windows * WINDOW_BUILDS);
+        Map<Integer, Integer> windowOfBuild = new LinkedHashMap<Integer, Integer>();
+        for (int i = firstIndex; i < builds.size(); i++) {
+            windowOfBuild.put(builds.get(i), windows - 1 - (builds.size() - 1 - i) / WINDOW_BUILDS);
+        }
+
+        Map<String, Trend> trends = new LinkedHashMap<String, Trend>();
+        for (Sample sample : samples) {
+            Integer window = windowOfBuild.get(sample.buildNumber);
+            if (window == null) {
+                continue;
+            }
+            String key = sample.kind + "/" + sample.name;
+            Trend trend = trends.get(key);
+            if (trend == null) {
+                trend = new Trend(sample.kind, sample.name, windows);
+                trends.put(key, trend);
+            }
+            trend.add(window, sample);
+        }
+        List<Trend> sorted = new ArrayList<Trend>(trends.values());
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    public static class Sample {
+        private final int buildNumber;
+        private final long timestamp;
+        private final Kind kind;
+        private final String name;
+        private final long value;
+
+        public Sample(int buildNumber, long timestamp, Kind kind, String name, long value) {
+            this.buildNumber = buildNumber;
+            this.timestamp = timestamp;
+            this.kind = kind;
+            this.name = truncate(name);
+            this.value = value;
+        }
+
+        private static String truncate(String name) {
+            String truncated = name;
+            while (truncated.getBytes(UTF8).length > MAX_NAME_BYTES) {
+                truncated = truncated.substring(0, truncated.length() - 1);
+            }
+            return truncated;
+        }
+
+        void write(ByteBuffer slot) {
+            byte[] bytes = name.getBytes(UTF8);
+            slot.putInt(buildNumber);
+            slot.putLong(timestamp);
+            slot.put((byte) kind.ordinal());
+            slot.putLong(value);
+            slot.putShort((short) bytes.length);
+            slot.put(bytes);
+        }
+
+        /**
+         * @return null if the slot doesn't hold a sample, eg. because the file was cut short.
+         */
+        static Sample read(ByteBuffer slot) {
+            int buildNumber = slot.getInt();
+            long timestamp = slot.getLong();
+            int kind = slot.get();
+            long value = slot.getLong();
+            int length = slot.getShort();
+            if (kind < 0 || kind >= Kind.values().length || length < 0 || length > MAX_NAME_BYTES) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            slot.get(bytes);
+            return new Sample(buildNumber, timestamp, Kind.values()[kind], new String(bytes, UTF8), value);
+        }
+
+        public int getBuildNumber() {
+            return buildNumber;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getValue() {
+            return value;
+        }
+    }
+
+    public static class Trend implements Comparable<Trend> {
+        private final Kind kind;
+        private final String name;
+        private final Window[] windows;
+
+        Trend(Kind kind, String name, int windows) {
+            this.kind = kind;
+            this.name = name;
+            this.windows = new Window[windows];
+        }
+
+        void add(int window, Sample sample) {
+            if (windows[window] == null) {
+                windows[window] = new Window();
+            }
+            windows[window].add(sample);
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return oldest first, without the windows it wasn't measured in.
+         */
+        public List<Window> getWindows() {
+            List<Window> measured = new ArrayList<Window>(windows.length);
+            for (Window window : windows) {
+                if (window != null) {
+                    measured.add(window);
+                }
+            }
+            return measured;
+        }
+
+        public Window getLatest() {
+            List<Window> measured = getWindows();
+            return measured.isEmpty() ? null : measured.get(measured.size() - 1);
+        }
+
+        /**
+         * @return how many times the median of the latest window is the one of the oldest, 0 if unknown.
+         */
+        public double getChange() {
+            List<Window> measured = getWindows();
+            if (measured.size() < 2 || measured.get(0).getP50() == 0) {
+                return 0;
+            }
+            return (double) measured.get(measured.size() - 1).getP50() / measured.get(0).getP50();
+        }
+
+        /**
+         * @return eg. <code>x3.1</code>, empty if unknown.
+         */
+        public String getChangeText() {
+            double change = getChange();
+            return change == 0 ? "" : String.format("x%.1f", change);
+        }
+
+        @Override
+        public int compareTo(Trend other) {
+            if (kind != other.kind) {
+                return kind.compareTo(other.kind);
+            }
+            return name.compareTo(other.name);
+        }
+    }
+
+    private static class CachedTrends {
+        private final long modified;
+        private final long length;
+        private final List<Trend> trends;
+
+        CachedTrends(long modified, long length, List<Trend> trends) {
+            this.modified = modified;
+            this.length = length;
+            this.trends = trends;
+        }
+    }
+
+    public static class Window {
+        private int firstBuild = Integer.MAX_VALUE;
+        private int lastBuild;
+        private long[] values = new long[WINDOW_BUILDS];
+        private int count;
+        private boolean sorted;
+
+        void add(Sample sample) {
+            firstBuild = Math.min(firstBuild, sample.buildNumber);
+            lastBuild = Math.max(lastBuild, sample.buildNumber);
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = sample.value;
+            sorted = false;
+        }
+
+        public int getFirstBuild() {
+            return firstBuild;
+        }
+
+        public int getLastBuild() {
+            return lastBuild;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getP50() {
+            return getPercentile(50);
+        }
+
+        public long getP95() {
+            return getPercentile(95);
+        }
+
+        public long getP99() {
+            return getPercentile(99);
+        }
+
+        // Nearest rank. Windows of cached trends are shared between requests.
+        synchronized long getPercentile(int percentile) {
+            if (!sorted) {
+                Arrays.sort(values, 0, count);
+                sorted = true;
+            }
+            int rank = (int) Math.ceil(percentile / 100.0 * count);
+            return values[Math.max(0, rank - 1)];
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.Action;
+import hudson.model.Job;
+
+import java.util.List;
+
+/**
+ * Percentiles of how long the latest deployments of a project took, from its {@link AWSEBTrends}.
+ */
+public class AWSEBTrendsProjectAction implements Action {
+
+    private final Job<?, ?> project;
+
+    public AWSEBTrendsProjectAction(Job<?, ?> project) {
+        this.project = project;
+    }
+
+    public Job<?, ?> getProject() {
+        return project;
+    }
+
+    public List<AWSEBTrends.Trend> getTrends() {
+        return AWSEBTrends.getTrends(project);
+    }
+
+    public int getWindowBuilds() {
+        return AWSEBTrends.WINDOW_BUILDS;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Elastic Beanstalk Trends";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "awseb-trends";
+    }
+}
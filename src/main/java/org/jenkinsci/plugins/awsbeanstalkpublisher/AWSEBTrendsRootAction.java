@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.RootAction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jenkins.model.Jenkins;
+
+/**
+ * The latest deployment trends of every project that deploys, read from their {@link AWSEBTrends} files only.
+ */
+@Extension
+public class AWSEBTrendsRootAction implements RootAction {
+
+    /**
+     * @return the projects the user can see that have trends.
+     */
+    public List<AWSEBTrendsProjectAction> getProjects() {
+        List<AWSEBTrendsProjectAction> projects = new ArrayList<AWSEBTrendsProjectAction>();
+        for (AbstractProject<?, ?> project : Jenkins.getInstance().getAllItems(AbstractProject.class)) {
+            if (AWSEBTrends.getFile(project).isFile()) {
+                projects.add(new AWSEBTrendsProjectAction(project));
+            }
+        }
+        return projects;
+    }
+
+    public int getWindowBuilds() {
+        return AWSEBTrends.WINDOW_BUILDS;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Elastic Beanstalk Trends";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "awseb-trends";
+    }
+}
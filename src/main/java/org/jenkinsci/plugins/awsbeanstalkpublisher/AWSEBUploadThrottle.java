@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.BuildListener;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the bandwidth of bundle uploads and reports their throughput in the build log.
+ *
+ * Every upload in the JVM draws from the same global bucket, so the global limit holds no matter how
+ * many builds upload at once. A setup can lower the limit for its own uploads on top of that, its uploads
+ * share a bucket of their own. Setups are weakly referenced, a reconfigured job gets new ones.
+ */
+public class AWSEBUploadThrottle {
+
+    private static final int BYTES_PER_KB = 1024;
+    private static final int PROGRESS_INTERVAL_SECONDS = 10;
+    private static final long PROGRESS_INTERVAL_MILLISECONDS = TimeUnit.SECONDS.toMillis(PROGRESS_INTERVAL_SECONDS);
+
+    private static final AWSEBTokenBucket global = new AWSEBTokenBucket(0);
+    private static final Map<Object, AWSEBTokenBucket> setups = new WeakHashMap<Object, AWSEBTokenBucket>();
+
+    private final List<AWSEBTokenBucket> buckets = new ArrayList<AWSEBTokenBucket>(2);
+    private final BuildListener listener;
+    private final String name;
+    private final long total;
+    private final long started;
+
+    private long transferred;
+    private long lastLogged;
+    private long lastLoggedBytes;
+
+    /**
+     * @param setup the setup uploading, all its uploads share its limit.
+     * @param limitKBps the setup's own limit in KB/s, 0 to only use the global limit.
+     */
+    public AWSEBUploadThrottle(BuildListener listener, String name, long total, Object setup, int limitKBps) {
+        this.listener = listener;
+        this.name = name;
+        this.total = total;
+        this.started = System.currentTimeMillis();
+        this.lastLogged = started;
+        buckets.add(global);
+        if (setup != null && limitKBps > 0) {
+            buckets.add(getSetupBucket(setup, (long) limitKBps * BYTES_PER_KB));
+        }
+    }
+
+    private static AWSEBTokenBucket getSetupBucket(Object setup, long bytesPerSecond) {
+        synchronized (setups) {
+            AWSEBTokenBucket bucket = setups.get(setup);
+            if (bucket == null) {
+                bucket = new AWSEBTokenBucket(bytesPerSecond);
+                setups.put(setup, bucket);
+            } else if (bucket.getPermitsPerSecond() != bytesPerSecond) {
+                bucket.setPermitsPerSecond(bytesPerSecond);
+            }
+            return bucket;
+        }
+    }
+
+    /**
+     * @param limitKBps limit for all uploads in KB/s, 0 for no limit.
+     */
+    public static void setGlobalLimit(int limitKBps) {
+        global.setPermitsPerSecond((long) limitKBps * BYTES_PER_KB);
+    }
+
+    public InputStream wrap(InputStream in) {
+        return new ThrottledInputStream(in);
+    }
+
+    private void transferred(long bytes) throws InterruptedIOException {
+        try {
+            for (AWSEBTokenBucket bucket : buckets) {
+                bucket.acquire(bytes);
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Upload of " + name + " was interrupted");
+        }
+
+        synchronized (this) {
+            transferred += bytes;
+            long now = System.currentTimeMillis();
+            if (now - lastLogged >= PROGRESS_INTERVAL_MILLISECONDS) {
+                AWSEBUtils.log(listener, "Uploaded %s of %s for %s (%s/s)", toSize(transferred), toSize(total), name,
+                        toSize((transferred - lastLoggedBytes) * 1000 / (now - lastLogged)));
+                lastLogged = now;
+                lastLoggedBytes = transferred;
+            }
+        }
+    }
+
+    public synchronized void finished() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - started);
+        AWSEBUtils.log(listener, "Uploaded %s for %s in %d seconds (%s/s)", toSize(transferred), name,
+                TimeUnit.MILLISECONDS.toSeconds(elapsed), toSize(transferred * 1000 / elapsed));
+    }
+
+    private static String toSize(long bytes) {
+        if (bytes < BYTES_PER_KB * BYTES_PER_KB) {
+            return String.format("%.1f KB", (double) bytes / BYTES_PER_KB);
+        }
+        return String.format("%.1f MB", (double) bytes / (BYTES_PER_KB * BYTES_PER_KB));
+    }
+
+    private class ThrottledInputStream extends FilterInputStream {
+
+        private ThrottledInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                transferred(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                transferred(n);
+            }
+            return n;
+        }
+    }
+}
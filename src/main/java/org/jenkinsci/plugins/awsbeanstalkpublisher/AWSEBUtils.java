@@ -2,20 +2,38 @@ package org.jenkinsci.plugins.awsbeanstalkpublisher;
 
 import hudson.Util;
 import hudson.model.BuildListener;
+import hudson.model.TaskListener;
 import hudson.model.AbstractBuild;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 
 import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.metrics.RequestMetricCollector;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
@@ -27,12 +45,38 @@ import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsResult;
 import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
 
 public class AWSEBUtils {
 
     private final static Pattern ENV_NAME_REGEX = Pattern.compile("([a-zA-Z0-9][-a-zA-Z0-9]{2,21}[a-zA-Z0-9]|\\$\\{.*\\})");
 
     private static final Logger logger = Logger.getLogger(AWSEBUtils.class.getName());
+
+    private static final String S3_DUALSTACK_ENDPOINT = "s3.dualstack.%s.amazonaws.com";
+    private static final String S3_ACCELERATE_DUALSTACK_ENDPOINT = "s3-accelerate.dualstack.amazonaws.com";
+
+    private static final ConcurrentMap<String, Region> bucketRegions = new ConcurrentHashMap<String, Region>();
+
+    // Clients are thread safe and costly to make, the ones that aren't made for a build are shared.
+    private static final int MAX_CACHED_CLIENTS = 32;
+    private static final ConcurrentMap<String, AWSElasticBeanstalk> ebClients = new ConcurrentHashMap<String, AWSElasticBeanstalk>();
+    private static final ConcurrentMap<String, AmazonS3> s3Clients = new ConcurrentHashMap<String, AmazonS3>();
+
+    /**
+     * Points the clients somewhere else than AWS, eg. <code>http://localhost:8080</code> for a load test.
+     * Read when a client is made, so set it before Jenkins starts.
+     */
+    static final String EB_ENDPOINT_PROPERTY = AWSEBUtils.class.getName() + ".elasticBeanstalkEndpoint";
+    static final String S3_ENDPOINT_PROPERTY = AWSEBUtils.class.getName() + ".s3Endpoint";
+
+    private static final int EB_CALL_TIMEOUT_MILLISECONDS = (int) TimeUnit.MINUTES.toMillis(2);
+
+    private static final int DIGEST_BUFFER_SIZE = 1024 * 1024;
+    private static final int ZIP_LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int ZIP_END_HEADER_SIGNATURE = 0x06054b50;
+    private static final int ZIP_END_HEADER_SIZE = 22;
+    private static final int ZIP_MAX_COMMENT_SIZE = 0xffff;
     
     public static String formatPath(String mask, Object... args) {
         return strip(String.format(mask, args).replaceAll("/{2,}", ""));
@@ -49,16 +93,84 @@ public class AWSEBUtils {
     }
     
     public static AmazonS3 getS3(AWSEBCredentials credentials, Regions awsRegion) {
+        Region region = Region.getRegion(awsRegion);
+        String key = getClientKey(credentials == null ? null : credentials.getAwsCredentials(), region, System.getProperty(S3_ENDPOINT_PROPERTY));
+        AmazonS3 s3 = key == null ? null : s3Clients.get(key);
+        if (s3 != null) {
+            AWSEBMetrics.clientCacheHit();
+            return s3;
+        }
+        AWSEBMetrics.clientCacheMiss();
+        s3 = getS3(credentials, region, AWSEBMetrics.getCollector());
+        if (key != null) {
+            cache(s3Clients, key, s3);
+        }
+        return s3;
+    }
+
+    private static AmazonS3Client getS3(AWSEBCredentials credentials, Region region, RequestMetricCollector collector) {
         AWSCredentialsProvider provider = null;
         if (credentials != null) {
             provider = credentials.getAwsCredentials();
         }
-        Region region = Region.getRegion(awsRegion);
+        AmazonS3Client s3 = new AmazonS3Client(getProvider(provider), getClientConfig(), collector);
+        s3.setRegion(region);
+        String endpoint = System.getProperty(S3_ENDPOINT_PROPERTY);
+        if (endpoint != null) {
+            // No bucket names in the host name, that has to stay the one we were given.
+            s3.setEndpoint(endpoint);
+            s3.setSignerRegionOverride(region.getName());
+            s3.setS3ClientOptions(S3ClientOptions.builder().setPathStyleAccess(true).build());
+        }
+        return s3;
+    }
 
-        AmazonS3 s3 = region.createClient(AmazonS3Client.class, provider, AWSEBUtils.getClientConfig());
+    public static AmazonS3 getS3(AWSEBCredentials credentials, Regions awsRegion, String bucketName, boolean accelerate, boolean dualstack) {
+        return getS3(credentials, awsRegion, bucketName, accelerate, dualstack, AWSEBMetrics.getCollector());
+    }
+
+    /**
+     * S3 client for uploading into the bucket, talking to the bucket's own region so requests aren't redirected.
+     *
+     * @param collector counts the client's calls, see {@link AWSEBBuildMetrics#getCollector()}.
+     */
+    public static AmazonS3 getS3(AWSEBCredentials credentials, Regions awsRegion, String bucketName, boolean accelerate, boolean dualstack, RequestMetricCollector collector) {
+        Region region = getBucketRegion(credentials, awsRegion, bucketName);
+        AmazonS3Client s3 = getS3(credentials, region, collector);
+
+        if (System.getProperty(S3_ENDPOINT_PROPERTY) != null) {
+            return s3;
+        }
+        if (dualstack) {
+            // This SDK doesn't know about dual-stack endpoints, so point at them ourselves and keep signing for the bucket's region.
+            s3.setEndpoint(accelerate ? S3_ACCELERATE_DUALSTACK_ENDPOINT : String.format(S3_DUALSTACK_ENDPOINT, region.getName()));
+            s3.setSignerRegionOverride(region.getName());
+        } else if (accelerate) {
+            s3.setS3ClientOptions(S3ClientOptions.builder().setAccelerateModeEnabled(true).build());
+        }
         return s3;
     }
-    
+
+    public static Region getBucketRegion(AWSEBCredentials credentials, Regions awsRegion, String bucketName) {
+        // A bucket of the same name somewhere else than AWS can be in any region.
+        boolean cached = System.getProperty(S3_ENDPOINT_PROPERTY) == null;
+        Region region = cached ? bucketRegions.get(bucketName) : null;
+        if (region != null) {
+            return region;
+        }
+        region = Region.getRegion(awsRegion);
+        try {
+            String location = getS3(credentials, awsRegion).getBucketLocation(bucketName);
+            region = com.amazonaws.services.s3.model.Region.fromValue(location).toAWSRegion();
+            if (cached) {
+                bucketRegions.put(bucketName, region);
+            }
+        } catch (Exception e) {
+            logger.log(Level.INFO, "Unable to look up the region of bucket " + bucketName + ", using " + region.getName(), e);
+        }
+        return region;
+    }
+
     public static String getValue(AbstractBuild<?, ?> build, BuildListener listener, String value) {
         return strip(replaceMacros(build, listener, value));
     }
@@ -119,14 +231,7 @@ public class AWSEBUtils {
         String returnString = inputString;
         if (build != null && inputString != null) {
             try {
-                Map<String, String> messageEnvVars = new HashMap<String, String>();
-
-                messageEnvVars.putAll(build.getCharacteristicEnvVars());
-                messageEnvVars.putAll(build.getBuildVariables());
-                messageEnvVars.putAll(build.getEnvironment(listener));
-
-                returnString = Util.replaceMacro(inputString, messageEnvVars);
-
+                returnString = replaceMacros(inputString, build.getCharacteristicEnvVars(), build.getBuildVariables(), build.getEnvironment(listener));
             } catch (Exception e) {
                 logger.log(Level.SEVERE, "Couldn't replace macros in message: ", e);
             }
@@ -135,10 +240,81 @@ public class AWSEBUtils {
 
     }
     
+    /**
+     * The later variables win over the earlier ones of the same name.
+     */
+    static String replaceMacros(String inputString, Map<String, String> characteristicEnvVars, Map<String, String> buildVariables, Map<String, String> environment) {
+        Map<String, String> messageEnvVars = new HashMap<String, String>();
+
+        messageEnvVars.putAll(characteristicEnvVars);
+        messageEnvVars.putAll(buildVariables);
+        messageEnvVars.putAll(environment);
+
+        return Util.replaceMacro(inputString, messageEnvVars);
+    }
+
     public static AWSElasticBeanstalk getElasticBeanstalk(AWSCredentialsProvider credentials, Region region) {
-        AWSElasticBeanstalk awseb = region.createClient(AWSElasticBeanstalkClient.class, credentials, getClientConfig());
+        String key = getClientKey(credentials, region, System.getProperty(EB_ENDPOINT_PROPERTY));
+        AWSElasticBeanstalk awseb = key == null ? null : ebClients.get(key);
+        if (awseb != null) {
+            AWSEBMetrics.clientCacheHit();
+            return awseb;
+        }
+        AWSEBMetrics.clientCacheMiss();
+        awseb = getElasticBeanstalk(credentials, region, AWSEBMetrics.getCollector());
+        if (key != null) {
+            cache(ebClients, key, awseb);
+        }
+        return awseb;
+    }
+
+    /**
+     * @param endpoint the endpoint the client is pointed at instead of AWS, if any.
+     * @return what a client for these credentials, region and endpoint is cached by, null if it can't be.
+     */
+    private static String getClientKey(AWSCredentialsProvider provider, Region region, String endpoint) {
+        String target = endpoint == null ? region.getName() : region.getName() + "@" + endpoint;
+        if (provider == null) {
+            return target;
+        }
+        try {
+            AWSCredentials credentials = provider.getCredentials();
+            // Keys that were changed get a new client.
+            return String.format("%s|%s|%s", target, credentials.getAWSAccessKeyId(), DigestUtils.shaHex(credentials.getAWSSecretKey()));
+        } catch (RuntimeException e) {
+            logger.log(Level.FINE, "Unable to get the credentials, not caching the client", e);
+            return null;
+        }
+    }
+
+    private static <T> void cache(ConcurrentMap<String, T> clients, String key, T client) {
+        if (clients.size() >= MAX_CACHED_CLIENTS) {
+            // Only old keys pile up, clients in use keep working.
+            clients.clear();
+        }
+        clients.putIfAbsent(key, client);
+    }
+
+    /**
+     * @param collector counts the client's calls, see {@link AWSEBBuildMetrics#getCollector()}.
+     */
+    public static AWSElasticBeanstalk getElasticBeanstalk(AWSCredentialsProvider credentials, Region region, RequestMetricCollector collector) {
+        // Beanstalk calls are short, one that hangs shouldn't keep an aborted build around.
+        ClientConfiguration clientConfig = getClientConfig().withClientExecutionTimeout(EB_CALL_TIMEOUT_MILLISECONDS);
+        AWSElasticBeanstalkClient awseb = new AWSElasticBeanstalkClient(getProvider(credentials), clientConfig, collector);
+        awseb.setRegion(region);
+        String endpoint = System.getProperty(EB_ENDPOINT_PROPERTY);
+        if (endpoint != null) {
+            awseb.setEndpoint(endpoint);
+            awseb.setSignerRegionOverride(region.getName());
+        }
         return awseb;
     }
+
+    // What Region.createClient falls back to without credentials.
+    private static AWSCredentialsProvider getProvider(AWSCredentialsProvider credentials) {
+        return credentials == null ? new DefaultAWSCredentialsProviderChain() : credentials;
+    }
     
     public static ClientConfiguration getClientConfig() {
         ClientConfiguration clientConfig = new ClientConfiguration();
@@ -147,7 +323,64 @@ public class AWSEBUtils {
     }
     
 
-    public static void log(BuildListener listener, String mask, Object... args) {
+    /**
+     * Hashes the file through a {@link FileChannel}, without copying it onto the heap.
+     */
+    public static String md5Hex(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DIGEST_BUFFER_SIZE);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            in.close();
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Quick structural check, a zip starts with a local file header and ends with an end of central directory record.
+     */
+    public static boolean isZipFile(File file) throws IOException {
+        long length = file.length();
+        if (length < ZIP_END_HEADER_SIZE) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer start = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(start, 0);
+            if (start.getInt(0) != ZIP_LOCAL_HEADER_SIGNATURE && start.getInt(0) != ZIP_END_HEADER_SIGNATURE) {
+                return false;
+            }
+
+            // The end record is followed by a comment of at most 64k.
+            int tailSize = (int) Math.min(length, ZIP_END_HEADER_SIZE + ZIP_MAX_COMMENT_SIZE);
+            ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(tail, length - tailSize);
+            for (int i = tailSize - ZIP_END_HEADER_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == ZIP_END_HEADER_SIGNATURE) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            raf.close();
+        }
+    }
+
+    public static void log(TaskListener listener, String mask, Object... args) {
         listener.getLogger().println(String.format(mask, args));
     }
 
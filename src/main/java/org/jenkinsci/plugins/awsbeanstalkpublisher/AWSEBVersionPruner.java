@@ -0,0 +1,268 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBVersionRetention;
+
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.ApplicationVersionDescription;
+import com.amazonaws.services.elasticbeanstalk.model.DeleteApplicationVersionRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeApplicationVersionsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.S3Location;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+
+/**
+ * Removes application versions (and their S3 bundles) that fall outside of an {@link AWSEBVersionRetention} policy.
+ *
+ * Pruning runs on a background thread so it never holds up the build. Versions that are deployed to
+ * any environment of the application, or that were just deployed, are never removed. A bundle goes
+ * with its version only when no version of any application in the region points at it anymore.
+ */
+public class AWSEBVersionPruner implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(AWSEBVersionPruner.class.getName());
+
+    private static final int MAX_DELETE_THREADS = 4;
+    private static final int DELETES_PER_SECOND = 5;
+    // S3 multi-object delete accepts at most 1000 keys per request.
+    private static final int MAX_KEYS_PER_DELETE = 1000;
+    private static final long MILLISECONDS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+    // The most versions one DescribeApplicationVersions response holds, this SDK can't ask for the next page.
+    private static final int MAX_VERSIONS_PER_RESPONSE = 1000;
+    private static final int MAX_ROUNDS = 20;
+
+    private static final ExecutorService background = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "AWSEBVersionPruner"));
+    private static final AWSEBTokenBucket deleteBudget = new AWSEBTokenBucket(DELETES_PER_SECOND);
+    private static final Set<String> running = Collections.synchronizedSet(new HashSet<String>());
+
+    private final AWSElasticBeanstalk awseb;
+    private final AWSEBCredentials credentials;
+    private final Regions awsRegion;
+    private final String applicationName;
+    private final String currentVersionLabel;
+    private final int keepVersions;
+    private final int keepDays;
+
+    public AWSEBVersionPruner(AWSElasticBeanstalk awseb, AWSEBCredentials credentials, Regions awsRegion,
+            String applicationName, String currentVersionLabel, AWSEBVersionRetention retention) {
+        this.awseb = awseb;
+        this.credentials = credentials;
+        this.awsRegion = awsRegion;
+        this.applicationName = applicationName;
+        this.currentVersionLabel = currentVersionLabel;
+        this.keepVersions = retention.getKeepVersions();
+        this.keepDays = retention.getKeepDays();
+    }
+
+    /**
+     * Queues the pruning, unless the same application is already being pruned.
+     */
+    public boolean schedule() {
+        if (!running.add(getKey())) {
+            return false;
+        }
+        background.submit(this);
+        return true;
+    }
+
+    private String getKey() {
+        return String.format("%s|%s|%s", credentials == null ? "" : credentials.toString(), awsRegion, applicationName);
+    }
+
+    @Override
+    public void run() {
+        try {
+            prune();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Unable to prune application versions for " + applicationName, e);
+        } finally {
+            running.remove(getKey());
+        }
+    }
+
+    /**
+     * Prunes what one response lists, again while it may have left versions out. Only the listed versions count
+     * towards the newest ones to keep, so versions left out can only make it keep more, never less.
+     */
+    private void prune() throws InterruptedException {
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            List<ApplicationVersionDescription> versions = new ArrayList<ApplicationVersionDescription>(
+                    awseb.describeApplicationVersions(new DescribeApplicationVersionsRequest().withApplicationName(applicationName)).getApplicationVersions());
+            if (prune(versions) == 0 || versions.size() < MAX_VERSIONS_PER_RESPONSE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return how many versions were deleted.
+     */
+    private int prune(List<ApplicationVersionDescription> versions) throws InterruptedException {
+        List<ApplicationVersionDescription> expired = getExpiredVersions(versions, getDeployedVersionLabels(), System.currentTimeMillis());
+        if (expired.isEmpty()) {
+            return 0;
+        }
+        logger.log(Level.INFO, "Pruning {0} of {1} application versions of {2}", new Object[] { expired.size(), versions.size(), applicationName });
+
+        List<ApplicationVersionDescription> deleted = deleteVersions(expired);
+
+        // Bundles can be shared between versions, of other applications too: only remove the ones nothing points at anymore.
+        versions.removeAll(deleted);
+        Set<String> referenced = getBundles(versions);
+        if (!deleted.isEmpty()) {
+            List<ApplicationVersionDescription> others = new ArrayList<ApplicationVersionDescription>();
+            for (ApplicationVersionDescription version : awseb.describeApplicationVersions(new DescribeApplicationVersionsRequest()).getApplicationVersions()) {
+                if (!applicationName.equals(version.getApplicationName())) {
+                    others.add(version);
+                }
+            }
+            referenced.addAll(getBundles(others));
+        }
+        Map<String, List<KeyVersion>> bundlesByBucket = new HashMap<String, List<KeyVersion>>();
+        for (ApplicationVersionDescription version : deleted) {
+            S3Location bundle = version.getSourceBundle();
+            if (bundle == null || !referenced.add(bundle.getS3Bucket() + "/" + bundle.getS3Key())) {
+                continue;
+            }
+            List<KeyVersion> keys = bundlesByBucket.get(bundle.getS3Bucket());
+            if (keys == null) {
+                keys = new ArrayList<KeyVersion>();
+                bundlesByBucket.put(bundle.getS3Bucket(), keys);
+            }
+            keys.add(new KeyVersion(bundle.getS3Key()));
+        }
+        deleteBundles(bundlesByBucket);
+        return deleted.size();
+    }
+
+    private static Set<String> getBundles(List<ApplicationVersionDescription> versions) {
+        Set<String> bundles = new HashSet<String>();
+        for (ApplicationVersionDescription version : versions) {
+            S3Location bundle = version.getSourceBundle();
+            if (bundle != null) {
+                bundles.add(bundle.getS3Bucket() + "/" + bundle.getS3Key());
+            }
+        }
+        return bundles;
+    }
+
+    private Set<String> getDeployedVersionLabels() {
+        Set<String> deployed = new HashSet<String>();
+        deployed.add(currentVersionLabel);
+        DescribeEnvironmentsRequest request = new DescribeEnvironmentsRequest().withApplicationName(applicationName).withIncludeDeleted(false);
+        for (EnvironmentDescription env : awseb.describeEnvironments(request).getEnvironments()) {
+            deployed.add(env.getVersionLabel());
+        }
+        return deployed;
+    }
+
+    /**
+     * A version is kept when it is one of the newest keepVersions, younger than keepDays, or deployed.
+     */
+    List<ApplicationVersionDescription> getExpiredVersions(List<ApplicationVersionDescription> versions, Set<String> deployed, long now) {
+        List<ApplicationVersionDescription> newestFirst = new ArrayList<ApplicationVersionDescription>(versions);
+        Collections.sort(newestFirst, new Comparator<ApplicationVersionDescription>() {
+            @Override
+            public int compare(ApplicationVersionDescription first, ApplicationVersionDescription second) {
+                return getCreated(second).compareTo(getCreated(first));
+            }
+        });
+
+        List<ApplicationVersionDescription> expired = new ArrayList<ApplicationVersionDescription>();
+        for (int i = 0; i < newestFirst.size(); i++) {
+            ApplicationVersionDescription version = newestFirst.get(i);
+            boolean keep = deployed.contains(version.getVersionLabel());
+            keep |= keepVersions > 0 && i < keepVersions;
+            keep |= keepDays > 0 && now - getCreated(version).getTime() < keepDays * MILLISECONDS_PER_DAY;
+            if (!keep) {
+                expired.add(version);
+            }
+        }
+        return expired;
+    }
+
+    private static Date getCreated(ApplicationVersionDescription version) {
+        return version.getDateCreated() == null ? new Date(0) : version.getDateCreated();
+    }
+
+    private List<ApplicationVersionDescription> deleteVersions(List<ApplicationVersionDescription> expired) throws InterruptedException {
+        AWSEBApplicationVersionCache cache = AWSEBApplicationVersionCache.forApplication(credentials, awsRegion, applicationName);
+        ExecutorService pool = Executors.newFixedThreadPool(MAX_DELETE_THREADS, new DaemonThreadFactory());
+        try {
+            List<Callable<ApplicationVersionDescription>> deletes = new ArrayList<Callable<ApplicationVersionDescription>>(expired.size());
+            for (final ApplicationVersionDescription version : expired) {
+                deletes.add(new Callable<ApplicationVersionDescription>() {
+                    @Override
+                    public ApplicationVersionDescription call() throws Exception {
+                        deleteBudget.acquire(1);
+                        // The bundles are removed in bulk afterwards.
+                        awseb.deleteApplicationVersion(new DeleteApplicationVersionRequest()
+                                .withApplicationName(applicationName)
+                                .withVersionLabel(version.getVersionLabel())
+                                .withDeleteSourceBundle(false));
+                        return version;
+                    }
+                });
+            }
+
+            List<ApplicationVersionDescription> deleted = new ArrayList<ApplicationVersionDescription>(expired.size());
+            for (Future<ApplicationVersionDescription> future : pool.invokeAll(deletes)) {
+                try {
+                    ApplicationVersionDescription version = future.get();
+                    cache.remove(version.getVersionLabel());
+                    deleted.add(version);
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Unable to delete application version of " + applicationName, e);
+                }
+            }
+            return deleted;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void deleteBundles(Map<String, List<KeyVersion>> bundlesByBucket) {
+        if (bundlesByBucket.isEmpty()) {
+            return;
+        }
+        AmazonS3 s3 = AWSEBUtils.getS3(credentials, awsRegion);
+        for (Map.Entry<String, List<KeyVersion>> bucket : bundlesByBucket.entrySet()) {
+            List<KeyVersion> keys = bucket.getValue();
+            for (int start = 0; start < keys.size(); start += MAX_KEYS_PER_DELETE) {
+                List<KeyVersion> batch = keys.subList(start, Math.min(start + MAX_KEYS_PER_DELETE, keys.size()));
+                DeleteObjectsRequest request = new DeleteObjectsRequest(bucket.getKey()).withKeys(batch).withQuiet(true);
+                try {
+                    s3.deleteObjects(request);
+                    logger.log(Level.FINE, "Deleted {0} bundles from {1}", new Object[] { batch.size(), bucket.getKey() });
+                } catch (MultiObjectDeleteException e) {
+                    logger.log(Level.WARNING, "Unable to delete {0} bundles from {1}", new Object[] { e.getErrors().size(), bucket.getKey() });
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import hudson.model.BuildListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBRollingDeployment;
+
+/**
+ * Updates environments in waves: the canary first, then batches of the configured size.
+ *
+ * A wave only starts once the previous one is done. When more of the environments updated so far failed
+ * than allowed, the rollout stops and the remaining environments are reported as skipped.
+ */
+public class AWSEBWaveScheduler {
+
+    private final BuildListener listener;
+    private final AWSEBRollingDeployment rolling;
+
+    public AWSEBWaveScheduler(BuildListener listener, AWSEBRollingDeployment rolling) {
+        this.listener = listener;
+        this.rolling = rolling;
+    }
+
+    public <T> List<List<T>> getWaves(List<T> environments) {
+        List<List<T>> waves = new ArrayList<List<T>>();
+        int next = Math.min(rolling.getCanaryCount(), environments.size());
+        if (next > 0) {
+            waves.add(new ArrayList<T>(environments.subList(0, next)));
+        }
+        int batchSize = rolling.getBatchSize(environments.size());
+        while (next < environments.size()) {
+            int end = Math.min(next + batchSize, environments.size());
+            waves.add(new ArrayList<T>(environments.subList(next, end)));
+            next = end;
+        }
+        return waves;
+    }
+
+    /**
+     * @return true if every environment was updated successfully.
+     */
+    public boolean run(ExecutorService pool, List<AWSEBEnvironmentUpdaterThread> updaters) throws InterruptedException {
+        List<List<AWSEBEnvironmentUpdaterThread>> waves = getWaves(updaters);
+        int updated = 0;
+        int failed = 0;
+
+        for (int i = 0; i < waves.size(); i++) {
+            List<AWSEBEnvironmentUpdaterThread> wave = waves.get(i);
+            AWSEBUtils.log(listener, "Wave %d/%d%s: updating %d environment(s)", i + 1, waves.size(),
+                    i == 0 && rolling.getCanaryCount() > 0 ? " (canary)" : "", wave.size());
+
+            int waveFailed = 0;
+            List<Future<AWSEBEnvironmentUpdaterThread>> results = pool.invokeAll(wave);
+            for (int j = 0; j < results.size(); j++) {
+                try {
+                    AWSEBEnvironmentUpdaterThread result = results.get(j).get();
+                    result.printResults();
+                    if (!result.isSuccessfull() && !result.isSuperseded()) {
+                        waveFailed++;
+                    }
+                } catch (Exception e) {
+                    AWSEBUtils.log(listener, "'%s': Unable to get results from update", wave.get(j).getEnvironmentName());
+                    e.printStackTrace(listener.getLogger());
+                    waveFailed++;
+                }
+            }
+            updated += wave.size();
+            failed += waveFailed;
+            AWSEBUtils.log(listener, "Wave %d/%d done: %d succeeded, %d failed, %d of %d environments updated so far",
+                    i + 1, waves.size(), wave.size() - waveFailed, waveFailed, updated, updaters.size());
+
+            if (i == waves.size() - 1) {
+                break;
+            }
+            if (failed * 100 > rolling.getMaxFailurePercent() * updated) {
+                AWSEBUtils.log(listener, "Halting the rollout, %d of %d updated environments failed (more than %d%%)",
+                        failed, updated, rolling.getMaxFailurePercent());
+                for (AWSEBEnvironmentUpdaterThread skipped : updaters.subList(updated, updaters.size())) {
+                    AWSEBUtils.log(listener, "'%s': Skipped, the rollout was halted", skipped.getEnvironmentName());
+                }
+                return false;
+            }
+            if (rolling.getPauseSeconds() > 0) {
+                AWSEBUtils.log(listener, "Pausing %d seconds before the next wave", rolling.getPauseSeconds());
+                Thread.sleep(TimeUnit.SECONDS.toMillis(rolling.getPauseSeconds()));
+            }
+        }
+        return failed == 0;
+    }
+}
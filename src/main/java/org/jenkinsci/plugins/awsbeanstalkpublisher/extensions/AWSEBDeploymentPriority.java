@@ -0,0 +1,56 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher.extensions;
+
+import hudson.Extension;
+import hudson.util.FormValidation;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+public class AWSEBDeploymentPriority extends AWSEBSetup {
+
+    @Extension
+    public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+
+    @DataBoundConstructor
+    public AWSEBDeploymentPriority(Integer priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Jobs with a higher priority get a deployment slot first when the global limit is reached.
+     */
+    private final Integer priority;
+
+    public int getPriority() {
+        return priority == null ? 0 : priority;
+    }
+
+    // Overridden for better type safety.
+    // If your plugin doesn't really define any property on Descriptor,
+    // you don't have to do this.
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return DESCRIPTOR;
+    }
+
+    public static DescriptorImpl getDesc() {
+        return DESCRIPTOR;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends AWSEBSetupDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Deployment priority";
+        }
+
+        public FormValidation doCheckPriority(@QueryParameter String value) {
+            try {
+                Integer.parseInt(value.trim());
+                return FormValidation.ok();
+            } catch (NumberFormatException e) {
+                return FormValidation.error("Not a number");
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher.extensions;
+
+import hudson.Extension;
+import hudson.util.FormValidation;
+
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+public class AWSEBDeploymentTimeout extends AWSEBSetup {
+
+    @Extension
+    public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+
+    @DataBoundConstructor
+    public AWSEBDeploymentTimeout(Integer deployTimeoutMinutes, Integer environmentTimeoutMinutes) {
+        this.deployTimeoutMinutes = deployTimeoutMinutes;
+        this.environmentTimeoutMinutes = environmentTimeoutMinutes;
+    }
+
+    /**
+     * Minutes the whole deployment may take, from the upload to the last environment being updated, 0 for no limit.
+     */
+    private final Integer deployTimeoutMinutes;
+
+    public int getDeployTimeoutMinutes() {
+        return deployTimeoutMinutes == null ? 0 : deployTimeoutMinutes;
+    }
+
+    /**
+     * Minutes a single environment may take to update, 0 for no limit.
+     */
+    private final Integer environmentTimeoutMinutes;
+
+    public int getEnvironmentTimeoutMinutes() {
+        return environmentTimeoutMinutes == null ? 0 : environmentTimeoutMinutes;
+    }
+
+    /**
+     * @return when a deployment starting now has to be done, 0 for never.
+     */
+    public long getDeployDeadline() {
+        return getDeployTimeoutMinutes() > 0 ? System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(getDeployTimeoutMinutes()) : 0;
+    }
+
+    public long getEnvironmentTimeoutMillis() {
+        return TimeUnit.MINUTES.toMillis(getEnvironmentTimeoutMinutes());
+    }
+
+    // Overridden for better type safety.
+    // If your plugin doesn't really define any property on Descriptor,
+    // you don't have to do this.
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return DESCRIPTOR;
+    }
+
+    public static DescriptorImpl getDesc() {
+        return DESCRIPTOR;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends AWSEBSetupDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Deployment timeouts";
+        }
+
+        public FormValidation doCheckDeployTimeoutMinutes(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckEnvironmentTimeoutMinutes(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+    }
+}
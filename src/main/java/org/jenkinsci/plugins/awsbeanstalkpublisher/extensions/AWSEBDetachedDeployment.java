@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher.extensions;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.util.FormValidation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jenkins.model.Jenkins;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+public class AWSEBDetachedDeployment extends AWSEBSetup {
+
+    @Extension
+    public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+
+    @DataBoundConstructor
+    public AWSEBDetachedDeployment(String downstreamProjects, String failureProject) {
+        this.downstreamProjects = downstreamProjects;
+        this.failureProject = failureProject;
+    }
+
+    /**
+     * Comma separated projects to build once all environments are updated.
+     */
+    private final String downstreamProjects;
+
+    /**
+     * Project whose build is failed when an environment fails to update.
+     */
+    private final String failureProject;
+
+    public String getDownstreamProjects() {
+        return downstreamProjects;
+    }
+
+    public String getFailureProject() {
+        return failureProject;
+    }
+
+    public List<String> getDownstreamProjectNames() {
+        return getProjectNames(downstreamProjects);
+    }
+
+    private static List<String> getProjectNames(String value) {
+        List<String> names = new ArrayList<String>();
+        if (!StringUtils.isBlank(value)) {
+            for (String name : value.split(",")) {
+                if (!StringUtils.isBlank(name)) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        return names;
+    }
+
+    // Overridden for better type safety.
+    // If your plugin doesn't really define any property on Descriptor,
+    // you don't have to do this.
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return DESCRIPTOR;
+    }
+
+    public static DescriptorImpl getDesc() {
+        return DESCRIPTOR;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends AWSEBSetupDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Don't wait for the environments";
+        }
+
+        public FormValidation doCheckDownstreamProjects(@QueryParameter String value) {
+            return checkProjects(value);
+        }
+
+        public FormValidation doCheckFailureProject(@QueryParameter String value) {
+            return checkProjects(value);
+        }
+
+        private FormValidation checkProjects(String value) {
+            for (String name : getProjectNames(value)) {
+                if (Jenkins.getInstance().getItemByFullName(name, AbstractProject.class) == null) {
+                    return FormValidation.warning("No such project: %s", name);
+                }
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -174,6 +174,11 @@ public class AWSEBElasticBeanstalkSetup extends AWSEBSetup {
         return updater.perform();
     }
 
+    @Override
+    protected String getLogPrefix(AbstractBuild<?, ?> build, BuildListener listener) {
+        return AWSEBUtils.getValue(build, listener, applicationName) + "/" + getAwsRegion(build, listener).getName();
+    }
+
     // Overridden for better type safety.
     // If your plugin doesn't really define any property on Descriptor,
     // you don't have to do this.
@@ -246,8 +251,14 @@ public class AWSEBElasticBeanstalkSetup extends AWSEBSetup {
         }
 
         public List<AWSEBSetupDescriptor> getExtensionDescriptors() {
-            List<AWSEBSetupDescriptor> extensions = new ArrayList<AWSEBSetupDescriptor>(1);
+            List<AWSEBSetupDescriptor> extensions = new ArrayList<AWSEBSetupDescriptor>(7);
             extensions.add(AWSEBS3Setup.getDesc());
+            extensions.add(AWSEBVersionRetention.getDesc());
+            extensions.add(AWSEBMultiRegion.getDesc());
+            extensions.add(AWSEBRollingDeployment.getDesc());
+            extensions.add(AWSEBDeploymentPriority.getDesc());
+            extensions.add(AWSEBDeploymentTimeout.getDesc());
+            extensions.add(AWSEBDetachedDeployment.getDesc());
             return extensions;
         }
         
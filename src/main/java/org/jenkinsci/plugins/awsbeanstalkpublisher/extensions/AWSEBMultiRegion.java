@@ -0,0 +1,107 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher.extensions;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.util.FormValidation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import com.amazonaws.regions.Regions;
+
+public class AWSEBMultiRegion extends AWSEBSetup {
+
+    @Extension
+    public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+
+    /**
+     * Additional regions, one per line, as region=bucket.
+     */
+    private final List<String> regionList;
+
+    @DataBoundConstructor
+    public AWSEBMultiRegion(String regionList) {
+        this.regionList = new ArrayList<String>();
+        if (!StringUtils.isEmpty(regionList)) {
+            for (String next : regionList.split("\n")) {
+                if (!next.trim().isEmpty()) {
+                    this.regionList.add(next.trim());
+                }
+            }
+        }
+    }
+
+    public String getRegionList() {
+        return regionList == null ? "" : StringUtils.join(regionList, '\n');
+    }
+
+    public boolean isEnabled() {
+        return regionList != null && !regionList.isEmpty();
+    }
+
+    /**
+     * @return the bucket to replicate the bundle into for every additional region, in the configured order.
+     *         The bucket is null when the line only names the region.
+     */
+    public Map<Regions, String> getRegions(AbstractBuild<?, ?> build, BuildListener listener) {
+        Map<Regions, String> regions = new LinkedHashMap<Regions, String>();
+        for (String line : regionList) {
+            String resolved = AWSEBUtils.replaceMacros(build, listener, line);
+            String bucket = null;
+            int equals = resolved.indexOf('=');
+            if (equals >= 0) {
+                bucket = StringUtils.trimToNull(resolved.substring(equals + 1));
+                resolved = resolved.substring(0, equals);
+            }
+            regions.put(Regions.fromName(resolved.trim()), bucket);
+        }
+        return regions;
+    }
+
+    // Overridden for better type safety.
+    // If your plugin doesn't really define any property on Descriptor,
+    // you don't have to do this.
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return DESCRIPTOR;
+    }
+
+    public static DescriptorImpl getDesc() {
+        return DESCRIPTOR;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends AWSEBSetupDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Deploy to additional regions";
+        }
+
+        public FormValidation doCheckRegionList(@QueryParameter String regionList) {
+            List<String> badRegions = new ArrayList<String>();
+            for (String line : StringUtils.defaultString(regionList).split("\n")) {
+                String region = StringUtils.substringBefore(line, "=").trim();
+                if (region.isEmpty() || region.contains("${")) {
+                    continue;
+                }
+                try {
+                    Regions.fromName(region);
+                } catch (IllegalArgumentException e) {
+                    badRegions.add(region);
+                }
+            }
+            if (badRegions.size() > 0) {
+                return FormValidation.error("Bad region names: %s", badRegions.toString());
+            }
+            return FormValidation.ok();
+        }
+    }
+}
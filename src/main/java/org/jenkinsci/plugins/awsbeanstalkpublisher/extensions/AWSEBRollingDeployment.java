@@ -0,0 +1,124 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher.extensions;
+
+import hudson.Extension;
+import hudson.util.FormValidation;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+public class AWSEBRollingDeployment extends AWSEBSetup {
+
+    @Extension
+    public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+
+    @DataBoundConstructor
+    public AWSEBRollingDeployment(Integer canaryCount, String batchSize, Integer pauseSeconds, Integer maxFailurePercent) {
+        this.canaryCount = canaryCount;
+        this.batchSize = StringUtils.trimToNull(batchSize);
+        this.pauseSeconds = pauseSeconds;
+        this.maxFailurePercent = maxFailurePercent;
+    }
+
+    /**
+     * Number of environments updated on their own before all others, 0 for no canary.
+     */
+    private final Integer canaryCount;
+
+    public int getCanaryCount() {
+        return canaryCount == null ? 0 : canaryCount;
+    }
+
+    /**
+     * Environments per wave after the canary, either a count or a percentage of all environments, eg. 25%.
+     * Empty updates all of them in one wave.
+     */
+    private final String batchSize;
+
+    public String getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Seconds to wait between waves.
+     */
+    private final Integer pauseSeconds;
+
+    public int getPauseSeconds() {
+        return pauseSeconds == null ? 0 : pauseSeconds;
+    }
+
+    /**
+     * The rollout stops once more than this percentage of the environments updated so far failed.
+     */
+    private final Integer maxFailurePercent;
+
+    public int getMaxFailurePercent() {
+        return maxFailurePercent == null ? 0 : maxFailurePercent;
+    }
+
+    public boolean isEnabled() {
+        return getCanaryCount() > 0 || batchSize != null;
+    }
+
+    /**
+     * @return the number of environments per wave after the canary, at least 1.
+     */
+    public int getBatchSize(int environmentCount) {
+        if (batchSize == null) {
+            return Math.max(1, environmentCount);
+        }
+        if (batchSize.endsWith("%")) {
+            int percent = Integer.parseInt(batchSize.substring(0, batchSize.length() - 1).trim());
+            return Math.max(1, (environmentCount * percent + 99) / 100);
+        }
+        return Math.max(1, Integer.parseInt(batchSize));
+    }
+
+    // Overridden for better type safety.
+    // If your plugin doesn't really define any property on Descriptor,
+    // you don't have to do this.
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return DESCRIPTOR;
+    }
+
+    public static DescriptorImpl getDesc() {
+        return DESCRIPTOR;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends AWSEBSetupDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Deploy to environments in waves";
+        }
+
+        public FormValidation doCheckCanaryCount(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckBatchSize(@QueryParameter String value) {
+            String batchSize = StringUtils.trimToEmpty(value);
+            if (batchSize.isEmpty()) {
+                return FormValidation.ok();
+            }
+            if (batchSize.endsWith("%")) {
+                String percent = batchSize.substring(0, batchSize.length() - 1).trim();
+                if (!StringUtils.isNumeric(percent) || percent.isEmpty() || Integer.parseInt(percent) < 1 || Integer.parseInt(percent) > 100) {
+                    return FormValidation.error("Percentage should be between 1% and 100%");
+                }
+                return FormValidation.ok();
+            }
+            return FormValidation.validatePositiveInteger(batchSize);
+        }
+
+        public FormValidation doCheckPauseSeconds(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckMaxFailurePercent(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+    }
+}
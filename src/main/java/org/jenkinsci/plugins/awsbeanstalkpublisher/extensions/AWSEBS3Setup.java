@@ -1,11 +1,13 @@
 package org.jenkinsci.plugins.awsbeanstalkpublisher.extensions;
 
 import hudson.Extension;
+import hudson.util.FormValidation;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
 
 public class AWSEBS3Setup extends AWSEBSetup {
 
@@ -13,13 +15,18 @@ public class AWSEBS3Setup extends AWSEBSetup {
     public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
 
     @DataBoundConstructor
-    public AWSEBS3Setup(String bucketName, String keyPrefix, String rootObject, String includes, String excludes, Boolean overwriteExistingFile) {
+    public AWSEBS3Setup(String bucketName, String keyPrefix, String rootObject, String includes, String excludes, Boolean overwriteExistingFile, String copySource, Integer uploadLimitKBps, 
+            Boolean useAccelerateEndpoint, Boolean useDualstackEndpoint) {
         this.bucketName = bucketName;
         this.keyPrefix = keyPrefix;
         this.rootObject = rootObject;
         this.overwriteExistingFile = overwriteExistingFile == null ? false : overwriteExistingFile;
         this.includes = includes;
         this.excludes = excludes;
+        this.copySource = copySource;
+        this.uploadLimitKBps = uploadLimitKBps;
+        this.useAccelerateEndpoint = useAccelerateEndpoint;
+        this.useDualstackEndpoint = useDualstackEndpoint;
     }
 
     /**
@@ -64,6 +71,48 @@ public class AWSEBS3Setup extends AWSEBSetup {
         return (overwriteExistingFile == null ? false : overwriteExistingFile);
     }
 
+    /**
+     * Existing bundle to copy instead of uploading the rootObject,
+     * either s3://bucket/key or [applicationName/]versionLabel of an existing application version.
+     */
+    private final String copySource;
+
+    public String getCopySource() {
+        return copySource;
+    }
+
+    /**
+     * Bandwidth for this setup's uploads, on top of the global limit. 0 to only use the global limit.
+     */
+    private final Integer uploadLimitKBps;
+
+    public int getUploadLimitKBps() {
+        return uploadLimitKBps == null ? 0 : uploadLimitKBps;
+    }
+
+    /**
+     * Upload through S3 Transfer Acceleration, the bucket needs to have it enabled.
+     */
+    private final Boolean useAccelerateEndpoint;
+
+    public boolean isUseAccelerateEndpoint() {
+        return (useAccelerateEndpoint == null ? false : useAccelerateEndpoint);
+    }
+
+    private final Boolean useDualstackEndpoint;
+
+    public boolean isUseDualstackEndpoint() {
+        return (useDualstackEndpoint == null ? false : useDualstackEndpoint);
+    }
+
+    /**
+     * @return a copy of this setup that copies the given bundle into another bucket, eg. in another region.
+     */
+    public AWSEBS3Setup withCopySource(String bucketName, String copySource) {
+        return new AWSEBS3Setup(bucketName, keyPrefix, rootObject, includes, excludes, overwriteExistingFile, 
+                copySource, uploadLimitKBps, useAccelerateEndpoint, useDualstackEndpoint);
+    }
+
     // Overridden for better type safety.
     // If your plugin doesn't really define any property on Descriptor,
     // you don't have to do this.
@@ -88,5 +137,9 @@ public class AWSEBS3Setup extends AWSEBSetup {
             extensions.add(AWSEBS3Setup.getDesc());
             return extensions;
         }
+
+        public FormValidation doCheckUploadLimitKBps(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
     }
 }
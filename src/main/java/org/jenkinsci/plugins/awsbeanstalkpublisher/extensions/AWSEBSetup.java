@@ -1,6 +1,12 @@
 package org.jenkinsci.plugins.awsbeanstalkpublisher.extensions;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 import hudson.Launcher;
@@ -8,22 +14,98 @@ import hudson.model.AbstractDescribableImpl;
 import hudson.model.BuildListener;
 import hudson.model.AbstractBuild;
 
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBBuildMetrics;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBPrefixedOutputStream;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBSharedBundles;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBUtils;
+
 public abstract class AWSEBSetup extends AbstractDescribableImpl<AWSEBSetup> {
 
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws Exception{
         return true;
     }
 
-    public static boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, List<AWSEBSetup> extensions){
+    public static boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, List<AWSEBSetup> extensions) throws InterruptedException {
         boolean status = true;
         try {
             for (AWSEBSetup eb : extensions) {
                 status &= eb.perform(build, launcher, listener);
             }
             return status;
+        } catch (InterruptedException exc) {
+            // The build was aborted.
+            throw exc;
         } catch (Exception exc) {
             throw new RuntimeException(exc);
         }
     }
-    
+
+    /**
+     * Runs up to maxParallel setups at the same time, each logging with its own prefix.
+     * Errors are handled like when they run one after the other: the others are let finish,
+     * then the first setup that threw, in the configured order, fails the step.
+     */
+    public static boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, List<AWSEBSetup> extensions, int maxParallel) throws InterruptedException {
+        try {
+            return performParallel(build, launcher, listener, extensions, maxParallel);
+        } finally {
+            AWSEBSharedBundles.forget(build);
+            AWSEBBuildMetrics.forBuild(build).publish(build, launcher, listener);
+        }
+    }
+
+    private static boolean performParallel(final AbstractBuild<?, ?> build, final Launcher launcher, BuildListener listener, List<AWSEBSetup> extensions, int maxParallel) throws InterruptedException {
+        if (maxParallel <= 1 || extensions.size() <= 1) {
+            return perform(build, launcher, listener, extensions);
+        }
+
+        List<Callable<Boolean>> setups = new ArrayList<Callable<Boolean>>(extensions.size());
+        for (final AWSEBSetup eb : extensions) {
+            final BuildListener prefixed = AWSEBPrefixedOutputStream.getListener(listener, eb.getLogPrefix(build, listener));
+            setups.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    try {
+                        return eb.perform(build, launcher, prefixed);
+                    } finally {
+                        // Writes out a last line that has no line break.
+                        prefixed.getLogger().close();
+                    }
+                }
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(maxParallel, extensions.size()));
+        try {
+            List<Future<Boolean>> results = pool.invokeAll(setups);
+            boolean status = true;
+            Throwable failure = null;
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    status &= results.get(i).get();
+                } catch (ExecutionException e) {
+                    AWSEBUtils.log(listener, "%s failed: %s", extensions.get(i).getLogPrefix(build, listener), e.getCause());
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            if (failure instanceof InterruptedException) {
+                throw (InterruptedException) failure;
+            } else if (failure != null) {
+                throw new RuntimeException(failure);
+            }
+            return status;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return how this setup's lines in the build log are prefixed when setups run in parallel.
+     */
+    protected String getLogPrefix(AbstractBuild<?, ?> build, BuildListener listener) {
+        return getDescriptor().getDisplayName();
+    }
+
 }
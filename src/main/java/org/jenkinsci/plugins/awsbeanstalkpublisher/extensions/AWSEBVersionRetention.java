@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher.extensions;
+
+import hudson.Extension;
+import hudson.util.FormValidation;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+public class AWSEBVersionRetention extends AWSEBSetup {
+
+    @Extension
+    public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+
+    @DataBoundConstructor
+    public AWSEBVersionRetention(Integer keepVersions, Integer keepDays) {
+        this.keepVersions = keepVersions;
+        this.keepDays = keepDays;
+    }
+
+    /**
+     * Number of most recent versions to always keep, 0 to ignore.
+     */
+    private final Integer keepVersions;
+
+    public int getKeepVersions() {
+        return keepVersions == null ? 0 : keepVersions;
+    }
+
+    /**
+     * Versions younger than this many days are always kept, 0 to ignore.
+     */
+    private final Integer keepDays;
+
+    public int getKeepDays() {
+        return keepDays == null ? 0 : keepDays;
+    }
+
+    public boolean isEnabled() {
+        return getKeepVersions() > 0 || getKeepDays() > 0;
+    }
+
+    // Overridden for better type safety.
+    // If your plugin doesn't really define any property on Descriptor,
+    // you don't have to do this.
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return DESCRIPTOR;
+    }
+
+    public static DescriptorImpl getDesc() {
+        return DESCRIPTOR;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends AWSEBSetupDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Prune old application versions";
+        }
+
+        public FormValidation doCheckKeepVersions(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckKeepDays(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+    }
+}
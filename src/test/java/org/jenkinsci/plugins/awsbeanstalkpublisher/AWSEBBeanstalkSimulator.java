@@ -0,0 +1,300 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonServiceException.ErrorType;
+import com.amazonaws.services.elasticbeanstalk.AbstractAWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsResult;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEventsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEventsResult;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EventDescription;
+import com.amazonaws.services.elasticbeanstalk.model.UpdateEnvironmentRequest;
+import com.amazonaws.services.elasticbeanstalk.model.UpdateEnvironmentResult;
+
+/**
+ * Elastic Beanstalk environments in memory, running on an {@link AWSEBVirtualClock}.
+ *
+ * An update takes the environment from Ready to Updating and back, logging events on the way, after a
+ * deployment time picked at random between the min and max. Describe calls can be throttled at random,
+ * updates can fail before they start or be rolled back. The same seed gives the same run.
+ */
+public class AWSEBBeanstalkSimulator extends AbstractAWSElasticBeanstalk {
+
+    // Environment ids are unique across simulations, AWSEBEnvironmentLock keeps its locks by id.
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final AWSEBVirtualClock clock;
+    private final Random random;
+    private final Map<String, Environment> environments = new LinkedHashMap<String, Environment>();
+    private final Set<String> versions = new HashSet<String>();
+    private final Map<String, Integer> calls = new TreeMap<String, Integer>();
+    private double throttleRate;
+    private int throttled;
+    private int updating;
+    private int maxUpdating;
+    private long minDeployMillis = 60 * 1000;
+    private long maxDeployMillis = 5 * 60 * 1000;
+
+    public AWSEBBeanstalkSimulator(AWSEBVirtualClock clock, long seed) {
+        this.clock = clock;
+        this.random = new Random(seed);
+    }
+
+    public Environment addEnvironment(String name, String versionLabel) {
+        versions.add(versionLabel);
+        Environment environment = new Environment(String.format("e-%08d", ids.incrementAndGet()), name, versionLabel);
+        environments.put(environment.id, environment);
+        environment.log("INFO", "createEnvironment completed successfully.");
+        return environment;
+    }
+
+    public void addVersion(String versionLabel) {
+        versions.add(versionLabel);
+    }
+
+    /**
+     * @param rate the share of the describe calls to throttle, between 0 and 1.
+     */
+    public void setThrottleRate(double rate) {
+        this.throttleRate = rate;
+    }
+
+    public void setDeployMillis(long min, long max) {
+        this.minDeployMillis = min;
+        this.maxDeployMillis = max;
+    }
+
+    /**
+     * @param operation eg. <code>UpdateEnvironment</code>.
+     * @return how many times it was called, throttled and failed calls included.
+     */
+    public int getCalls(String operation) {
+        Integer count = calls.get(operation);
+        return count == null ? 0 : count;
+    }
+
+    public int getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @return the most environments that were updating at the same time.
+     */
+    public int getMaxUpdating() {
+        return maxUpdating;
+    }
+
+    @Override
+    public DescribeEnvironmentsResult describeEnvironments(DescribeEnvironmentsRequest request) {
+        call("DescribeEnvironments");
+        List<EnvironmentDescription> found = new ArrayList<EnvironmentDescription>();
+        for (String id : request.getEnvironmentIds()) {
+            Environment environment = environments.get(id);
+            if (environment != null) {
+                environment.throttleMaybe();
+                found.add(environment.describe());
+            }
+        }
+        return new DescribeEnvironmentsResult().withEnvironments(found);
+    }
+
+    @Override
+    public DescribeEventsResult describeEvents(DescribeEventsRequest request) {
+        call("DescribeEvents");
+        Environment environment = getEnvironment(request.getEnvironmentId());
+        environment.throttleMaybe();
+        List<EventDescription> events = new ArrayList<EventDescription>();
+        // Newest first, like AWS.
+        for (int i = environment.events.size() - 1; i >= 0; i--) {
+            EventDescription event = environment.events.get(i);
+            if (request.getStartTime() != null && event.getEventDate().before(request.getStartTime())) {
+                break;
+            }
+            if (request.getMaxRecords() != null && events.size() >= request.getMaxRecords()) {
+                break;
+            }
+            events.add(event.clone());
+        }
+        return new DescribeEventsResult().withEvents(events);
+    }
+
+    @Override
+    public UpdateEnvironmentResult updateEnvironment(UpdateEnvironmentRequest request) {
+        call("UpdateEnvironment");
+        final Environment environment = getEnvironment(request.getEnvironmentId());
+        final String versionLabel = request.getVersionLabel();
+        environment.updateCalls++;
+        if (environment.failingUpdates > 0) {
+            environment.failingUpdates--;
+            throw error("InternalFailure", "We encountered an internal error. Please try again.", 500, ErrorType.Service);
+        }
+        if (!versions.contains(versionLabel)) {
+            throw error("InvalidParameterValue", String.format("No Application Version named '%s' found.", versionLabel), 400, ErrorType.Client);
+        }
+        if (!"Ready".equals(environment.status)) {
+            throw error("InvalidParameterValue", String.format("Environment named %s is in an invalid state for this operation. Must be Ready.",
+                    environment.name), 400, ErrorType.Client);
+        }
+
+        environment.status = "Updating";
+        maxUpdating = Math.max(maxUpdating, ++updating);
+        environment.log("INFO", "Environment update is starting.");
+        long deployMillis = minDeployMillis + (long) (random.nextDouble() * (maxDeployMillis - minDeployMillis));
+        environment.deployMillis = deployMillis;
+        clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                environment.log("INFO", "Deploying new version to instance(s).");
+            }
+        }, deployMillis / 2);
+        clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (environment.failDeployment) {
+                    environment.log("ERROR", "Failed to deploy application.");
+                    environment.log("INFO", "Environment update completed, the previous version was restored.");
+                } else {
+                    environment.versionLabel = versionLabel;
+                    environment.log("INFO", "New application version was deployed to running EC2 instances.");
+                    environment.log("INFO", "Environment update completed successfully.");
+                }
+                environment.status = "Ready";
+                updating--;
+                environment.readyAt = clock.currentTimeMillis();
+            }
+        }, deployMillis);
+        return new UpdateEnvironmentResult().withEnvironmentId(environment.id).withEnvironmentName(environment.name)
+                .withStatus(environment.status).withVersionLabel(environment.versionLabel);
+    }
+
+    private Environment getEnvironment(String id) {
+        Environment environment = environments.get(id);
+        if (environment == null) {
+            throw error("InvalidParameterValue", String.format("No Environment found for EnvironmentId = '%s'.", id), 400, ErrorType.Client);
+        }
+        return environment;
+    }
+
+    private void call(String operation) {
+        calls.put(operation, getCalls(operation) + 1);
+    }
+
+    private static AmazonServiceException error(String code, String message, int status, ErrorType type) {
+        AmazonServiceException e = new AmazonServiceException(message);
+        e.setServiceName("AWSElasticBeanstalk");
+        e.setErrorCode(code);
+        e.setStatusCode(status);
+        e.setErrorType(type);
+        return e;
+    }
+
+    public class Environment {
+        private final String id;
+        private final String name;
+        private final List<EventDescription> events = new ArrayList<EventDescription>();
+        private String status = "Ready";
+        private String versionLabel;
+        private int failingUpdates;
+        private boolean failDeployment;
+        private int updateCalls;
+        private int throttledCalls;
+        private long deployMillis;
+        private long readyAt;
+
+        private Environment(String id, String name, String versionLabel) {
+            this.id = id;
+            this.name = name;
+            this.versionLabel = versionLabel;
+        }
+
+        public EnvironmentDescription describe() {
+            return new EnvironmentDescription().withEnvironmentId(id).withEnvironmentName(name)
+                    .withStatus(status).withVersionLabel(versionLabel);
+        }
+
+        /**
+         * The next updates fail with an internal error, before anything happens.
+         */
+        public void failNextUpdates(int count) {
+            failingUpdates = count;
+        }
+
+        /**
+         * Updates go through, but end with the previous version restored.
+         */
+        public void failDeployment() {
+            failDeployment = true;
+        }
+
+        private void throttleMaybe() {
+            if (throttleRate > 0 && random.nextDouble() < throttleRate) {
+                throttled++;
+                throttledCalls++;
+                throw error("Throttling", "Rate exceeded", 400, ErrorType.Client);
+            }
+        }
+
+        private void log(String severity, String message) {
+            events.add(new EventDescription().withEventDate(new Date(clock.currentTimeMillis())).withEnvironmentName(name)
+                    .withSeverity(severity).withMessage(message));
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getVersionLabel() {
+            return versionLabel;
+        }
+
+        public int getUpdateCalls() {
+            return updateCalls;
+        }
+
+        /**
+         * @return describe calls about this environment that were throttled.
+         */
+        public int getThrottledCalls() {
+            return throttledCalls;
+        }
+
+        /**
+         * @return how long the last update took to deploy.
+         */
+        public long getDeployMillis() {
+            return deployMillis;
+        }
+
+        /**
+         * @return when the last update was done, 0 if none was.
+         */
+        public long getReadyAt() {
+            return readyAt;
+        }
+
+        public List<EventDescription> getEvents() {
+            return Collections.unmodifiableList(events);
+        }
+    }
+}
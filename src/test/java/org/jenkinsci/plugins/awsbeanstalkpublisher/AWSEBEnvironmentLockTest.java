@@ -0,0 +1,201 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AWSEBEnvironmentLockTest {
+
+    private AWSEBEnvironmentLock lock;
+
+    @Before
+    public void setUp() {
+        // Locks live for the whole JVM, every test gets its own environment.
+        lock = AWSEBEnvironmentLock.forEnvironment(UUID.randomUUID().toString());
+    }
+
+    @Test
+    public void latestWaitingBuildSupersedesTheOthers() throws Exception {
+        AWSEBEnvironmentLock.Ticket first = lock.enqueue("job #1", 1);
+        AWSEBEnvironmentLock.Ticket second = lock.enqueue("job #2", 2);
+        AWSEBEnvironmentLock.Ticket third = lock.enqueue("job #3", 3);
+
+        assertTrue(first.await());
+        assertNull(first.getHolder());
+        assertFalse(second.await());
+        assertEquals("job #3", second.getSupersededBy());
+        assertEquals("job #1", third.getHolder());
+        assertFalse(third.isDone());
+
+        first.release();
+        assertTrue(third.await());
+        assertNull(third.getSupersededBy());
+    }
+
+    @Test
+    public void olderBuildNeverSupersedesANewerOne() throws Exception {
+        AWSEBEnvironmentLock.Ticket holder = lock.enqueue("job #1", 1);
+        AWSEBEnvironmentLock.Ticket newer = lock.enqueue("job #3", 3);
+        AWSEBEnvironmentLock.Ticket older = lock.enqueue("job #2", 2);
+
+        assertFalse(older.await());
+        assertEquals("job #3", older.getSupersededBy());
+        assertNull(newer.getSupersededBy());
+
+        holder.release();
+        assertTrue(newer.await());
+    }
+
+    @Test
+    public void olderBuildDoesNotDeployAfterTheHolder() throws Exception {
+        AWSEBEnvironmentLock.Ticket holder = lock.enqueue("job #3", 3);
+        AWSEBEnvironmentLock.Ticket older = lock.enqueue("job #2", 2);
+
+        assertFalse(older.await());
+        assertEquals("job #3", older.getSupersededBy());
+        holder.release();
+
+        AWSEBEnvironmentLock.Ticket again = lock.enqueue("job #3", 3);
+        assertTrue(again.await());
+    }
+
+    @Test
+    public void buildsStartedTogetherGoInTheOrderTheyArrive() throws Exception {
+        AWSEBEnvironmentLock.Ticket holder = lock.enqueue("job #1", 1);
+        AWSEBEnvironmentLock.Ticket first = lock.enqueue("other #1", 1);
+        AWSEBEnvironmentLock.Ticket second = lock.enqueue("another #1", 1);
+
+        assertEquals("another #1", first.getSupersededBy());
+        holder.release();
+        assertTrue(second.await());
+    }
+
+    @Test
+    public void givesUpAtTheDeadline() throws Exception {
+        AWSEBEnvironmentLock.Ticket holder = lock.enqueue("job #1", 1);
+        AWSEBEnvironmentLock.Ticket waiting = lock.enqueue("job #2", 2);
+
+        assertFalse(waiting.await(System.currentTimeMillis() + 50));
+        assertNull(waiting.getSupersededBy());
+
+        // Left the queue, the next build gets the environment.
+        holder.release();
+        AWSEBEnvironmentLock.Ticket next = lock.enqueue("job #3", 3);
+        assertTrue(next.await(System.currentTimeMillis() + 50));
+    }
+
+    @Test
+    public void takesTheDeadlineFromTheClock() throws Exception {
+        lock.enqueue("job #1", 1);
+        AWSEBEnvironmentLock.Ticket waiting = lock.enqueue("job #2", 2);
+        long tomorrow = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+        AWSEBVirtualClock clock = new AWSEBVirtualClock(tomorrow + TimeUnit.DAYS.toMillis(1));
+
+        // Already gone for the clock of the update, a day away for the system's.
+        assertFalse(waiting.await(tomorrow, clock));
+        assertNull(waiting.getSupersededBy());
+    }
+
+    @Test
+    public void interruptedWaiterLeavesTheQueue() throws Exception {
+        AWSEBEnvironmentLock.Ticket holder = lock.enqueue("job #1", 1);
+        AWSEBEnvironmentLock.Ticket waiting = lock.enqueue("job #2", 2);
+
+        Thread.currentThread().interrupt();
+        try {
+            waiting.await();
+            fail("Should have been interrupted");
+        } catch (InterruptedException e) {
+            // expected
+        }
+
+        holder.release();
+        assertNull(holder.getHolder());
+        assertTrue(lock.enqueue("job #3", 3).await());
+    }
+
+    @Test
+    public void interruptAfterGettingTheLockReleasesIt() throws Exception {
+        final AWSEBEnvironmentLock.Ticket holder = lock.enqueue("job #1", 1);
+        final AWSEBEnvironmentLock.Ticket waiting = lock.enqueue("job #2", 2);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    waiting.await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        };
+        synchronized (lock) {
+            waiter.start();
+            while (waiter.getState() != Thread.State.WAITING) {
+                lock.wait(10);
+            }
+            waiter.interrupt();
+            // Still in our hands, the waiter wakes up interrupted only once it holds the lock.
+            Thread.sleep(100);
+            holder.release();
+        }
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+
+        assertTrue(lock.enqueue("job #3", 3).await(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10)));
+    }
+
+    @Test
+    public void forgetsTheEnvironmentOnceFree() throws Exception {
+        String environmentId = UUID.randomUUID().toString();
+        AWSEBEnvironmentLock free = AWSEBEnvironmentLock.forEnvironment(environmentId);
+        AWSEBEnvironmentLock.Ticket holder = free.enqueue("job #1", 1);
+        AWSEBEnvironmentLock.Ticket waiting = free.enqueue("job #2", 2);
+
+        holder.release();
+        assertSame(free, AWSEBEnvironmentLock.forEnvironment(environmentId));
+        assertTrue(waiting.await());
+        waiting.release();
+        AWSEBEnvironmentLock current = AWSEBEnvironmentLock.forEnvironment(environmentId);
+        assertNotSame(free, current);
+
+        // Whoever still has the old lock queues with everyone else.
+        AWSEBEnvironmentLock.Ticket late = free.enqueue("job #3", 3);
+        AWSEBEnvironmentLock.Ticket other = current.enqueue("job #4", 4);
+        assertTrue(late.await());
+        assertEquals("job #3", other.getHolder());
+    }
+
+    @Test
+    public void resumedUpdateHoldsTheLockBeforeAnyBuild() throws Exception {
+        AWSEBEnvironmentLock.Ticket resumed = lock.hold("the update to v1");
+        AWSEBEnvironmentLock.Ticket waiting = lock.enqueue("job #2", 2);
+
+        assertEquals("the update to v1", waiting.getHolder());
+        assertNull(lock.hold("the update to v0"));
+        assertFalse(waiting.isDone());
+
+        resumed.release();
+        assertTrue(waiting.await());
+    }
+
+    @Test
+    public void noHolderOnceReleased() throws Exception {
+        AWSEBEnvironmentLock.Ticket holder = lock.enqueue("job #1", 1);
+        AWSEBEnvironmentLock.Ticket superseded = lock.enqueue("job #0", 0);
+        holder.release();
+
+        assertNull(superseded.getHolder());
+    }
+}
@@ -0,0 +1,235 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import hudson.model.StreamBuildListener;
+import hudson.model.TaskListener;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.regions.Regions;
+
+/**
+ * Runs {@link AWSEBEnvironmentUpdaterThread}s against {@link AWSEBBeanstalkSimulator} in virtual time,
+ * so deployments that would take many minutes of 30 second waits are done in a blink.
+ */
+public class AWSEBEnvironmentUpdaterSimulationTest {
+
+    private static final long POLL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final int MAX_TASKS = 1000000;
+
+    private AWSEBVirtualClock clock;
+    private AWSEBBeanstalkSimulator beanstalk;
+    private TaskListener listener;
+    private final Map<String, Long> doneAt = new HashMap<String, Long>();
+    private int done;
+
+    @Before
+    public void setUp() {
+        clock = new AWSEBVirtualClock(TimeUnit.DAYS.toMillis(17000));
+        beanstalk = new AWSEBBeanstalkSimulator(clock, 42);
+        listener = new StreamBuildListener(new NullOutputStream(), Charset.forName("UTF-8"));
+    }
+
+    @Test
+    public void deploysFiveHundredEnvironments() {
+        beanstalk.addVersion("v2");
+        List<AWSEBBeanstalkSimulator.Environment> environments = new ArrayList<AWSEBBeanstalkSimulator.Environment>();
+        List<AWSEBEnvironmentUpdaterThread> updates = new ArrayList<AWSEBEnvironmentUpdaterThread>();
+        for (int i = 0; i < 500; i++) {
+            AWSEBBeanstalkSimulator.Environment environment = beanstalk.addEnvironment(String.format("web-%s", i), "v1");
+            environments.add(environment);
+            updates.add(update(environment, "v2", "job #2"));
+        }
+        beanstalk.setThrottleRate(0.03);
+        long started = clock.currentTimeMillis();
+
+        watchAll(updates);
+
+        assertTrue(clock.currentTimeMillis() - started >= TimeUnit.MINUTES.toMillis(5));
+
+        long minPolls = 0;
+        for (int i = 0; i < environments.size(); i++) {
+            AWSEBBeanstalkSimulator.Environment environment = environments.get(i);
+            AWSEBEnvironmentUpdaterThread update = updates.get(i);
+            assertTrue(update.getStatus(), update.isSuccessfull());
+            assertEquals("v2", environment.getVersionLabel());
+            assertEquals("Ready", environment.getStatus());
+            assertEquals(1, environment.getUpdateCalls());
+
+            // Seen within a check of being ready, a throttled check pushes it to the next one.
+            long lag = doneAt.get(environment.getName()) - environment.getReadyAt();
+            assertTrue(String.format("%s was seen %sms after it was ready", environment.getName(), lag),
+                    lag >= 0 && lag < POLL_MILLIS * (1 + environment.getThrottledCalls()));
+
+            // One check right after sending the update, then one every 30 seconds until it's ready.
+            minPolls += 1 + (environment.getDeployMillis() + POLL_MILLIS - 1) / POLL_MILLIS;
+        }
+
+        assertEquals(500, beanstalk.getCalls("UpdateEnvironment"));
+        assertTrue(beanstalk.getThrottled() > 0);
+        int polls = beanstalk.getCalls("DescribeEnvironments");
+        assertTrue(String.format("%s checks, %s expected", polls, minPolls), polls >= minPolls && polls <= minPolls + beanstalk.getThrottled());
+        // One more for each environment, the last event before the update.
+        assertEquals(polls + 500, beanstalk.getCalls("DescribeEvents"));
+    }
+
+    @Test
+    public void reportsFailedUpdates() {
+        beanstalk.addVersion("v2");
+        AWSEBBeanstalkSimulator.Environment flaky = beanstalk.addEnvironment("flaky", "v1");
+        flaky.failNextUpdates(2);
+        AWSEBBeanstalkSimulator.Environment broken = beanstalk.addEnvironment("broken", "v1");
+        broken.failNextUpdates(100);
+        AWSEBBeanstalkSimulator.Environment rolledBack = beanstalk.addEnvironment("rolled-back", "v1");
+        rolledBack.failDeployment();
+        AWSEBBeanstalkSimulator.Environment missingVersion = beanstalk.addEnvironment("missing-version", "v1");
+
+        AWSEBEnvironmentUpdaterThread flakyUpdate = update(flaky, "v2", "job #2");
+        AWSEBEnvironmentUpdaterThread brokenUpdate = update(broken, "v2", "job #2");
+        AWSEBEnvironmentUpdaterThread rolledBackUpdate = update(rolledBack, "v2", "job #2");
+        AWSEBEnvironmentUpdaterThread missingVersionUpdate = update(missingVersion, "v3", "job #2");
+        watchAll(Arrays.asList(flakyUpdate, brokenUpdate, rolledBackUpdate, missingVersionUpdate));
+
+        // Sent again on the next checks until it goes through.
+        assertTrue(flakyUpdate.getStatus(), flakyUpdate.isSuccessfull());
+        assertEquals(3, flaky.getUpdateCalls());
+        assertEquals("v2", flaky.getVersionLabel());
+
+        assertFalse(brokenUpdate.isSuccessfull());
+        assertEquals("'broken': Failed to be updated!!", brokenUpdate.getStatus());
+        assertEquals(7, broken.getUpdateCalls());
+
+        assertFalse(rolledBackUpdate.isSuccessfull());
+        assertEquals("v1", rolledBack.getVersionLabel());
+        assertTrue(doneAt.get("rolled-back") >= rolledBack.getReadyAt());
+
+        assertFalse(missingVersionUpdate.isSuccessfull());
+        assertEquals(1, missingVersion.getUpdateCalls());
+        assertEquals("v1", missingVersion.getVersionLabel());
+    }
+
+    @Test
+    public void latestBuildWinsTheEnvironment() {
+        beanstalk.addVersion("v2");
+        beanstalk.addVersion("v3");
+        beanstalk.addVersion("v4");
+        AWSEBBeanstalkSimulator.Environment environment = beanstalk.addEnvironment("web", "v1");
+        AWSEBEnvironmentUpdaterThread first = update(environment, "v2", "job #2", 2000);
+        // The newer build asks first, the older one arrives late and must not deploy after it.
+        AWSEBEnvironmentUpdaterThread newest = update(environment, "v4", "job #4", 4000);
+        AWSEBEnvironmentUpdaterThread late = update(environment, "v3", "job #3", 3000);
+
+        watchAll(Arrays.asList(first, newest, late));
+
+        assertTrue(first.isSuccessfull());
+        assertTrue(newest.getStatus(), newest.isSuccessfull());
+        assertTrue(late.isSuperseded());
+        assertEquals("'web': Superseded by job #4, not updated.", late.getStatus());
+        assertEquals(2, environment.getUpdateCalls());
+        assertEquals("v4", environment.getVersionLabel());
+    }
+
+    @Test
+    public void pollingHoldsADeploymentSlotUntilDone() {
+        beanstalk.addVersion("v2");
+        List<AWSEBBeanstalkSimulator.Environment> environments = new ArrayList<AWSEBBeanstalkSimulator.Environment>();
+        List<AWSEBEnvironmentUpdaterThread> updates = new ArrayList<AWSEBEnvironmentUpdaterThread>();
+        AWSEBDeploymentLimiter.setLimit(2);
+        try {
+            // A region of its own, limiters are shared by the whole JVM.
+            AWSEBDeploymentLimiter.Slots slots = AWSEBDeploymentLimiter.forAccount(null, Regions.SA_EAST_1).forJob("job", 0);
+            for (int i = 0; i < 6; i++) {
+                AWSEBBeanstalkSimulator.Environment environment = beanstalk.addEnvironment(String.format("web-%s", i), "v1");
+                environments.add(environment);
+                updates.add(new AWSEBEnvironmentUpdaterThread(beanstalk, environment.describe(), listener, "v2", "job #2", slots).withClock(clock));
+            }
+
+            watchAll(updates);
+        } finally {
+            AWSEBDeploymentLimiter.setLimit(0);
+        }
+
+        assertEquals(2, beanstalk.getMaxUpdating());
+        for (int i = 0; i < environments.size(); i++) {
+            assertTrue(updates.get(i).getStatus(), updates.get(i).isSuccessfull());
+            assertEquals("v2", environments.get(i).getVersionLabel());
+        }
+    }
+
+    @Test
+    public void waitsInVirtualTime() throws Exception {
+        beanstalk.addVersion("v2");
+        beanstalk.setDeployMillis(TimeUnit.MINUTES.toMillis(10), TimeUnit.MINUTES.toMillis(10));
+        AWSEBBeanstalkSimulator.Environment environment = beanstalk.addEnvironment("web", "v1");
+        long started = clock.currentTimeMillis();
+
+        AWSEBEnvironmentUpdaterThread update = update(environment, "v2", "job #2").call();
+
+        assertTrue(update.getStatus(), update.isSuccessfull());
+        assertEquals(started + TimeUnit.MINUTES.toMillis(10), clock.currentTimeMillis());
+        assertEquals(1 + TimeUnit.MINUTES.toMillis(10) / POLL_MILLIS, beanstalk.getCalls("DescribeEnvironments"));
+    }
+
+    @Test
+    public void waitingForATaskRunsTheClock() throws Exception {
+        final List<Long> ranAt = new ArrayList<Long>();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                ranAt.add(clock.currentTimeMillis());
+            }
+        };
+        long started = clock.currentTimeMillis();
+        Future<?> later = clock.schedule(task, POLL_MILLIS * 2);
+        Future<?> sooner = clock.schedule(task, POLL_MILLIS);
+
+        later.get();
+
+        assertTrue(sooner.isDone());
+        assertEquals(Arrays.asList(started + POLL_MILLIS, started + POLL_MILLIS * 2), ranAt);
+        try {
+            clock.schedule(task, POLL_MILLIS).get(POLL_MILLIS - 1, TimeUnit.MILLISECONDS);
+            fail("Should time out");
+        } catch (TimeoutException e) {
+            assertEquals(started + POLL_MILLIS * 3 - 1, clock.currentTimeMillis());
+        }
+    }
+
+    private AWSEBEnvironmentUpdaterThread update(AWSEBBeanstalkSimulator.Environment environment, String versionLabel, String owner) {
+        return update(environment, versionLabel, owner, 0);
+    }
+
+    private AWSEBEnvironmentUpdaterThread update(AWSEBBeanstalkSimulator.Environment environment, String versionLabel, String owner, long buildStarted) {
+        return new AWSEBEnvironmentUpdaterThread(beanstalk, environment.describe(), listener, versionLabel, owner, null)
+                .withClock(clock).withBuildStarted(buildStarted);
+    }
+
+    private void watchAll(List<AWSEBEnvironmentUpdaterThread> updates) {
+        for (AWSEBEnvironmentUpdaterThread update : updates) {
+            AWSEBEnvironmentMonitor.watch(update, new AWSEBEnvironmentMonitor.Callback() {
+                @Override
+                public void done(AWSEBEnvironmentUpdaterThread update) {
+                    doneAt.put(update.getEnvironmentName(), clock.currentTimeMillis());
+                    done++;
+                }
+            });
+        }
+        clock.run(MAX_TASKS);
+        assertEquals(updates.size(), done);
+    }
+}
@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AWSEBMetricsRootActionTest {
+
+    @Test
+    public void countsTheBucketsCumulatively() {
+        // The metrics are global, each test has operations of its own.
+        AWSEBMetrics.recordCall("CumulativeTest", 1, 0, 0, false, 40, 0);
+        AWSEBMetrics.recordCall("CumulativeTest", 1, 0, 0, false, 300, 0);
+        AWSEBMetrics.recordCall("CumulativeTest", 2, 1, 0, false, 300, 0);
+        AWSEBMetrics.recordCall("CumulativeTest", 1, 0, 0, true, 60000, 0);
+
+        List<String> buckets = getLines("awseb_aws_call_duration_seconds_bucket{operation=\"CumulativeTest\"");
+
+        assertEquals(AWSEBMetrics.LATENCY_BUCKETS.length + 1, buckets.size());
+        assertEquals("awseb_aws_call_duration_seconds_bucket{operation=\"CumulativeTest\",le=\"0.05\"} 1", buckets.get(0));
+        assertEquals("awseb_aws_call_duration_seconds_bucket{operation=\"CumulativeTest\",le=\"0.25\"} 1", buckets.get(2));
+        assertEquals("awseb_aws_call_duration_seconds_bucket{operation=\"CumulativeTest\",le=\"0.5\"} 3", buckets.get(3));
+        assertEquals("awseb_aws_call_duration_seconds_bucket{operation=\"CumulativeTest\",le=\"30.0\"} 3", buckets.get(buckets.size() - 2));
+        assertEquals("awseb_aws_call_duration_seconds_bucket{operation=\"CumulativeTest\",le=\"+Inf\"} 4", buckets.get(buckets.size() - 1));
+    }
+
+    @Test
+    public void pairsTheSumWithTheCount() {
+        AWSEBMetrics.recordCall("PairingTest", 1, 0, 0, false, 250, 0);
+        AWSEBMetrics.recordCall("PairingTest", 3, 2, 2, false, 1500, 1000);
+
+        List<String> sum = getLines("awseb_aws_call_duration_seconds_sum{operation=\"PairingTest\"}");
+        List<String> count = getLines("awseb_aws_call_duration_seconds_count{operation=\"PairingTest\"}");
+
+        assertEquals(1, sum.size());
+        assertEquals(1, count.size());
+        assertTrue(sum.get(0).endsWith(" 1.75"));
+        assertTrue(count.get(0).endsWith(" 2"));
+        assertEquals("awseb_aws_requests_total{operation=\"PairingTest\"} 4", getLines("awseb_aws_requests_total{operation=\"PairingTest\"}").get(0));
+    }
+
+    @Test
+    public void escapesLabelValues() {
+        AWSEBMetrics.recordCall("Escape\"Test\\", 1, 0, 0, false, 10, 0);
+
+        assertEquals(1, getLines("awseb_aws_requests_total{operation=\"Escape\\\"Test\\\\\"} 1").size());
+    }
+
+    @Test
+    public void describesEveryMetric() {
+        List<String> lines = getLines("");
+
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).startsWith("# HELP ")) {
+                String name = lines.get(i).split(" ")[2];
+                assertTrue(lines.get(i + 1).startsWith("# TYPE " + name + " "));
+            } else if (!lines.get(i).startsWith("# TYPE ")) {
+                assertTrue(lines.get(i), lines.get(i).startsWith("awseb_"));
+            }
+        }
+    }
+
+    private static List<String> getLines(String prefix) {
+        StringWriter written = new StringWriter();
+        PrintWriter out = new PrintWriter(written);
+        AWSEBMetricsRootAction.write(out);
+        out.flush();
+        List<String> lines = new ArrayList<String>();
+        for (String line : written.toString().split("\n")) {
+            if (line.startsWith(prefix)) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,168 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import hudson.model.StreamBuildListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AWSEBStageGraphTest {
+
+    private ByteArrayOutputStream log;
+    private AWSEBStageGraph graph;
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        log = new ByteArrayOutputStream();
+        graph = new AWSEBStageGraph(new StreamBuildListener(log, Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void runsIndependentStagesTogether() throws Exception {
+        // Neither gets past the barrier unless both run at once.
+        final CyclicBarrier both = new CyclicBarrier(2);
+        graph.add("upload", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                both.await(10, TimeUnit.SECONDS);
+                return "s3://bundles/app-v2.zip";
+            }
+        });
+        graph.add("lookup", new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                both.await(10, TimeUnit.SECONDS);
+                return 3;
+            }
+        });
+        graph.add("deploy", new Callable<String>() {
+            @Override
+            public String call() {
+                return String.format("%s to %s", graph.get("upload"), graph.get("lookup"));
+            }
+        }, "upload", "lookup");
+
+        assertTrue(graph.run());
+
+        assertEquals("s3://bundles/app-v2.zip to 3", graph.get("deploy"));
+    }
+
+    @Test
+    public void startsAStageOnceItsDependenciesAreDone() throws Exception {
+        graph.add("first", stage("first", 100));
+        graph.add("second", stage("second", 0), "first");
+        graph.add("third", stage("third", 0), "second");
+
+        assertTrue(graph.run());
+
+        assertEquals(Arrays.asList("first", "second", "third"), ran);
+    }
+
+    @Test
+    public void failureSkipsTheDependentsAndInterruptsTheOthers() throws Exception {
+        final CountDownLatch never = new CountDownLatch(1);
+        final CountDownLatch waiting = new CountDownLatch(1);
+        graph.add("lookup", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                waiting.countDown();
+                try {
+                    never.await();
+                } catch (InterruptedException e) {
+                    ran.add("lookup interrupted");
+                    throw e;
+                }
+                return null;
+            }
+        });
+        graph.add("upload", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                waiting.await();
+                throw new IOException("Access Denied");
+            }
+        });
+        graph.add("deploy", stage("deploy", 0), "upload", "lookup");
+
+        try {
+            graph.run();
+            fail("Should have failed");
+        } catch (IOException e) {
+            assertEquals("Access Denied", e.getMessage());
+        }
+        graph.printTimings();
+
+        for (int i = 0; i < 100 && ran.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList("lookup interrupted"), ran);
+        String output = log.toString("UTF-8");
+        assertTrue(output, output.contains("Stage deploy: skipped"));
+        assertTrue(output, output.contains(", failed"));
+    }
+
+    @Test
+    public void haltStopsWithoutAnError() throws Exception {
+        graph.add("lookup", new Callable<Void>() {
+            @Override
+            public Void call() {
+                throw new AWSEBStageGraph.Halt("No environments found matching applicationName:app");
+            }
+        });
+        graph.add("deploy", stage("deploy", 0), "lookup");
+
+        assertFalse(graph.run());
+
+        assertTrue(ran.isEmpty());
+        assertTrue(log.toString("UTF-8").contains("No environments found matching applicationName:app"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dependenciesHaveToBeAddedFirst() {
+        graph.add("deploy", stage("deploy", 0), "upload");
+    }
+
+    @Test
+    public void criticalPathFollowsTheLastDependencyToFinish() throws Exception {
+        graph.add("lookup", stage("lookup", 0));
+        graph.add("zip", stage("zip", 200));
+        graph.add("upload", stage("upload", 200), "zip");
+        graph.add("deploy", stage("deploy", 0), "upload", "lookup");
+
+        assertTrue(graph.run());
+        graph.printTimings();
+
+        String output = log.toString("UTF-8");
+        String criticalPath = output.substring(output.indexOf("Critical path: ")).trim();
+        // zip (0.2s) -> upload (0.2s) -> deploy (0.0s), lookup was done long before.
+        assertEquals("Critical path: zip -> upload -> deploy", criticalPath.replaceAll(" \\(\\d+\\.\\ds\\)", ""));
+        assertTrue(output, output.contains("Stage lookup: 0."));
+    }
+
+    private Callable<String> stage(final String name, final long sleepMillis) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                Thread.sleep(sleepMillis);
+                ran.add(name);
+                return name;
+            }
+        };
+    }
+}
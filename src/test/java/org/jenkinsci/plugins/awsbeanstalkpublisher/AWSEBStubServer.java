@@ -0,0 +1,867 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang.StringEscapeUtils;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for Elastic Beanstalk and S3 on localhost, to load test the plugin with the real SDK clients,
+ * their connection pools, retries and multipart uploads, without touching AWS.
+ *
+ * It speaks enough of the Beanstalk Query API to deploy and of the S3 REST API, path style, to upload.
+ * Objects are kept as their size, MD5 and metadata only. Requests can be delayed, and throttled or failed
+ * at random or for the next few requests. {@link #useForClients()} points the clients of {@link AWSEBUtils} at it.
+ *
+ * It runs on the JDK's HTTP server, with keep-alive, so the clients' connection pools get used like with AWS.
+ * That server capitalizes the names of response headers, and the SDK only takes lower case <code>x-amz-meta-</code>
+ * ones as user metadata: clients see none, check what was stored with {@link #getObject} instead.
+ */
+public class AWSEBStubServer {
+
+    private static final String EB_NAMESPACE = "http://elasticbeanstalk.amazonaws.com/docs/2010-12-01/";
+    private static final String S3_NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+    private static final String META_PREFIX = "x-amz-meta-";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+    private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+    private final Random random = new Random(42);
+
+    private final Map<String, Environment> environments = new LinkedHashMap<String, Environment>();
+    private final Map<String, Version> versions = new LinkedHashMap<String, Version>();
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<String, StoredObject>();
+    private final Map<String, Upload> uploads = new LinkedHashMap<String, Upload>();
+    private int nextEnvironmentId;
+
+    private volatile long latencyMillis;
+    private volatile long deployMillis;
+    private double throttleRate;
+    private double failureRate;
+    private int throttleNext;
+    private int failNext;
+
+    public AWSEBStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 100);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return eg. <code>http://127.0.0.1:54321</code>
+     */
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Has the clients {@link AWSEBUtils} makes from now on talk to us instead of AWS.
+     */
+    public void useForClients() {
+        System.setProperty(AWSEBUtils.EB_ENDPOINT_PROPERTY, getEndpoint());
+        System.setProperty(AWSEBUtils.S3_ENDPOINT_PROPERTY, getEndpoint());
+    }
+
+    public void stop() {
+        System.clearProperty(AWSEBUtils.EB_ENDPOINT_PROPERTY);
+        System.clearProperty(AWSEBUtils.S3_ENDPOINT_PROPERTY);
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Every request waits this long before it's answered.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * How long environments take to update, 0 for them to be ready on the next look.
+     */
+    public void setDeployMillis(long deployMillis) {
+        this.deployMillis = deployMillis;
+    }
+
+    /**
+     * @param rate the share of the requests to throttle, between 0 and 1.
+     */
+    public synchronized void setThrottleRate(double rate) {
+        this.throttleRate = rate;
+    }
+
+    /**
+     * @param rate the share of the requests to fail with an internal error, between 0 and 1.
+     */
+    public synchronized void setFailureRate(double rate) {
+        this.failureRate = rate;
+    }
+
+    public synchronized void throttleNext(int count) {
+        this.throttleNext = count;
+    }
+
+    public synchronized void failNext(int count) {
+        this.failNext = count;
+    }
+
+    /**
+     * @param operation eg. <code>UpdateEnvironment</code> or <code>UploadPart</code>.
+     * @return how many requests came in for it, throttled and failed ones included.
+     */
+    public int getRequests(String operation) {
+        AtomicInteger count = requests.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return what went wrong handling requests, the failures asked for not included.
+     */
+    public List<Exception> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<Exception>(errors);
+        }
+    }
+
+    /**
+     * @return the id of the environment.
+     */
+    public synchronized String addEnvironment(String applicationName, String environmentName, String versionLabel) {
+        addVersion(applicationName, versionLabel, null, null);
+        Environment environment = new Environment(String.format("e-stub%05d", ++nextEnvironmentId), applicationName, environmentName, versionLabel);
+        environments.put(environment.id, environment);
+        environment.log("INFO", "createEnvironment completed successfully.", System.currentTimeMillis());
+        return environment.id;
+    }
+
+    /**
+     * @return the version the environment runs, null if there is no such environment.
+     */
+    public synchronized String getVersionLabel(String environmentName) {
+        for (Environment environment : environments.values()) {
+            if (environment.name.equals(environmentName)) {
+                refresh(environment);
+                return environment.versionLabel;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return null if there's no such object.
+     */
+    public StoredObject getObject(String bucketName, String key) {
+        return objects.get(bucketName + "/" + key);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            handle(exchange);
+        } catch (Exception e) {
+            errors.add(e);
+            if (exchange.getResponseCode() < 0) {
+                send(exchange, 500, null);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException, InterruptedException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getRawPath();
+        boolean beanstalk = "POST".equals(method) && "/".equals(path);
+
+        Map<String, String> params;
+        Body body = null;
+        if (beanstalk) {
+            params = parse(new String(readFully(exchange.getRequestBody()), "UTF-8"));
+        } else {
+            params = parse(exchange.getRequestURI().getRawQuery());
+            String sha256 = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+            body = new Body(exchange.getRequestBody(), sha256 != null && sha256.startsWith("STREAMING-"));
+        }
+
+        String operation = beanstalk ? params.get("Action") : getS3Operation(method, path, params, exchange.getRequestHeaders());
+        AtomicInteger count = requests.putIfAbsent(operation, new AtomicInteger(1));
+        if (count != null) {
+            count.incrementAndGet();
+        }
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+
+        boolean throttled;
+        boolean failed;
+        synchronized (this) {
+            throttled = throttleNext > 0 || (throttleRate > 0 && random.nextDouble() < throttleRate);
+            failed = !throttled && (failNext > 0 || (failureRate > 0 && random.nextDouble() < failureRate));
+            if (throttled && throttleNext > 0) {
+                throttleNext--;
+            } else if (failed && failNext > 0) {
+                failNext--;
+            }
+        }
+
+        if (beanstalk) {
+            if (throttled) {
+                beanstalkError(exchange, 400, "Sender", "Throttling", "Rate exceeded");
+            } else if (failed) {
+                beanstalkError(exchange, 500, "Receiver", "InternalFailure", "We encountered an internal error. Please try again.");
+            } else {
+                handleBeanstalk(exchange, operation, params);
+            }
+        } else {
+            if (throttled) {
+                body.drain();
+                s3Error(exchange, 503, "SlowDown", "Please reduce your request rate.");
+            } else if (failed) {
+                body.drain();
+                s3Error(exchange, 500, "InternalError", "We encountered an internal error. Please try again.");
+            } else {
+                String[] bucketAndKey = path.substring(1).split("/", 2);
+                String bucketName = decode(bucketAndKey[0]);
+                String key = bucketAndKey.length > 1 ? decode(bucketAndKey[1]) : "";
+                handleS3(exchange, operation, bucketName, key, params, body);
+            }
+        }
+    }
+
+    private static String getS3Operation(String method, String path, Map<String, String> params, Headers headers) {
+        boolean bucketOnly = path.indexOf('/', 1) < 0 || path.indexOf('/', 1) == path.length() - 1;
+        if ("GET".equals(method) && bucketOnly) {
+            return params.containsKey("location") ? "GetBucketLocation" : params.containsKey("uploads") ? "ListMultipartUploads" : "ListObjects";
+        }
+        if ("POST".equals(method)) {
+            return params.containsKey("uploads") ? "InitiateMultipartUpload" : "CompleteMultipartUpload";
+        }
+        if ("PUT".equals(method)) {
+            if (params.containsKey("partNumber")) {
+                return "UploadPart";
+            }
+            return headers.containsKey("x-amz-copy-source") ? "CopyObject" : "PutObject";
+        }
+        if ("DELETE".equals(method)) {
+            return params.containsKey("uploadId") ? "AbortMultipartUpload" : "DeleteObject";
+        }
+        if ("GET".equals(method)) {
+            return params.containsKey("uploadId") ? "ListParts" : "GetObject";
+        }
+        return "HEAD".equals(method) ? "HeadObject" : method;
+    }
+
+    private synchronized void handleBeanstalk(HttpExchange exchange, String action, Map<String, String> params) throws IOException {
+        StringBuilder result = new StringBuilder();
+        if ("CreateApplicationVersion".equals(action)) {
+            String applicationName = params.get("ApplicationName");
+            String versionLabel = params.get("VersionLabel");
+            if (versions.containsKey(applicationName + "/" + versionLabel)) {
+                beanstalkError(exchange, 400, "Sender", "InvalidParameterValue", String.format("Application Version %s already exists.", versionLabel));
+                return;
+            }
+            Version version = addVersion(applicationName, versionLabel, params.get("SourceBundle.S3Bucket"), params.get("SourceBundle.S3Key"));
+            result.append("<ApplicationVersion>");
+            version.write(result);
+            result.append("</ApplicationVersion>");
+
+        } else if ("DescribeApplicationVersions".equals(action)) {
+            String applicationName = params.get("ApplicationName");
+            List<String> labels = getMembers(params, "VersionLabels");
+            result.append("<ApplicationVersions>");
+            for (Version version : versions.values()) {
+                if ((applicationName == null || applicationName.equals(version.applicationName))
+                        && (labels.isEmpty() || labels.contains(version.versionLabel))) {
+                    result.append("<member>");
+                    version.write(result);
+                    result.append("</member>");
+                }
+            }
+            result.append("</ApplicationVersions>");
+
+        } else if ("DescribeEnvironments".equals(action)) {
+            String applicationName = params.get("ApplicationName");
+            List<String> ids = getMembers(params, "EnvironmentIds");
+            List<String> names = getMembers(params, "EnvironmentNames");
+            result.append("<Environments>");
+            for (Environment environment : environments.values()) {
+                if ((applicationName == null || applicationName.equals(environment.applicationName))
+                        && (ids.isEmpty() || ids.contains(environment.id)) && (names.isEmpty() || names.contains(environment.name))) {
+                    refresh(environment);
+                    result.append("<member>");
+                    environment.write(result);
+                    result.append("</member>");
+                }
+            }
+            result.append("</Environments>");
+
+        } else if ("DescribeEvents".equals(action)) {
+            Environment environment = getEnvironment(params);
+            Date startTime = params.containsKey("StartTime") ? parseDate(params.get("StartTime")) : null;
+            int maxRecords = params.containsKey("MaxRecords") ? Integer.parseInt(params.get("MaxRecords")) : Integer.MAX_VALUE;
+            result.append("<Events>");
+            if (environment != null) {
+                refresh(environment);
+                int found = 0;
+                // Newest first, like AWS.
+                for (int i = environment.events.size() - 1; i >= 0 && found < maxRecords; i--, found++) {
+                    Event event = environment.events.get(i);
+                    if (startTime != null && event.date < startTime.getTime()) {
+                        break;
+                    }
+                    result.append("<member>");
+                    element(result, "EventDate", formatDate(event.date));
+                    element(result, "Message", event.message);
+                    element(result, "Severity", event.severity);
+                    element(result, "ApplicationName", environment.applicationName);
+                    element(result, "EnvironmentName", environment.name);
+                    result.append("</member>");
+                }
+            }
+            result.append("</Events>");
+
+        } else if ("UpdateEnvironment".equals(action)) {
+            Environment environment = getEnvironment(params);
+            String versionLabel = params.get("VersionLabel");
+            if (environment == null) {
+                beanstalkError(exchange, 400, "Sender", "InvalidParameterValue", "No Environment found.");
+                return;
+            }
+            refresh(environment);
+            if (!versions.containsKey(environment.applicationName + "/" + versionLabel)) {
+                beanstalkError(exchange, 400, "Sender", "InvalidParameterValue", String.format("No Application Version named '%s' found.", versionLabel));
+                return;
+            }
+            if (!"Ready".equals(environment.status)) {
+                beanstalkError(exchange, 400, "Sender", "InvalidParameterValue",
+                        String.format("Environment named %s is in an invalid state for this operation. Must be Ready.", environment.name));
+                return;
+            }
+            long now = System.currentTimeMillis();
+            environment.status = "Updating";
+            environment.pendingVersionLabel = versionLabel;
+            environment.readyAt = now + deployMillis;
+            environment.log("INFO", "Environment update is starting.", now);
+            environment.write(result);
+
+        } else {
+            beanstalkError(exchange, 400, "Sender", "InvalidAction", String.format("Could not find operation %s.", action));
+            return;
+        }
+        String response = String.format("<%sResponse xmlns=\"%s\"><%sResult>%s</%sResult><ResponseMetadata><RequestId>%s</RequestId></ResponseMetadata></%sResponse>",
+                action, EB_NAMESPACE, action, result, action, UUID.randomUUID(), action);
+        send(exchange, 200, response);
+    }
+
+    private Version addVersion(String applicationName, String versionLabel, String bucketName, String key) {
+        Version version = new Version(applicationName, versionLabel, bucketName, key);
+        versions.put(applicationName + "/" + versionLabel, version);
+        return version;
+    }
+
+    private Environment getEnvironment(Map<String, String> params) {
+        String id = params.get("EnvironmentId");
+        String name = params.get("EnvironmentName");
+        for (Environment environment : environments.values()) {
+            if (environment.id.equals(id) || environment.name.equals(name)) {
+                return environment;
+            }
+        }
+        return null;
+    }
+
+    // Environments finish updating when they are looked at.
+    private void refresh(Environment environment) {
+        if ("Updating".equals(environment.status) && System.currentTimeMillis() >= environment.readyAt) {
+            environment.status = "Ready";
+            environment.versionLabel = environment.pendingVersionLabel;
+            environment.log("INFO", "New application version was deployed to running EC2 instances.", environment.readyAt);
+            environment.log("INFO", "Environment update completed successfully.", environment.readyAt);
+        }
+    }
+
+    private void handleS3(HttpExchange exchange, String operation, String bucketName, String key, Map<String, String> params, Body body) throws IOException {
+        Headers headers = exchange.getRequestHeaders();
+        if ("GetBucketLocation".equals(operation)) {
+            send(exchange, 200, String.format("<LocationConstraint xmlns=\"%s\"/>", S3_NAMESPACE));
+
+        } else if ("PutObject".equals(operation)) {
+            StoredObject object = new StoredObject(body.digest(), body.getLength(), getMetadata(headers));
+            objects.put(bucketName + "/" + key, object);
+            exchange.getResponseHeaders().set("ETag", object.getETag());
+            send(exchange, 200, null);
+
+        } else if ("HeadObject".equals(operation)) {
+            StoredObject object = getObject(bucketName, key);
+            if (object == null) {
+                send(exchange, 404, null);
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", object.getETag());
+            exchange.getResponseHeaders().set("Last-Modified", formatHttpDate(object.lastModified));
+            exchange.getResponseHeaders().set("Content-Type", "application/zip");
+            exchange.getResponseHeaders().set("Content-Length", Long.toString(object.length));
+            for (Map.Entry<String, String> meta : object.metadata.entrySet()) {
+                exchange.getResponseHeaders().set(META_PREFIX + meta.getKey(), meta.getValue());
+            }
+            send(exchange, 200, null);
+
+        } else if ("CopyObject".equals(operation)) {
+            String source = decode(headers.getFirst("x-amz-copy-source"));
+            StoredObject copied = objects.get(source.startsWith("/") ? source.substring(1) : source);
+            if (copied == null) {
+                s3Error(exchange, 404, "NoSuchKey", "The specified key does not exist.");
+                return;
+            }
+            Map<String, String> metadata = "REPLACE".equals(headers.getFirst("x-amz-metadata-directive")) ? getMetadata(headers) : copied.metadata;
+            StoredObject object = new StoredObject(copied.md5, copied.length, metadata);
+            object.eTag = copied.eTag;
+            objects.put(bucketName + "/" + key, object);
+            send(exchange, 200, String.format("<CopyObjectResult xmlns=\"%s\"><LastModified>%s</LastModified><ETag>%s</ETag></CopyObjectResult>",
+                    S3_NAMESPACE, formatDate(object.lastModified), escape(object.getETag())));
+
+        } else if ("InitiateMultipartUpload".equals(operation)) {
+            Upload upload = new Upload(bucketName, key, getMetadata(headers));
+            synchronized (this) {
+                uploads.put(upload.id, upload);
+            }
+            send(exchange, 200, String.format("<InitiateMultipartUploadResult xmlns=\"%s\"><Bucket>%s</Bucket><Key>%s</Key><UploadId>%s</UploadId></InitiateMultipartUploadResult>",
+                    S3_NAMESPACE, escape(bucketName), escape(key), upload.id));
+
+        } else if ("UploadPart".equals(operation)) {
+            byte[] md5 = body.digest();
+            int partNumber = Integer.parseInt(params.get("partNumber"));
+            synchronized (this) {
+                Upload upload = uploads.get(params.get("uploadId"));
+                if (upload == null) {
+                    s3Error(exchange, 404, "NoSuchUpload", "The specified upload does not exist.");
+                    return;
+                }
+                upload.parts.put(partNumber, new StoredObject(md5, body.getLength(), null));
+            }
+            exchange.getResponseHeaders().set("ETag", "\"" + Hex.encodeHexString(md5) + "\"");
+            send(exchange, 200, null);
+
+        } else if ("ListParts".equals(operation)) {
+            StringBuilder result = new StringBuilder();
+            synchronized (this) {
+                Upload upload = uploads.get(params.get("uploadId"));
+                if (upload == null) {
+                    s3Error(exchange, 404, "NoSuchUpload", "The specified upload does not exist.");
+                    return;
+                }
+                result.append(String.format("<ListPartsResult xmlns=\"%s\"><Bucket>%s</Bucket><Key>%s</Key><UploadId>%s</UploadId>",
+                        S3_NAMESPACE, escape(bucketName), escape(key), upload.id));
+                result.append("<PartNumberMarker>0</PartNumberMarker><MaxParts>10000</MaxParts><IsTruncated>false</IsTruncated>");
+                for (Map.Entry<Integer, StoredObject> part : upload.parts.entrySet()) {
+                    result.append("<Part>");
+                    element(result, "PartNumber", part.getKey().toString());
+                    element(result, "LastModified", formatDate(part.getValue().lastModified));
+                    element(result, "ETag", part.getValue().getETag());
+                    element(result, "Size", Long.toString(part.getValue().length));
+                    result.append("</Part>");
+                }
+                result.append("</ListPartsResult>");
+            }
+            send(exchange, 200, result.toString());
+
+        } else if ("CompleteMultipartUpload".equals(operation)) {
+            body.drain();
+            StoredObject object;
+            synchronized (this) {
+                Upload upload = uploads.remove(params.get("uploadId"));
+                if (upload == null) {
+                    s3Error(exchange, 404, "NoSuchUpload", "The specified upload does not exist.");
+                    return;
+                }
+                // Like S3, the ETag of a multipart object is the MD5 of the MD5s of its parts.
+                MessageDigest digest = md5();
+                long length = 0;
+                for (StoredObject part : upload.parts.values()) {
+                    digest.update(part.md5);
+                    length += part.length;
+                }
+                object = new StoredObject(digest.digest(), length, upload.metadata);
+                object.eTag = String.format("\"%s-%s\"", Hex.encodeHexString(object.md5), upload.parts.size());
+            }
+            objects.put(bucketName + "/" + key, object);
+            send(exchange, 200, String.format("<CompleteMultipartUploadResult xmlns=\"%s\"><Location>%s/%s/%s</Location><Bucket>%s</Bucket><Key>%s</Key><ETag>%s</ETag></CompleteMultipartUploadResult>",
+                    S3_NAMESPACE, getEndpoint(), escape(bucketName), escape(key), escape(bucketName), escape(key), escape(object.getETag())));
+
+        } else if ("AbortMultipartUpload".equals(operation)) {
+            synchronized (this) {
+                if (uploads.remove(params.get("uploadId")) == null) {
+                    s3Error(exchange, 404, "NoSuchUpload", "The specified upload does not exist.");
+                    return;
+                }
+            }
+            send(exchange, 204, null);
+
+        } else if ("ListMultipartUploads".equals(operation)) {
+            String prefix = params.containsKey("prefix") ? params.get("prefix") : "";
+            StringBuilder result = new StringBuilder();
+            result.append(String.format("<ListMultipartUploadsResult xmlns=\"%s\"><Bucket>%s</Bucket><MaxUploads>1000</MaxUploads><IsTruncated>false</IsTruncated>",
+                    S3_NAMESPACE, escape(bucketName)));
+            synchronized (this) {
+                for (Upload upload : uploads.values()) {
+                    if (upload.bucketName.equals(bucketName) && upload.key.startsWith(prefix)) {
+                        result.append("<Upload>");
+                        element(result, "Key", upload.key);
+                        element(result, "UploadId", upload.id);
+                        element(result, "Initiated", formatDate(upload.initiated));
+                        result.append("</Upload>");
+                    }
+                }
+            }
+            result.append("</ListMultipartUploadsResult>");
+            send(exchange, 200, result.toString());
+
+        } else {
+            body.drain();
+            s3Error(exchange, 501, "NotImplemented", String.format("%s isn't implemented by the stub.", operation));
+        }
+    }
+
+    private static Map<String, String> getMetadata(Headers headers) {
+        Map<String, String> metadata = new TreeMap<String, String>();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey().toLowerCase(Locale.ENGLISH).startsWith(META_PREFIX)) {
+                metadata.put(header.getKey().substring(META_PREFIX.length()).toLowerCase(Locale.ENGLISH), header.getValue().get(0));
+            }
+        }
+        return metadata;
+    }
+
+    private static void beanstalkError(HttpExchange exchange, int status, String type, String code, String message) throws IOException {
+        send(exchange, status, String.format("<ErrorResponse xmlns=\"%s\"><Error><Type>%s</Type><Code>%s</Code><Message>%s</Message></Error><RequestId>%s</RequestId></ErrorResponse>",
+                EB_NAMESPACE, type, code, escape(message), UUID.randomUUID()));
+    }
+
+    private static void s3Error(HttpExchange exchange, int status, String code, String message) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            send(exchange, status, null);
+            return;
+        }
+        send(exchange, status, String.format("<Error><Code>%s</Code><Message>%s</Message><RequestId>%s</RequestId></Error>",
+                code, escape(message), UUID.randomUUID()));
+    }
+
+    private static void send(HttpExchange exchange, int status, String xml) throws IOException {
+        exchange.getResponseHeaders().set("x-amz-request-id", UUID.randomUUID().toString());
+        if (xml == null) {
+            // A HEAD response keeps the Content-Length of the object, if it was set.
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + xml).getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static List<String> getMembers(Map<String, String> params, String name) {
+        List<String> members = new ArrayList<String>();
+        for (int i = 1; params.containsKey(name + ".member." + i); i++) {
+            members.add(params.get(name + ".member." + i));
+        }
+        return members;
+    }
+
+    private static Map<String, String> parse(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals < 0) {
+                params.put(decode(pair), "");
+            } else {
+                params.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+            }
+        }
+        return params;
+    }
+
+    private static String decode(String value) throws UnsupportedEncodingException {
+        return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+    }
+
+    private static void element(StringBuilder xml, String name, String value) {
+        if (value != null) {
+            xml.append('<').append(name).append('>').append(escape(value)).append("</").append(name).append('>');
+        }
+    }
+
+    private static String escape(String value) {
+        return StringEscapeUtils.escapeXml(value);
+    }
+
+    private static String formatDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+    private static Date parseDate(String date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(date);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(date, e);
+        }
+    }
+
+    private static String formatHttpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A request body, hashed as it's read rather than kept. The SDK signs uploads in aws-chunked encoding,
+     * the chunk headers aren't part of the content.
+     */
+    private static class Body {
+        private final InputStream in;
+        private final boolean chunked;
+        private long length;
+
+        Body(InputStream in, boolean chunked) {
+            this.in = in;
+            this.chunked = chunked;
+        }
+
+        byte[] digest() throws IOException {
+            MessageDigest digest = md5();
+            byte[] buffer = new byte[64 * 1024];
+            if (!chunked) {
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    digest.update(buffer, 0, n);
+                    length += n;
+                }
+                return digest.digest();
+            }
+            while (true) {
+                // <size in hex>;chunk-signature=<signature>\r\n<data>\r\n, a chunk of size 0 ends it.
+                String header = readLine();
+                int semicolon = header.indexOf(';');
+                long size = Long.parseLong(semicolon < 0 ? header.trim() : header.substring(0, semicolon), 16);
+                long remaining = size;
+                while (remaining > 0) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n < 0) {
+                        throw new IOException("Truncated chunk");
+                    }
+                    digest.update(buffer, 0, n);
+                    remaining -= n;
+                }
+                length += size;
+                readLine();
+                if (size == 0) {
+                    return digest.digest();
+                }
+            }
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        void drain() throws IOException {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) >= 0 && c != '\n') {
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+    }
+
+    private static class Environment {
+        private final String id;
+        private final String applicationName;
+        private final String name;
+        private final List<Event> events = new ArrayList<Event>();
+        private String versionLabel;
+        private String pendingVersionLabel;
+        private String status = "Ready";
+        private long readyAt;
+
+        Environment(String id, String applicationName, String name, String versionLabel) {
+            this.id = id;
+            this.applicationName = applicationName;
+            this.name = name;
+            this.versionLabel = versionLabel;
+        }
+
+        void log(String severity, String message, long date) {
+            events.add(new Event(date, severity, message));
+        }
+
+        void write(StringBuilder xml) {
+            element(xml, "EnvironmentId", id);
+            element(xml, "EnvironmentName", name);
+            element(xml, "ApplicationName", applicationName);
+            element(xml, "VersionLabel", versionLabel);
+            element(xml, "Status", status);
+            element(xml, "Health", "Green");
+        }
+    }
+
+    private static class Event {
+        private final long date;
+        private final String severity;
+        private final String message;
+
+        Event(long date, String severity, String message) {
+            this.date = date;
+            this.severity = severity;
+            this.message = message;
+        }
+    }
+
+    private static class Version {
+        private final String applicationName;
+        private final String versionLabel;
+        private final String bucketName;
+        private final String key;
+        private final long created = System.currentTimeMillis();
+
+        Version(String applicationName, String versionLabel, String bucketName, String key) {
+            this.applicationName = applicationName;
+            this.versionLabel = versionLabel;
+            this.bucketName = bucketName;
+            this.key = key;
+        }
+
+        void write(StringBuilder xml) {
+            element(xml, "ApplicationName", applicationName);
+            element(xml, "VersionLabel", versionLabel);
+            if (bucketName != null) {
+                xml.append("<SourceBundle>");
+                element(xml, "S3Bucket", bucketName);
+                element(xml, "S3Key", key);
+                xml.append("</SourceBundle>");
+            }
+            element(xml, "DateCreated", formatDate(created));
+        }
+    }
+
+    private static class Upload {
+        private final String id = UUID.randomUUID().toString();
+        private final String bucketName;
+        private final String key;
+        private final Map<String, String> metadata;
+        private final long initiated = System.currentTimeMillis();
+        private final Map<Integer, StoredObject> parts = new TreeMap<Integer, StoredObject>();
+
+        Upload(String bucketName, String key, Map<String, String> metadata) {
+            this.bucketName = bucketName;
+            this.key = key;
+            this.metadata = metadata;
+        }
+    }
+
+    public static class StoredObject {
+        private final byte[] md5;
+        private final long length;
+        private final Map<String, String> metadata;
+        private final long lastModified = System.currentTimeMillis();
+        private String eTag;
+
+        StoredObject(byte[] md5, long length, Map<String, String> metadata) {
+            this.md5 = md5;
+            this.length = length;
+            this.metadata = metadata;
+        }
+
+        public String getMd5() {
+            return Hex.encodeHexString(md5);
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @param name without the <code>x-amz-meta-</code> prefix.
+         */
+        public String getMetadata(String name) {
+            return metadata.get(name);
+        }
+
+        public String getETag() {
+            return eTag != null ? eTag : "\"" + getMd5() + "\"";
+        }
+    }
+}
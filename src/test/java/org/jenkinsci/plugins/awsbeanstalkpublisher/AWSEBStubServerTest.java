@@ -0,0 +1,182 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import hudson.model.BuildListener;
+import hudson.model.StreamBuildListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.internal.StaticCredentialsProvider;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.CreateApplicationVersionRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.S3Location;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+
+/**
+ * Drives the SDK clients {@link AWSEBUtils} makes against {@link AWSEBStubServer}.
+ */
+public class AWSEBStubServerTest {
+
+    private AWSEBStubServer server;
+    private AWSCredentialsProvider credentials;
+    private BuildListener listener;
+    private File tmp;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new AWSEBStubServer();
+        server.useForClients();
+        credentials = new StaticCredentialsProvider(new BasicAWSCredentials("AKIASTUB", "secret"));
+        // For the S3 clients made without credentials of ours.
+        System.setProperty("aws.accessKeyId", "AKIASTUB");
+        System.setProperty("aws.secretKey", "secret");
+        listener = new StreamBuildListener(new NullOutputStream(), Charset.forName("UTF-8"));
+        tmp = File.createTempFile("awseb-stub-", "");
+        tmp.delete();
+        tmp.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+        assertEquals(Collections.emptyList(), server.getErrors());
+        System.clearProperty("aws.accessKeyId");
+        System.clearProperty("aws.secretKey");
+        FileUtils.deleteDirectory(tmp);
+    }
+
+    @Test
+    public void deploysAnEnvironment() throws Exception {
+        server.addEnvironment("shop", "shop-web", "v1");
+        AWSElasticBeanstalk awseb = AWSEBUtils.getElasticBeanstalk(credentials, Region.getRegion(Regions.US_WEST_2), new AWSEBBuildMetrics().getCollector());
+
+        awseb.createApplicationVersion(new CreateApplicationVersionRequest().withApplicationName("shop").withVersionLabel("v2")
+                .withSourceBundle(new S3Location("bundles", "shop/shop-v2.zip")));
+        List<EnvironmentDescription> environments = awseb.describeEnvironments(new DescribeEnvironmentsRequest()
+                .withApplicationName("shop").withEnvironmentNames("shop-web")).getEnvironments();
+        assertEquals(1, environments.size());
+
+        AWSEBEnvironmentUpdaterThread update = new AWSEBEnvironmentUpdaterThread(awseb, environments.get(0), listener, "v2", "job #2", null).call();
+
+        assertTrue(update.getStatus(), update.isSuccessfull());
+        assertEquals("v2", server.getVersionLabel("shop-web"));
+        assertEquals(1, server.getRequests("UpdateEnvironment"));
+    }
+
+    @Test
+    public void retriesThrottledAndFailedRequests() {
+        server.addEnvironment("shop", "shop-web", "v1");
+        AWSEBBuildMetrics metrics = new AWSEBBuildMetrics();
+        AWSElasticBeanstalk awseb = AWSEBUtils.getElasticBeanstalk(credentials, Region.getRegion(Regions.US_WEST_2), metrics.getCollector());
+        server.throttleNext(1);
+        server.failNext(1);
+
+        assertEquals(1, awseb.describeEnvironments(new DescribeEnvironmentsRequest().withApplicationName("shop")).getEnvironments().size());
+
+        assertEquals(3, server.getRequests("DescribeEnvironments"));
+        AWSEBMetrics.Calls calls = metrics.getCalls().values().iterator().next();
+        assertEquals(2, calls.getRetries());
+        assertEquals(1, calls.getThrottles());
+    }
+
+    @Test
+    public void delaysRequests() {
+        AWSElasticBeanstalk awseb = AWSEBUtils.getElasticBeanstalk(credentials, Region.getRegion(Regions.US_WEST_2), new AWSEBBuildMetrics().getCollector());
+        server.setLatencyMillis(300);
+
+        long started = System.currentTimeMillis();
+        awseb.describeEnvironments(new DescribeEnvironmentsRequest().withApplicationName("shop"));
+
+        assertTrue(System.currentTimeMillis() - started >= 300);
+    }
+
+    @Test
+    public void doesNotShareClientsAcrossEndpoints() throws Exception {
+        Region region = Region.getRegion(Regions.US_WEST_2);
+        AWSElasticBeanstalk awseb = AWSEBUtils.getElasticBeanstalk(credentials, region);
+        assertSame(awseb, AWSEBUtils.getElasticBeanstalk(credentials, region));
+
+        AWSEBStubServer other = new AWSEBStubServer();
+        try {
+            other.useForClients();
+            other.addEnvironment("shop", "shop-web", "v1");
+
+            AWSElasticBeanstalk otherAwseb = AWSEBUtils.getElasticBeanstalk(credentials, region);
+
+            assertNotSame(awseb, otherAwseb);
+            assertEquals(1, otherAwseb.describeEnvironments().getEnvironments().size());
+            assertEquals(1, other.getRequests("DescribeEnvironments"));
+            assertEquals(0, server.getRequests("DescribeEnvironments"));
+        } finally {
+            other.stop();
+        }
+        assertEquals(Collections.emptyList(), other.getErrors());
+    }
+
+    @Test
+    public void uploadsAnObject() throws Exception {
+        AmazonS3 s3 = AWSEBUtils.getS3(null, Regions.US_WEST_2, "bundles", false, false, new AWSEBBuildMetrics().getCollector());
+        byte[] content = "PK not really a zip".getBytes("UTF-8");
+        ObjectMetadata meta = new ObjectMetadata();
+        meta.setContentLength(content.length);
+        meta.addUserMetadata("awseb-md5", "0123456789abcdef");
+
+        s3.putObject(new PutObjectRequest("bundles", "shop/shop-v2.zip", new ByteArrayInputStream(content), meta));
+        ObjectMetadata uploaded = s3.getObjectMetadata("bundles", "shop/shop-v2.zip");
+
+        // The client sees no user metadata from the stub, see AWSEBStubServer.
+        AWSEBStubServer.StoredObject object = server.getObject("bundles", "shop/shop-v2.zip");
+        assertEquals("0123456789abcdef", object.getMetadata("awseb-md5"));
+        assertEquals(object.getMd5(), uploaded.getETag());
+        assertEquals(content.length, uploaded.getContentLength());
+        assertEquals(content.length, object.getLength());
+    }
+
+    @Test
+    public void uploadsInParts() throws Exception {
+        File archive = new File(tmp, "shop-v2.zip");
+        RandomAccessFile file = new RandomAccessFile(archive, "rw");
+        try {
+            file.setLength(AWSEBMultipartUploader.PART_SIZE * 2 + 1024);
+        } finally {
+            file.close();
+        }
+        String md5 = AWSEBUtils.md5Hex(archive);
+        AmazonS3 s3 = AWSEBUtils.getS3(null, Regions.US_WEST_2, "bundles", false, false, new AWSEBBuildMetrics().getCollector());
+        ObjectMetadata meta = new ObjectMetadata();
+        meta.addUserMetadata("awseb-md5", md5);
+
+        new AWSEBMultipartUploader(s3, listener, new File(tmp, "uploads"), "bundles", "shop/shop-v2.zip", archive, md5,
+                new AWSEBUploadThrottle(listener, archive.getName(), archive.length(), null, 0)).upload(meta);
+
+        assertEquals(3, server.getRequests("UploadPart"));
+        assertEquals(1, server.getRequests("CompleteMultipartUpload"));
+        AWSEBStubServer.StoredObject object = server.getObject("bundles", "shop/shop-v2.zip");
+        assertEquals(archive.length(), object.getLength());
+        assertEquals(md5, object.getMetadata("awseb-md5"));
+        assertEquals(archive.length(), s3.getObjectMetadata("bundles", "shop/shop-v2.zip").getContentLength());
+    }
+}
@@ -0,0 +1,130 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AWSEBTokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void startsFull() throws Exception {
+        FakeBucket bucket = new FakeBucket(100);
+
+        bucket.acquire(100);
+
+        assertEquals(Collections.emptyList(), bucket.slept);
+    }
+
+    @Test
+    public void callersAtTheSameTimeWaitForEachOther() throws Exception {
+        FakeBucket bucket = new FakeBucket(100);
+
+        // Larger than the bucket is fine, it just takes longer.
+        bucket.acquire(350);
+        bucket.acquire(50);
+
+        assertEquals(Arrays.asList(SECOND * 250 / 100, SECOND * 300 / 100), bucket.slept);
+    }
+
+    @Test
+    public void refillsAtTheRate() throws Exception {
+        FakeBucket bucket = new FakeBucket(100);
+        bucket.acquire(100);
+
+        bucket.now += SECOND / 2;
+        bucket.acquire(50);
+        bucket.now += SECOND / 2;
+        bucket.acquire(60);
+
+        assertEquals(Arrays.asList(SECOND / 10), bucket.slept);
+    }
+
+    @Test
+    public void holdsNoMoreThanASecondOfPermits() throws Exception {
+        FakeBucket bucket = new FakeBucket(100);
+
+        bucket.now += SECOND * 60;
+        bucket.acquire(200);
+
+        assertEquals(Arrays.asList(SECOND), bucket.slept);
+    }
+
+    @Test
+    public void neverBlocksWithoutARate() throws Exception {
+        FakeBucket bucket = new FakeBucket(0);
+
+        bucket.acquire(1000000);
+
+        assertEquals(Collections.emptyList(), bucket.slept);
+    }
+
+    @Test
+    public void lowerRateTakesEffectStraightAway() throws Exception {
+        FakeBucket bucket = new FakeBucket(100);
+
+        bucket.setPermitsPerSecond(10);
+        bucket.acquire(20);
+
+        assertEquals(10, bucket.getPermitsPerSecond());
+        assertEquals(Arrays.asList(SECOND), bucket.slept);
+    }
+
+    @Test
+    public void threadsShareTheRate() throws Exception {
+        final AWSEBTokenBucket bucket = new AWSEBTokenBucket(1000);
+        bucket.acquire(1000);
+        List<Thread> threads = new ArrayList<Thread>();
+        long started = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        bucket.acquire(100);
+                    } catch (InterruptedException e) {
+                        // done
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // 400 permits at 1000 a second, the last of the threads waits for all of them.
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(390));
+    }
+
+    /**
+     * Time only moves when the test says so, sleeping is recorded rather than done.
+     */
+    private static class FakeBucket extends AWSEBTokenBucket {
+        private long now;
+        private final List<Long> slept = new ArrayList<Long>();
+
+        FakeBucket(long permitsPerSecond) {
+            super(permitsPerSecond);
+        }
+
+        @Override
+        long nanoTime() {
+            return now;
+        }
+
+        @Override
+        void sleep(long nanos) {
+            slept.add(nanos);
+        }
+    }
+}
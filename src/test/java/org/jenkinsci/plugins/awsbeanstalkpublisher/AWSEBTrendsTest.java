@@ -0,0 +1,166 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBTrends.Kind;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBTrends.Sample;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBTrends.Trend;
+import org.jenkinsci.plugins.awsbeanstalkpublisher.AWSEBTrends.Window;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AWSEBTrendsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsWhatWasWritten() throws Exception {
+        File file = new File(folder.getRoot(), AWSEBTrends.FILE);
+        AWSEBTrends.write(file, Arrays.asList(new Sample(1, 1000, Kind.PHASE, "upload", 1500)));
+        AWSEBTrends.write(file, Arrays.asList(new Sample(2, 2000, Kind.ENVIRONMENT, "web", 60000),
+                new Sample(2, 2000, Kind.THROTTLED, "", 0)));
+
+        List<Sample> samples = AWSEBTrends.read(file);
+
+        assertEquals(3, samples.size());
+        Sample first = samples.get(0);
+        assertEquals(1, first.getBuildNumber());
+        assertEquals(1000, first.getTimestamp());
+        assertEquals(Kind.PHASE, first.getKind());
+        assertEquals("upload", first.getName());
+        assertEquals(1500, first.getValue());
+        assertEquals("web", samples.get(1).getName());
+        assertEquals(Kind.THROTTLED, samples.get(2).getKind());
+        assertEquals("", samples.get(2).getName());
+    }
+
+    @Test
+    public void overwritesTheOldestSamplesOnceFull() throws Exception {
+        File file = new File(folder.getRoot(), AWSEBTrends.FILE);
+        List<Sample> samples = new ArrayList<Sample>();
+        for (int i = 0; i < AWSEBTrends.SLOTS + 10; i++) {
+            samples.add(new Sample(i, i, Kind.PHASE, "zip", i));
+        }
+        // Wraps around in the middle of a write too.
+        AWSEBTrends.write(file, samples.subList(0, AWSEBTrends.SLOTS - 5));
+        AWSEBTrends.write(file, samples.subList(AWSEBTrends.SLOTS - 5, samples.size()));
+
+        List<Sample> read = AWSEBTrends.read(file);
+
+        assertEquals(AWSEBTrends.SLOTS, read.size());
+        assertEquals(10, read.get(0).getBuildNumber());
+        assertEquals(AWSEBTrends.SLOTS + 9, read.get(read.size() - 1).getBuildNumber());
+        for (int i = 1; i < read.size(); i++) {
+            assertEquals(read.get(i - 1).getValue() + 1, read.get(i).getValue());
+        }
+        assertEquals(16 + AWSEBTrends.SLOTS * 128, file.length());
+    }
+
+    @Test
+    public void truncatesLongNames() throws Exception {
+        File file = new File(folder.getRoot(), AWSEBTrends.FILE);
+        String name = StringUtils.repeat("\u00e9", 100);
+        AWSEBTrends.write(file, Arrays.asList(new Sample(1, 1, Kind.ENVIRONMENT, name, 1)));
+
+        String read = AWSEBTrends.read(file).get(0).getName();
+
+        assertTrue(name.startsWith(read));
+        assertTrue(read.length() < name.length());
+    }
+
+    @Test
+    public void readsNothingFromAnotherFile() throws Exception {
+        File file = folder.newFile("other.dat");
+
+        assertTrue(AWSEBTrends.read(file).isEmpty());
+    }
+
+    @Test
+    public void skipsSlotsThatDontHoldASample() throws Exception {
+        File file = new File(folder.getRoot(), AWSEBTrends.FILE);
+        AWSEBTrends.write(file, Arrays.asList(new Sample(1, 1, Kind.PHASE, "zip", 1),
+                new Sample(1, 1, Kind.PHASE, "upload", 2), new Sample(1, 1, Kind.PHASE, "copy", 3)));
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            // The kind of the first sample, then the name length of the second one.
+            out.seek(16 + 12);
+            out.write(Kind.values().length);
+            out.seek(16 + 128 + 21);
+            out.writeShort(-1);
+        } finally {
+            out.close();
+        }
+
+        List<Sample> samples = AWSEBTrends.read(file);
+
+        assertEquals(1, samples.size());
+        assertEquals("copy", samples.get(0).getName());
+    }
+
+    @Test
+    public void takesPercentilesOverWindowsOfBuilds() {
+        List<Sample> samples = new ArrayList<Sample>();
+        for (int build = 1; build <= 25; build++) {
+            samples.add(new Sample(build, build, Kind.PHASE, "upload", build * 10));
+        }
+
+        List<Trend> trends = AWSEBTrends.getTrends(samples);
+
+        assertEquals(1, trends.size());
+        List<Window> windows = trends.get(0).getWindows();
+        assertEquals(3, windows.size());
+        // The oldest window is partial.
+        assertWindow(windows.get(0), 1, 5, 30, 50);
+        assertWindow(windows.get(1), 6, 15, 100, 150);
+        assertWindow(windows.get(2), 16, 25, 200, 250);
+        assertEquals(250, windows.get(2).getP99());
+        assertEquals("x6.7", trends.get(0).getChangeText());
+    }
+
+    @Test
+    public void keepsTheLatestWindows() {
+        List<Sample> samples = new ArrayList<Sample>();
+        for (int build = 1; build <= 100; build++) {
+            samples.add(new Sample(build, build, Kind.THROTTLED, "", build));
+        }
+
+        List<Window> windows = AWSEBTrends.getTrends(samples).get(0).getWindows();
+
+        assertEquals(AWSEBTrends.MAX_WINDOWS, windows.size());
+        assertEquals(41, windows.get(0).getFirstBuild());
+        assertEquals(100, windows.get(windows.size() - 1).getLastBuild());
+    }
+
+    @Test
+    public void sortsTrendsByKindThenName() {
+        List<Sample> samples = Arrays.asList(
+                new Sample(1, 1, Kind.ENVIRONMENT, "web", 1),
+                new Sample(1, 1, Kind.PHASE, "zip", 1),
+                new Sample(1, 1, Kind.PHASE, "upload", 1),
+                new Sample(1, 1, Kind.ENVIRONMENT, "api", 1));
+
+        List<Trend> trends = AWSEBTrends.getTrends(samples);
+
+        assertEquals(Arrays.asList("upload", "zip", "api", "web"),
+                Arrays.asList(trends.get(0).getName(), trends.get(1).getName(), trends.get(2).getName(), trends.get(3).getName()));
+        assertEquals("", trends.get(0).getChangeText());
+    }
+
+    private static void assertWindow(Window window, int firstBuild, int lastBuild, long p50, long p95) {
+        assertEquals(firstBuild, window.getFirstBuild());
+        assertEquals(lastBuild, window.getLastBuild());
+        assertEquals(lastBuild - firstBuild + 1, window.getCount());
+        assertEquals(p50, window.getP50());
+        assertEquals(p95, window.getP95());
+    }
+}
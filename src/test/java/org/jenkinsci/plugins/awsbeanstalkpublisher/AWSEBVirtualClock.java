@@ -0,0 +1,157 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Virtual time for simulations: scheduled tasks run one at a time, in the order they are due, on the thread
+ * that {@link #run}s the clock, and time jumps straight to the next task. Sleeping runs what is due meanwhile.
+ */
+public class AWSEBVirtualClock implements AWSEBClock {
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<Task>();
+    private long now;
+    private long sequence;
+    private int ran;
+
+    public AWSEBVirtualClock(long start) {
+        this.now = start;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        runUntil(now + millis);
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, long delayMillis) {
+        Task scheduled = new Task(task, now + Math.max(0, delayMillis), sequence++);
+        tasks.add(scheduled);
+        return scheduled;
+    }
+
+    /**
+     * Runs the tasks until there are none left.
+     *
+     * @param maxTasks how many tasks to run at most, in case the simulation never settles.
+     */
+    public void run(int maxTasks) {
+        int limit = ran + maxTasks;
+        while (!tasks.isEmpty()) {
+            if (ran >= limit) {
+                throw new IllegalStateException(String.format("Still busy after %s tasks", maxTasks));
+            }
+            runNext();
+        }
+    }
+
+    /**
+     * Runs the tasks due by then and moves the time to it.
+     */
+    public void runUntil(long time) {
+        while (!tasks.isEmpty() && tasks.peek().due <= time) {
+            runNext();
+        }
+        now = Math.max(now, time);
+    }
+
+    private void runNext() {
+        Task task = tasks.poll();
+        now = Math.max(now, task.due);
+        if (!task.cancelled) {
+            ran++;
+            task.done = true;
+            task.task.run();
+        }
+    }
+
+    /**
+     * @return how many tasks ran so far.
+     */
+    public int getTasksRun() {
+        return ran;
+    }
+
+    private class Task implements Future<Object>, Comparable<Task> {
+        private final Runnable task;
+        private final long due;
+        private final long sequence;
+        private boolean cancelled;
+        private boolean done;
+
+        Task(Runnable task, long due, long sequence) {
+            this.task = task;
+            this.due = due;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (due != other.due) {
+                return due < other.due ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done || cancelled;
+        }
+
+        /**
+         * Runs the clock until this task is done, there being no other thread to wait for.
+         */
+        @Override
+        public Object get() {
+            while (!isDone()) {
+                if (tasks.isEmpty()) {
+                    throw new IllegalStateException("The task is not scheduled");
+                }
+                runNext();
+            }
+            return result();
+        }
+
+        /**
+         * Runs the clock until this task is done or the timeout is up, in virtual time.
+         */
+        @Override
+        public Object get(long timeout, TimeUnit unit) throws TimeoutException {
+            long deadline = now + unit.toMillis(timeout);
+            while (!isDone() && !tasks.isEmpty() && tasks.peek().due <= deadline) {
+                runNext();
+            }
+            if (!isDone()) {
+                now = Math.max(now, deadline);
+                throw new TimeoutException();
+            }
+            return result();
+        }
+
+        private Object result() {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            return null;
+        }
+    }
+}
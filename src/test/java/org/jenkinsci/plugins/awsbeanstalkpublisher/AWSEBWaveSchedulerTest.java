@@ -0,0 +1,183 @@
+package org.jenkinsci.plugins.awsbeanstalkpublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hudson.model.BuildListener;
+import hudson.model.StreamBuildListener;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jenkinsci.plugins.awsbeanstalkpublisher.extensions.AWSEBRollingDeployment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+
+public class AWSEBWaveSchedulerTest {
+
+    private ByteArrayOutputStream log;
+    private BuildListener listener;
+    private ExecutorService pool;
+    private final List<String> updated = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        log = new ByteArrayOutputStream();
+        listener = new StreamBuildListener(log, Charset.forName("UTF-8"));
+        pool = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void canaryThenBatches() {
+        AWSEBWaveScheduler waves = scheduler(1, "2", 0);
+
+        assertEquals(Arrays.asList(Arrays.asList(1), Arrays.asList(2, 3), Arrays.asList(4, 5), Arrays.asList(6)),
+                waves.getWaves(Arrays.asList(1, 2, 3, 4, 5, 6)));
+    }
+
+    @Test
+    public void percentageOfAllEnvironmentsRoundedUp() {
+        AWSEBWaveScheduler waves = scheduler(1, "50%", 0);
+
+        assertEquals(Arrays.asList(Arrays.asList(1), Arrays.asList(2, 3, 4), Arrays.asList(5)),
+                waves.getWaves(Arrays.asList(1, 2, 3, 4, 5)));
+    }
+
+    @Test
+    public void oneWaveWithoutABatchSize() {
+        AWSEBWaveScheduler waves = scheduler(0, null, 0);
+
+        assertEquals(Arrays.asList(Arrays.asList(1, 2, 3)), waves.getWaves(Arrays.asList(1, 2, 3)));
+        assertEquals(Collections.emptyList(), waves.getWaves(Collections.emptyList()));
+    }
+
+    @Test
+    public void canaryLargerThanTheEnvironments() {
+        AWSEBWaveScheduler waves = scheduler(5, "1", 0);
+
+        assertEquals(Arrays.asList(Arrays.asList(1, 2)), waves.getWaves(Arrays.asList(1, 2)));
+    }
+
+    @Test
+    public void updatesEveryWaveAfterThePrevious() throws Exception {
+        List<AWSEBEnvironmentUpdaterThread> updates = updates("canary", "ok", "ok", "ok", "ok");
+
+        assertTrue(scheduler(1, "2", 0).run(pool, updates));
+
+        assertEquals(5, updated.size());
+        assertEquals("canary-0", updated.get(0));
+        // A wave's environments in any order, but never before the previous wave's.
+        assertEquals(new ArrayList<String>(Arrays.asList("ok-1", "ok-2")), sorted(updated.subList(1, 3)));
+        assertEquals(new ArrayList<String>(Arrays.asList("ok-3", "ok-4")), sorted(updated.subList(3, 5)));
+    }
+
+    @Test
+    public void failedCanaryHaltsTheRollout() throws Exception {
+        List<AWSEBEnvironmentUpdaterThread> updates = updates("fail", "ok", "ok");
+
+        assertFalse(scheduler(1, "1", 0).run(pool, updates));
+
+        assertEquals(Arrays.asList("fail-0"), updated);
+        String output = log.toString("UTF-8");
+        assertTrue(output, output.contains("Halting the rollout, 1 of 1 updated environments failed (more than 0%)"));
+        assertTrue(output, output.contains("'ok-1': Skipped, the rollout was halted"));
+        assertTrue(output, output.contains("'ok-2': Skipped, the rollout was halted"));
+    }
+
+    @Test
+    public void goesOnWhileFailuresStayWithinTheLimit() throws Exception {
+        List<AWSEBEnvironmentUpdaterThread> updates = updates("ok", "fail", "ok", "ok", "fail", "ok");
+
+        // 1 of 2, then 1 of 4 failed: never more than half.
+        assertFalse(scheduler(0, "2", 50).run(pool, updates));
+
+        assertEquals(6, updated.size());
+        assertFalse(log.toString("UTF-8").contains("Halting"));
+    }
+
+    @Test
+    public void haltsOnceFailuresGoOverTheLimit() throws Exception {
+        List<AWSEBEnvironmentUpdaterThread> updates = updates("ok", "fail", "fail", "fail", "ok", "ok");
+
+        // 1 of 2 is fine, 3 of 4 is over half.
+        assertFalse(scheduler(0, "2", 50).run(pool, updates));
+
+        assertEquals(4, updated.size());
+        assertTrue(log.toString("UTF-8").contains("Halting the rollout, 3 of 4 updated environments failed (more than 50%)"));
+    }
+
+    @Test
+    public void lastWaveIsNotHalted() throws Exception {
+        List<AWSEBEnvironmentUpdaterThread> updates = updates("ok", "fail");
+
+        assertFalse(scheduler(0, "1", 0).run(pool, updates));
+
+        assertEquals(2, updated.size());
+        assertFalse(log.toString("UTF-8").contains("Halting"));
+    }
+
+    private AWSEBWaveScheduler scheduler(int canaryCount, String batchSize, int maxFailurePercent) {
+        return new AWSEBWaveScheduler(listener, new AWSEBRollingDeployment(canaryCount, batchSize, 0, maxFailurePercent));
+    }
+
+    /**
+     * @param outcomes <code>fail</code> for an update that fails, anything else for one that works.
+     */
+    private List<AWSEBEnvironmentUpdaterThread> updates(String... outcomes) {
+        List<AWSEBEnvironmentUpdaterThread> updates = new ArrayList<AWSEBEnvironmentUpdaterThread>();
+        for (int i = 0; i < outcomes.length; i++) {
+            updates.add(new FakeUpdate(outcomes[i] + "-" + i, !"fail".equals(outcomes[i])));
+        }
+        return updates;
+    }
+
+    private static List<String> sorted(List<String> names) {
+        List<String> sorted = new ArrayList<String>(names);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Records when it's run instead of updating anything.
+     */
+    private class FakeUpdate extends AWSEBEnvironmentUpdaterThread {
+        private final String name;
+        private final boolean succeeds;
+
+        FakeUpdate(String name, boolean succeeds) {
+            super(null, new EnvironmentDescription().withEnvironmentName(name), new StreamBuildListener(new ByteArrayOutputStream(), Charset.forName("UTF-8")), "v2");
+            this.name = name;
+            this.succeeds = succeeds;
+        }
+
+        @Override
+        public AWSEBEnvironmentUpdaterThread call() {
+            updated.add(name);
+            return this;
+        }
+
+        @Override
+        public void printResults() {
+            // nothing to show
+        }
+
+        @Override
+        public boolean isSuccessfull() {
+            return succeeds;
+        }
+    }
+}